@@ -4,7 +4,16 @@
 
 package hexgui;
 
+import hexgui.diagram.DiagramBatch;
+import hexgui.gui.GfxBoard;
 import hexgui.gui.HexGui;
+import hexgui.gui.Program;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+import hexgui.htp.EnginePool;
+import hexgui.htp.EngineWatchdog;
+import hexgui.htp.HtpBenchmark;
+import hexgui.match.Tournament;
 import hexgui.util.Options;
 import hexgui.version.Version;
 
@@ -64,12 +73,174 @@ public final class Main
         HexGui app = new HexGui(file, command);
     }
 
+    /** Runs a tournament between programs from the preferences
+        without opening a window. */
+    private static void runTournament(Options opt) throws Exception
+    {
+        Vector<Program> programs = Program.load();
+        Vector<Program> players = new Vector<Program>();
+        for (String name : opt.get("engines").split(","))
+        {
+            Program p = Program.findWithName(name.trim(), programs);
+            if (p == null)
+                throw new Exception("Unknown program '" + name.trim() + "'");
+            players.add(p);
+        }
+        if (players.size() < 2)
+            throw new Exception("Need at least two programs");
+
+        String mode = opt.get("tournament");
+        Tournament.Mode m;
+        if (mode.equals("round-robin"))
+            m = Tournament.Mode.ROUND_ROBIN;
+        else if (mode.equals("gauntlet"))
+            m = Tournament.Mode.GAUNTLET;
+        else
+            throw new Exception("Unknown tournament type '" + mode + "'");
+
+        int s = opt.getInteger("size", HexPoint.DEFAULT_SIZE, 1,
+                               HexPoint.MAX_WIDTH);
+        Dimension size = new Dimension(s, s);
+        Vector<Vector<Move>> openings = new Vector<Vector<Move>>();
+        if (opt.contains("openings"))
+            openings = Tournament.loadOpenings(new File(opt.get("openings")),
+                                               size);
+        int rounds = opt.getInteger("rounds", 1, 1);
+        int parallel = opt.getInteger("parallel",
+                             Math.max(1, Runtime.getRuntime()
+                                      .availableProcessors() / 2), 1);
+        File outdir = null;
+        if (opt.contains("sgf"))
+        {
+            outdir = new File(opt.get("sgf"));
+            if (!outdir.isDirectory() && !outdir.mkdirs())
+                throw new Exception("Cannot create directory " + outdir);
+        }
+        Tournament tournament = new Tournament(players, m, size, openings,
+                                               rounds, parallel, outdir);
+        if (opt.contains("deadlines"))
+            tournament.setWatchdog(new EngineWatchdog
+                (opt.get("deadlines"), DEADLINE_GRACE,
+                 new EngineWatchdog.Listener()
+                 {
+                     public void commandInterrupted
+                         (EngineWatchdog.Watched engine, String cmd,
+                          long elapsed)
+                     {
+                     }
+
+                     public void engineKilled(EngineWatchdog.Watched engine,
+                                              String cmd, long elapsed)
+                     {
+                         System.err.println(engine + ": hung in '"
+                                            + cmd.trim() + "' for "
+                                            + elapsed / 1000
+                                            + " s, killed.");
+                     }
+                 }));
+        if (opt.contains("pool"))
+        {
+            EnginePool pool = new EnginePool(opt.getInteger("pool", 1, 1),
+                                             ENGINE_LOG_CAPACITY);
+            for (Program p : players)
+                pool.warm(p.m_command, p.m_working, p.m_environment);
+            tournament.setEnginePool(pool);
+            tournament.run();
+            pool.shutdown();
+        }
+        else
+            tournament.run();
+    }
+
+    /** Runs the HTP benchmark, and exits with status 1 if it is
+        slower than the baseline. */
+    private static void runBenchmark(Options opt) throws Exception
+    {
+        System.setProperty("java.awt.headless", "true");
+        HtpBenchmark benchmark
+            = new HtpBenchmark(opt.getInteger("commands", 20000, 1),
+                               opt.getInteger("gfx", 5000, 1, 1000000),
+                               new GfxBoard(600, 400));
+        HtpBenchmark.Result results[] = benchmark.run();
+        HtpBenchmark.print(System.out, results);
+        if (opt.contains("save"))
+            HtpBenchmark.save(new File(opt.get("save")), results);
+        if (opt.contains("baseline")
+            && HtpBenchmark.compare(new File(opt.get("baseline")), results,
+                                    BENCHMARK_TOLERANCE, System.err) > 0)
+            System.exit(1);
+    }
+
+    /** Renders board diagrams to image files without opening a
+        window, and exits with status 1 if some could not be written. */
+    private static void runRender(Options opt) throws Exception
+    {
+        System.setProperty("java.awt.headless", "true");
+        String format = opt.get("render");
+        DiagramBatch.Format f;
+        if (format.equals("png"))
+            f = DiagramBatch.Format.PNG;
+        else if (format.equals("svg"))
+            f = DiagramBatch.Format.SVG;
+        else
+            throw new Exception("Unknown image format '" + format + "'");
+        String pixels[] = opt.get("pixels", "750x500").split("x");
+        int width, height;
+        try {
+            if (pixels.length != 2)
+                throw new NumberFormatException();
+            width = Integer.parseInt(pixels[0]);
+            height = Integer.parseInt(pixels[1]);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new Exception("Invalid image size '" + opt.get("pixels")
+                                + "'");
+        }
+        if (width < 1 || height < 1)
+            throw new Exception("Invalid image size '" + opt.get("pixels")
+                                + "'");
+        int rotation = opt.getInteger("rotation", 10, 0, 11);
+        int parallel = opt.getInteger("parallel",
+                             Runtime.getRuntime().availableProcessors(), 1);
+        File outdir = new File(opt.get("output", "."));
+        if (!outdir.isDirectory() && !outdir.mkdirs())
+            throw new Exception("Cannot create directory " + outdir);
+        ArrayList<String> inputs = opt.getArguments();
+        if (inputs.isEmpty())
+            throw new Exception("No files to render");
+        DiagramBatch batch = new DiagramBatch(outdir, f, width, height,
+                                              rotation, parallel);
+        for (String input : inputs)
+            batch.add(input);
+        if (batch.run() > 0)
+            System.exit(1);
+    }
+
     public static void main(String[] args) throws Exception {
         try
         {
             String options[] = {
+                "baseline:",
+                "benchmark",
+                "commands:",
                 "config:",
+                "deadlines:",
+                "engines:",
+                "gfx:",
+                "openings:",
+                "output:",
+                "parallel:",
+                "pixels:",
+                "pool:",
                 "program:",
+                "render:",
+                "rotation:",
+                "rounds:",
+                "save:",
+                "sgf:",
+                "size:",
+                "tournament:",
                 "help",
                 "version"
             };
@@ -83,7 +254,37 @@ public final class Main
                     "-config file   Read command line arguments from file\n" +
                     "-help          Display this help and exit\n" +
                     "-program       Command for Hex program to attach\n" +
-                    "-version       Print version and exit\n";
+                    "-version       Print version and exit\n" +
+                    "\n" +
+                    "-tournament round-robin|gauntlet\n" +
+                    "               Play a match without a window\n" +
+                    "-deadlines cmd=s,..  Kill engines that hang, e.g.\n" +
+                    "               genmove=60,*=10\n" +
+                    "-engines a,b,..  Names of the programs to play\n" +
+                    "-openings file SGF file or directory of openings\n" +
+                    "-parallel n    Number of games played at once\n" +
+                    "-pool n        Keep n started instances of each\n" +
+                    "               program ready\n" +
+                    "-rounds n      Games per pairing, opening and color\n" +
+                    "-sgf dir       Directory for game records and summary\n" +
+                    "-size n        Board size\n" +
+                    "\n" +
+                    "-benchmark     Time the engine code against a fake\n" +
+                    "               engine and exit\n" +
+                    "-commands n    Commands per benchmark scenario\n" +
+                    "-gfx n         Gfx messages per second sent by the\n" +
+                    "               fake engine to the board\n" +
+                    "-baseline file Fail if slower than a saved run\n" +
+                    "-save file     Save the benchmark results\n" +
+                    "\n" +
+                    "-render png|svg  Draw diagrams of the positions in\n" +
+                    "               file.sgf[:node], directories of SGF\n" +
+                    "               files or position lists and exit\n" +
+                    "-output dir    Directory for the images\n" +
+                    "-parallel n    Number of images drawn at once\n" +
+                    "-pixels WxH    Size of the images\n" +
+                    "-rotation n    Clock position 0-11 of a1, as in the\n" +
+                    "               board window (default 10)\n";
                 System.out.print(helpText);
                 return;
             }
@@ -92,6 +293,18 @@ public final class Main
                                    + Version.date);
                 return;
             }
+            if (opt.contains("tournament")) {
+                runTournament(opt);
+                return;
+            }
+            if (opt.contains("render")) {
+                runRender(opt);
+                return;
+            }
+            if (opt.contains("benchmark")) {
+                runBenchmark(opt);
+                return;
+            }
             final String command = opt.get("program", null);
             ArrayList<String> arguments = opt.getArguments();
             final File file;
@@ -112,4 +325,14 @@ public final class Main
             System.err.println(e.getMessage());
         }
     }
+
+    /** Milliseconds between interrupting a command that is past its
+        deadline and killing the engine. */
+    private static final long DEADLINE_GRACE = 5000;
+
+    /** Slowdown against the baseline that -benchmark accepts. */
+    private static final double BENCHMARK_TOLERANCE = 0.2;
+
+    /** Characters of standard error kept per pooled engine. */
+    private static final int ENGINE_LOG_CAPACITY = 65536;
 }
@@ -0,0 +1,170 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.diagram;
+
+import hexgui.game.Node;
+import hexgui.gui.FieldStore;
+import hexgui.gui.GuiField;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+
+import java.util.Vector;
+
+//----------------------------------------------------------------------------
+
+/** A position on a Hex board to be drawn as a diagram, with the marks
+    the board window shows for it: the last move, swap marks and
+    labels.
+*/
+public class Diagram
+{
+    /** Creates an empty board of the given size. */
+    public Diagram(String name, int width, int height)
+    {
+        m_name = name;
+        m_width = width;
+        m_height = height;
+        HexPoint points[] = new HexPoint[width * height];
+        for (int i = 0; i < points.length; i++)
+            points[i] = HexPoint.get(i % width, i / width);
+        m_fields = new FieldStore(points, width, height);
+        for (int i = 0; i < points.length; i++)
+            m_fields.setAttributes(i, GuiField.DRAW_CELL_OUTLINE);
+    }
+
+    /** Creates the diagram of the position at a node of a game tree,
+        with its last move and labels marked. */
+    public static Diagram fromNode(String name, Node node, int width,
+                                   int height)
+    {
+        Vector<Node> path = new Vector<Node>();
+        for (Node n = node; n != null; n = n.getParent())
+            path.add(0, n);
+        Diagram diagram = new Diagram(name, width, height);
+        for (Node n : path)
+        {
+            if (n.hasMove())
+                diagram.play(n.getMove());
+            if (n.hasSetup())
+                diagram.setup(n);
+        }
+        if (node.getParent() != null && node.hasMove())
+            diagram.markMove(node.getMove());
+        Vector<String> labels = node.getLabels();
+        for (int i = 0; i < labels.size(); i++)
+        {
+            String strs[] = labels.get(i).split(":");
+            if (strs.length == 2)
+                diagram.setLabel(HexPoint.get(strs[0].trim()),
+                                 strs[1].trim());
+        }
+        return diagram;
+    }
+
+    public String getName() { return m_name; }
+
+    public int getWidth() { return m_width; }
+
+    public int getHeight() { return m_height; }
+
+    /** The fields of the board, in the order of the cells a1, b1, ...,
+        a2, b2, ... */
+    public FieldStore getFields() { return m_fields; }
+
+    /** Plays a move; swap-pieces mirrors the stones and changes their
+        colors, other moves that are not on a cell do nothing.  On a
+        board that is not square, stones mirrored off the board are
+        removed. */
+    public void play(Move move)
+    {
+        HexPoint point = move.getPoint();
+        if (point == HexPoint.SWAP_PIECES)
+        {
+            FieldStore old = new FieldStore(m_fields);
+            for (int i = 0; i < m_fields.size(); i++)
+            {
+                int other = getIndex(m_fields.getPoint(i).reflect());
+                m_fields.setColor(i, (other < 0) ? HexColor.EMPTY
+                                  : old.getColor(other).otherColor());
+            }
+        }
+        else
+            setColor(point, move.getColor());
+    }
+
+    /** Places the setup stones of a node. */
+    public void setup(Node node)
+    {
+        HexColor colors[] = { HexColor.BLACK, HexColor.WHITE,
+                              HexColor.EMPTY };
+        for (HexColor color : colors)
+        {
+            Vector<HexPoint> points = node.getSetup(color);
+            for (int j = 0; j < points.size(); j++)
+                setColor(points.get(j), color);
+        }
+    }
+
+    /** Marks a move as the last one played: a swap marks all stones,
+        a move on a cell marks that cell. */
+    public void markMove(Move move)
+    {
+        HexPoint point = move.getPoint();
+        if (point == HexPoint.SWAP_SIDES || point == HexPoint.SWAP_PIECES)
+        {
+            for (int i = 0; i < m_fields.size(); i++)
+                if (m_fields.getColor(i) != HexColor.EMPTY)
+                    setAttribute(i, GuiField.SWAP_PLAYED);
+        }
+        else
+        {
+            int i = getIndex(point);
+            if (i >= 0)
+                setAttribute(i, GuiField.LAST_PLAYED);
+        }
+    }
+
+    /** Writes a label on a cell. */
+    public void setLabel(HexPoint point, String text)
+    {
+        int i = getIndex(point);
+        if (i < 0)
+            return;
+        m_fields.setText(i, text);
+        setAttribute(i, GuiField.DRAW_TEXT);
+    }
+
+    //------------------------------------------------------------
+
+    /** Index of the field of a point, or -1 if it is not a cell of
+        the board. */
+    private int getIndex(HexPoint point)
+    {
+        if (point == null || !point.is_cell())
+            return -1;
+        return m_fields.getIndex(point);
+    }
+
+    private void setColor(HexPoint point, HexColor color)
+    {
+        int i = getIndex(point);
+        if (i >= 0)
+            m_fields.setColor(i, color);
+    }
+
+    private void setAttribute(int i, int attribute)
+    {
+        m_fields.setAttributes(i, m_fields.getAttributes(i) | attribute);
+    }
+
+    private final String m_name;
+
+    private final int m_width, m_height;
+
+    private final FieldStore m_fields;
+}
+
+//----------------------------------------------------------------------------
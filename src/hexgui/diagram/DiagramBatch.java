@@ -0,0 +1,418 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.diagram;
+
+import hexgui.game.Node;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+import hexgui.sgf.SgfReader;
+
+import java.awt.Dimension;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+
+//----------------------------------------------------------------------------
+
+/** Headless rendering of board diagrams to image files.
+
+    <p>Inputs are read in the calling thread with add(), then run()
+    draws the diagrams in a pool of threads, each with its own
+    DiagramRenderer.  A diagram only depends on its position and the
+    image settings, so the files are the same whatever the number of
+    threads.
+
+    <p>An input is one of:
+    <ul>
+    <li><code>file.sgf</code>: the position at the end of the main
+    line, written as <code>file.png</code>.
+    <li><code>file.sgf:N</code>: the position after N nodes of the main
+    line, written as <code>file-NNN.png</code>.
+    <li><code>file.sgf:all</code>: every node of the main line.
+    <li><code>file.sgf:N.c.M</code>: the position N nodes down the main
+    line, then to child c of that node (0 is the main line), then M
+    nodes further, and so on.
+    <li>a directory: the end of the main line of every SGF file in it.
+    <li>any other file: a position list with one diagram per line,
+    written as <code>name WxH move move ...</code> or
+    <code>name N move ...</code> for an N by N board.  The name is used
+    as the file name and must not contain path separators or "..".
+    Moves alternate starting with black, except that the player does
+    not change after swap-sides.  Empty lines and lines starting with
+    # are ignored.
+    </ul>
+    Errors in an input are printed and the input is skipped.
+*/
+public class DiagramBatch
+{
+    public enum Format
+    {
+        PNG,
+
+        /** SVG document with the board drawn as vector graphics. */
+        SVG
+    }
+
+    /** Constructor.
+        @param outdir directory for the image files.
+        @param width width of the images in pixels.
+        @param height height of the images in pixels.
+        @param rotation clock position of a1, from 0 to 11.
+        @param parallel number of diagrams drawn at the same time. */
+    public DiagramBatch(File outdir, Format format, int width, int height,
+                        int rotation, int parallel)
+    {
+        m_outdir = outdir;
+        m_format = format;
+        m_width = width;
+        m_height = height;
+        m_rotation = rotation;
+        m_parallel = Math.max(1, parallel);
+        m_diagrams = new Vector<Diagram>();
+        m_names = new HashSet<String>();
+    }
+
+    /** Adds the diagrams of an input; see the class description. */
+    public void add(String input)
+    {
+        File file = new File(input);
+        String path = null;
+        int colon = input.lastIndexOf(':');
+        if (!file.exists() && colon > 0
+            && input.substring(colon + 1).matches("all|\\d+(\\.\\d+)*"))
+        {
+            file = new File(input.substring(0, colon));
+            path = input.substring(colon + 1);
+        }
+        try {
+            if (file.isDirectory())
+            {
+                File files[] = file.listFiles();
+                Arrays.sort(files);
+                for (File f : files)
+                    if (f.getName().endsWith(".sgf"))
+                        addSgf(f, null);
+            }
+            else if (path != null || file.getName().endsWith(".sgf"))
+                addSgf(file, path);
+            else
+                addList(file);
+        }
+        catch (RuntimeException e)
+        {
+            System.err.println(input + ": " + e + ", skipped.");
+        }
+    }
+
+    /** Number of diagrams added. */
+    public int size()
+    {
+        return m_diagrams.size();
+    }
+
+    /** Draws and writes all diagrams and blocks until they are done.
+        @return the number of diagrams that could not be written. */
+    public int run() throws InterruptedException
+    {
+        // The image cache would use temporary files shared by all
+        // threads; diagrams are small enough to encode in memory.
+        ImageIO.setUseCache(false);
+        System.err.println("Rendering " + m_diagrams.size() + " diagrams, "
+                           + m_parallel + " at a time.");
+        final ThreadLocal<DiagramRenderer> renderers
+            = new ThreadLocal<DiagramRenderer>()
+            {
+                protected DiagramRenderer initialValue()
+                {
+                    return new DiagramRenderer(m_width, m_height,
+                                               m_rotation, false);
+                }
+            };
+        ExecutorService pool = Executors.newFixedThreadPool(m_parallel);
+        for (final Diagram diagram : m_diagrams)
+        {
+            pool.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        write(renderers.get(), diagram);
+                    }
+                });
+        }
+        pool.shutdown();
+        while (!pool.awaitTermination(1, TimeUnit.MINUTES))
+            ;
+        System.err.println((m_diagrams.size() - m_numFailed)
+                           + " diagrams written to " + m_outdir
+                           + (m_numFailed > 0 ? ", " + m_numFailed
+                              + " failed." : "."));
+        return m_numFailed;
+    }
+
+    //------------------------------------------------------------
+
+    /** Called from the worker threads. */
+    private void write(DiagramRenderer renderer, Diagram diagram)
+    {
+        File file = new File(m_outdir, diagram.getName()
+                             + (m_format == Format.SVG ? ".svg" : ".png"));
+        try {
+            if (m_format == Format.SVG)
+                renderer.writeSvg(diagram, file);
+            else
+                renderer.writePng(diagram, file);
+        }
+        catch (IOException e)
+        {
+            System.err.println(file + ": " + e.getMessage());
+            failed();
+        }
+        catch (RuntimeException e)
+        {
+            System.err.println(file + ": " + e);
+            failed();
+        }
+    }
+
+    private synchronized void failed()
+    {
+        ++m_numFailed;
+    }
+
+    private void addSgf(File file, String path)
+    {
+        try {
+            SgfReader reader;
+            FileInputStream in = new FileInputStream(file);
+            try {
+                reader = new SgfReader(in);
+            }
+            finally {
+                in.close();
+            }
+            Dimension size = reader.getGameInfo().getBoardSize();
+            if (size == null)
+                size = new Dimension(HexPoint.DEFAULT_SIZE,
+                                     HexPoint.DEFAULT_SIZE);
+            String base = file.getName();
+            if (base.endsWith(".sgf"))
+                base = base.substring(0, base.length() - 4);
+            Node root = reader.getGameTree();
+            if (path == null)
+            {
+                Node node = root;
+                while (node.getChild() != null)
+                    node = node.getChild();
+                addDiagram(file, Diagram.fromNode(base, node, size.width,
+                                                  size.height));
+            }
+            else if (path.equals("all"))
+            {
+                int n = 0;
+                for (Node node = root; node != null; node = node.getChild())
+                    addDiagram(file, Diagram.fromNode(getName(base, n++),
+                                                      node, size.width,
+                                                      size.height));
+            }
+            else
+            {
+                Node node = findNode(root, path);
+                if (node == null)
+                    System.err.println(file + ": no node " + path
+                                       + ", skipped.");
+                else
+                    addDiagram(file, Diagram.fromNode(getName(base, path),
+                                                      node, size.width,
+                                                      size.height));
+            }
+        }
+        catch (SgfReader.SgfError e)
+        {
+            System.err.println(file + ": " + e.getMessage());
+        }
+        catch (IOException e)
+        {
+            System.err.println(file + ": " + e.getMessage());
+        }
+    }
+
+    /** Name of the diagram of main line node n. */
+    private static String getName(String base, int n)
+    {
+        return String.format("%s-%03d", base, n);
+    }
+
+    /** Name of the diagram of the node at a path. */
+    private static String getName(String base, String path)
+    {
+        String steps[] = path.split("\\.");
+        if (steps.length == 1)
+            return getName(base, Integer.parseInt(path));
+        return base + "-" + path;
+    }
+
+    /** Follows a path of the form N.c.M.c... from the root.
+        @return the node, or null if the path leaves the tree. */
+    private static Node findNode(Node root, String path)
+    {
+        String steps[] = path.split("\\.");
+        Node node = root;
+        for (int i = 0; i < steps.length && node != null; i++)
+        {
+            int n;
+            try {
+                n = Integer.parseInt(steps[i]);
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+            if (i % 2 == 0)
+            {
+                for (int j = 0; j < n && node != null; j++)
+                    node = node.getChild();
+            }
+            else
+                node = node.getChild(n);
+        }
+        return node;
+    }
+
+    private void addList(File file)
+    {
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                int number = 0;
+                while ((line = in.readLine()) != null)
+                {
+                    ++number;
+                    line = line.trim();
+                    if (line.equals("") || line.startsWith("#"))
+                        continue;
+                    Diagram diagram = parsePosition(line);
+                    if (diagram == null)
+                        System.err.println(file + ":" + number
+                                           + ": invalid position, skipped.");
+                    else
+                        addDiagram(file, diagram);
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println(file + ": " + e.getMessage());
+        }
+    }
+
+    /** Parses a line of a position list.
+        @return the diagram, or null if the line is invalid. */
+    private static Diagram parsePosition(String line)
+    {
+        String tokens[] = line.split("\\s+");
+        if (tokens.length < 2 || !isValidName(tokens[0]))
+            return null;
+        int w, h;
+        try {
+            String dim[] = tokens[1].toLowerCase().split("x");
+            if (dim.length > 2)
+                return null;
+            w = Integer.parseInt(dim[0]);
+            h = (dim.length == 2) ? Integer.parseInt(dim[1]) : w;
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+        if (w < 1 || w > HexPoint.MAX_WIDTH
+            || h < 1 || h > HexPoint.MAX_HEIGHT)
+            return null;
+        Diagram diagram = new Diagram(tokens[0], w, h);
+        HexColor color = HexColor.BLACK;
+        Move last = null;
+        for (int i = 2; i < tokens.length; i++)
+        {
+            HexPoint point = getPoint(tokens[i]);
+            if (point == null || (point.is_cell()
+                                  && (point.x >= w || point.y >= h)))
+                return null;
+            last = new Move(point, color);
+            diagram.play(last);
+            if (point != HexPoint.SWAP_SIDES)
+                color = color.otherColor();
+        }
+        if (last != null)
+            diagram.markMove(last);
+        return diagram;
+    }
+
+    /** True if a name from a position list can be used as a file
+        name in the output directory. */
+    private static boolean isValidName(String name)
+    {
+        return name.indexOf('/') < 0 && name.indexOf('\\') < 0
+            && name.indexOf(File.separatorChar) < 0
+            && name.indexOf("..") < 0;
+    }
+
+    /** Like HexPoint.get(String), but returns null for invalid names
+        instead of failing an assertion. */
+    private static HexPoint getPoint(String name)
+    {
+        if (name.equalsIgnoreCase("swap"))
+            return HexPoint.SWAP_SIDES;
+        for (int i = 0; i < HexPoint.MAX_POINTS; i++)
+        {
+            HexPoint p = HexPoint.get(i);
+            if (name.equalsIgnoreCase(p.toString()))
+                return p;
+        }
+        return null;
+    }
+
+    private void addDiagram(File file, Diagram diagram)
+    {
+        if (!m_names.add(diagram.getName()))
+        {
+            System.err.println(file + ": diagram " + diagram.getName()
+                               + " already added, skipped.");
+            return;
+        }
+        m_diagrams.add(diagram);
+    }
+
+    private final File m_outdir;
+
+    private final Format m_format;
+
+    private final int m_width, m_height;
+
+    private final int m_rotation;
+
+    private final int m_parallel;
+
+    private final Vector<Diagram> m_diagrams;
+
+    /** Names of the diagrams, which are also the names of the files. */
+    private final HashSet<String> m_names;
+
+    private int m_numFailed;
+}
+
+//----------------------------------------------------------------------------
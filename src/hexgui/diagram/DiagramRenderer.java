@@ -0,0 +1,126 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.diagram;
+
+import hexgui.gui.BoardDrawerBase;
+import hexgui.gui.BoardDrawerHex;
+import hexgui.gui.FieldStore;
+import hexgui.gui.GuiField;
+import hexgui.hex.HexPoint;
+import hexgui.util.Pair;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Vector;
+import javax.imageio.ImageIO;
+
+//----------------------------------------------------------------------------
+
+/** Draws diagrams into images the way the board window draws the
+    position, without a window.
+
+    <p>Each renderer has its own board drawer with its cached layers,
+    stone sprites and text layouts, so several renderers can draw at
+    the same time in different threads, but one renderer must only be
+    used by one thread.
+*/
+public class DiagramRenderer
+{
+    /** Constructor.
+        @param width width of the images in pixels.
+        @param height height of the images in pixels.
+        @param rotation clock position of a1, from 0 to 11, as in
+        the gui-board-rotation preference.
+        @param mirrored true to draw the board mirrored. */
+    public DiagramRenderer(int width, int height, int rotation,
+                           boolean mirrored)
+    {
+        m_width = width;
+        m_height = height;
+        m_rotation = rotation;
+        m_mirrored = mirrored;
+        m_drawer = new BoardDrawerHex();
+        m_arrows = new Vector<Pair<HexPoint, HexPoint>>();
+    }
+
+    /** Draws a diagram into a new image. */
+    public BufferedImage render(Diagram diagram)
+    {
+        GuiField field[] = getViews(diagram);
+        BufferedImage image = new BufferedImage(m_width, m_height,
+                                                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        m_drawer.draw(g, m_width, m_height, diagram.getWidth(),
+                      diagram.getHeight(), m_rotation, m_mirrored, field,
+                      m_arrows);
+        g.dispose();
+        return image;
+    }
+
+    /** Draws a diagram and writes it to a file as PNG. */
+    public void writePng(Diagram diagram, File file) throws IOException
+    {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            writePng(render(diagram), out);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /** Writes a diagram to a file as an SVG document drawn with the
+        same geometry as the PNG; see BoardDrawerBase.writeSvg(). */
+    public void writeSvg(Diagram diagram, File file) throws IOException
+    {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                                            "UTF-8");
+        try {
+            m_drawer.writeSvg(out, m_width, m_height, diagram.getWidth(),
+                              diagram.getHeight(), m_rotation, m_mirrored,
+                              getViews(diagram));
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    //------------------------------------------------------------
+
+    private static void writePng(BufferedImage image, OutputStream out)
+        throws IOException
+    {
+        if (!ImageIO.write(image, "png", out))
+            throw new IOException("No PNG writer available");
+    }
+
+    private static GuiField[] getViews(Diagram diagram)
+    {
+        FieldStore fields = diagram.getFields();
+        GuiField field[] = new GuiField[fields.size()];
+        for (int i = 0; i < field.length; i++)
+            field[i] = new GuiField(fields, i);
+        return field;
+    }
+
+    private final int m_width, m_height;
+
+    private final int m_rotation;
+
+    private final boolean m_mirrored;
+
+    private final BoardDrawerBase m_drawer;
+
+    /** Always empty; diagrams have no arrows. */
+    private final Vector<Pair<HexPoint, HexPoint>> m_arrows;
+}
+
+//----------------------------------------------------------------------------
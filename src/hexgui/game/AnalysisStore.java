@@ -0,0 +1,120 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.game;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//----------------------------------------------------------------------------
+
+/** Keeps the analysis attached to the nodes of a game tree within a
+    memory budget.
+
+    <p>All analysis should be attached and looked up through the store,
+    which remembers which nodes were used least recently.  When the
+    analysis of all nodes takes more than the budget, the analysis of
+    the least recently used nodes is removed from them.  Must only be
+    used from one thread.
+*/
+public class AnalysisStore
+{
+    /** @param maxBytes approximate memory the analysis may use. */
+    public AnalysisStore(long maxBytes)
+    {
+        m_maxBytes = maxBytes;
+        m_nodes = new LinkedHashMap<Node, Integer>(64, 0.75f, true);
+    }
+
+    /** Returns the response attached to the node, or null. */
+    public String get(Node node, String engine, String command)
+    {
+        String response = node.getAnalysis(engine, command);
+        if (response != null)
+            m_nodes.get(node);
+        return response;
+    }
+
+    /** Attaches a response to the node. */
+    public void put(Node node, String engine, String command,
+                    String response)
+    {
+        forget(node);
+        node.setAnalysis(engine, command, response);
+        add(node);
+    }
+
+    /** Forgets the nodes of the previous tree and takes over the
+        analysis already attached to the nodes of a new one, for
+        example one loaded from a file.  If that is over the budget,
+        the analysis of the nodes that come last in file order is
+        dropped. */
+    public void reset(Node root)
+    {
+        m_nodes.clear();
+        m_bytes = 0;
+        addTree(root);
+    }
+
+    public int getNumNodes() { return m_nodes.size(); }
+
+    public long getBytes() { return m_bytes; }
+
+    //------------------------------------------------------------
+
+    private void addTree(Node node)
+    {
+        if (m_bytes + node.getAnalysisBytes() <= m_maxBytes)
+            add(node);
+        else
+            node.clearAnalysis();
+        for (Node child = node.getChild(); child != null;
+             child = child.getNext())
+            addTree(child);
+    }
+
+    private void add(Node node)
+    {
+        if (!node.hasAnalysis())
+            return;
+        int bytes = node.getAnalysisBytes();
+        m_nodes.put(node, Integer.valueOf(bytes));
+        m_bytes += bytes;
+        evict(node);
+    }
+
+    private void forget(Node node)
+    {
+        Integer bytes = m_nodes.remove(node);
+        if (bytes != null)
+            m_bytes -= bytes.intValue();
+    }
+
+    /** Drops the analysis of the least recently used nodes until the
+        store is within its budget, but never that of the given
+        node. */
+    private void evict(Node keep)
+    {
+        Iterator<Map.Entry<Node, Integer>> it = m_nodes.entrySet().iterator();
+        while (m_bytes > m_maxBytes && it.hasNext())
+        {
+            Map.Entry<Node, Integer> e = it.next();
+            if (e.getKey() == keep)
+                continue;
+            e.getKey().clearAnalysis();
+            m_bytes -= e.getValue().intValue();
+            it.remove();
+        }
+    }
+
+    private final long m_maxBytes;
+
+    /** Nodes with analysis and its size, least recently used first. */
+    private final LinkedHashMap<Node, Integer> m_nodes;
+
+    private long m_bytes;
+}
+
+//----------------------------------------------------------------------------
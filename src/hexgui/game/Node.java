@@ -8,10 +8,17 @@ import hexgui.hex.HexColor;
 import hexgui.hex.HexPoint;
 import hexgui.hex.Move;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 //----------------------------------------------------------------------------
 
@@ -333,6 +340,142 @@ public class Node
         return getSgfProperty("CN");
     }            
 
+    //----------------------------------------------------------------------
+    // Analysis
+
+    /** Version of the format of analysis values in SGF files. */
+    public static final int ANALYSIS_VERSION = 1;
+
+    /** Attaches an engine's response to an analysis command for this
+        node's position.  Responses are kept compressed. */
+    public void setAnalysis(String engine, String command, String response)
+    {
+        if (m_analysis == null)
+            m_analysis = new HashMap<String, byte[]>(4);
+        m_analysis.put(analysisKey(engine, command), deflate(response));
+    }
+
+    /** Returns the response attached with setAnalysis(), or null. */
+    public String getAnalysis(String engine, String command)
+    {
+        if (m_analysis == null)
+            return null;
+        byte data[] = m_analysis.get(analysisKey(engine, command));
+        return (data == null) ? null : inflate(data);
+    }
+
+    public boolean hasAnalysis()
+    {
+        return m_analysis != null;
+    }
+
+    /** Approximate memory taken by the attached analysis. */
+    public int getAnalysisBytes()
+    {
+        if (m_analysis == null)
+            return 0;
+        int bytes = 0;
+        for (Map.Entry<String, byte[]> e : m_analysis.entrySet())
+            bytes += 2 * e.getKey().length() + e.getValue().length;
+        return bytes;
+    }
+
+    public void clearAnalysis()
+    {
+        m_analysis = null;
+    }
+
+    /** Returns the attached analysis as values of an SGF property, one
+        per response: the format version, then the engine and command
+        and the compressed response, both in Base64. */
+    public Vector<String> getAnalysisValues()
+    {
+        Vector<String> values = new Vector<String>();
+        if (m_analysis == null)
+            return values;
+        Base64.Encoder base64 = Base64.getEncoder();
+        for (Map.Entry<String, byte[]> e : m_analysis.entrySet())
+            values.add(ANALYSIS_VERSION + ":"
+                       + base64.encodeToString
+                       (e.getKey().getBytes(StandardCharsets.UTF_8))
+                       + ":" + base64.encodeToString(e.getValue()));
+        return values;
+    }
+
+    /** Attaches a response given as returned by getAnalysisValues().
+        @return false if the value is invalid or of another version,
+        in which case it is ignored. */
+    public boolean addAnalysisValue(String value)
+    {
+        String s[] = value.trim().split(":");
+        if (s.length != 3 || !s[0].equals(Integer.toString(ANALYSIS_VERSION)))
+            return false;
+        try {
+            Base64.Decoder base64 = Base64.getDecoder();
+            String key = new String(base64.decode(s[1]),
+                                    StandardCharsets.UTF_8);
+            byte data[] = base64.decode(s[2]);
+            if (inflate(data) == null)
+                return false;
+            if (m_analysis == null)
+                m_analysis = new HashMap<String, byte[]>(4);
+            m_analysis.put(key, data);
+            return true;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return false;
+        }
+    }
+
+    private static String analysisKey(String engine, String command)
+    {
+        return engine + "\n" + command.trim();
+    }
+
+    private static byte[] deflate(String s)
+    {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(s.getBytes(StandardCharsets.UTF_8));
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte buffer[] = new byte[1024];
+        while (!deflater.finished())
+            out.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** @return the inflated string, or null if the data is corrupt. */
+    private static String inflate(byte data[])
+    {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte buffer[] = new byte[1024];
+        try {
+            while (!inflater.finished())
+            {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput()
+                               || inflater.needsDictionary()))
+                    return null;
+                out.write(buffer, 0, n);
+            }
+        }
+        catch (DataFormatException e)
+        {
+            return null;
+        }
+        finally
+        {
+            inflater.end();
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    //----------------------------------------------------------------------
+
     /** Adds a stone of specified color to the setup list and the sgf
         property string. */
     public void addSetup(HexColor color, HexPoint point)
@@ -493,6 +636,10 @@ public class Node
 
     private Vector<String> m_label;
 
+    /** Compressed analysis responses by engine and command; null if
+        there are none, to keep nodes small. */
+    private HashMap<String, byte[]> m_analysis;
+
     private Move m_move;
     private Node m_parent, m_prev, m_next, m_child;
     private boolean m_recent;
@@ -342,7 +342,8 @@ public final class AnalyzeDialog
                         m_listener.actionClearAnalyzeCommand();
                 }
             });
-        m_autoRun.setToolTipText("Autorun");
+        m_autoRun.setToolTipText("Run again whenever the position "
+                                 + "changes");
         m_autoRun.setEnabled(false);
         leftBox.add(m_autoRun);
         m_clearBoard = new JCheckBox("Clearboard");
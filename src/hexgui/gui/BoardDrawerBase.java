@@ -10,6 +10,12 @@ import hexgui.util.RadialGradientPaint;
 import hexgui.hex.HexColor;
 import hexgui.hex.HexPoint;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.Vector;
 import javax.swing.*;
 
@@ -18,14 +24,17 @@ import java.awt.geom.Path2D;
 import java.awt.geom.Arc2D;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
 import java.awt.Point;
 import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.Shape;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.AlphaComposite;
 import java.awt.Image;
-import java.awt.FontMetrics;
-import java.awt.Font;
+import java.awt.image.BufferedImage;
 import java.awt.RenderingHints;
 import java.awt.BasicStroke;
 
@@ -48,12 +57,48 @@ import java.net.URL;
     default, black connects top and bottom and should be labeled with
     letters.  White connects left and right and should be labeled with
     numbers.
+
+    <p>Small fields are drawn with less detail, see setDetailLimits(),
+    so that large boards can be drawn about as fast as small ones.
 */
 public abstract class BoardDrawerBase
 {
+    /** Level of detail for fields too small for anything but flat
+        stones and their marks: no shadows or text, and no
+        anti-aliasing for the cell outlines. */
+    public static final int DETAIL_MINIMAL = 0;
+
+    /** Level of detail with flat stones and no shadows. */
+    public static final int DETAIL_FLAT = 1;
+
+    /** Level of detail with everything drawn. */
+    public static final int DETAIL_FULL = 2;
+
     public BoardDrawerBase()
     {
 	m_background = null;
+        m_flatLimit = 16;
+        m_minimalLimit = 12;
+    }
+
+    /** Sets the sizes of fields, in pixels, below which they are drawn
+        with less detail.
+        @param flat size below which stones are flat and have no
+        shadows.
+        @param minimal size below which the fields are drawn with
+        DETAIL_MINIMAL. */
+    public void setDetailLimits(int flat, int minimal)
+    {
+        m_flatLimit = flat;
+        m_minimalLimit = minimal;
+        m_staticLayer = null;
+    }
+
+    /** Level of detail of the fields in the last call to draw(); one
+        of DETAIL_MINIMAL, DETAIL_FLAT and DETAIL_FULL. */
+    public int getDetail()
+    {
+        return m_detail;
     }
 
     /** Loads the image in <code>filename</code> and sets it as the
@@ -73,6 +118,7 @@ public abstract class BoardDrawerBase
 	} else {
 	    m_background = new ImageIcon(url).getImage();
 	}
+        m_staticLayer = null;
     }
 
     private double softmin(double a, double b) {
@@ -172,15 +218,62 @@ public abstract class BoardDrawerBase
     */
     public GuiField getFieldContaining(Point p, GuiField field[])
     {
-	if (m_outlines == null)
-	    return null;
-	for (int x=0; x<field.length; x++) {
-	    if (m_outlines[x].contains(p)) 
-		return field[x];
-	}
-	return null;
+        int index = getFieldIndex(p.x, p.y);
+        if (index < 0 || index >= field.length)
+            return null;
+        return field[index];
     }
 
+    /** Gets the index of the field containing a pixel, by inverting
+        the transformation from Hex coordinates to pixels and rounding
+        to the nearest cell, so the time does not depend on the size of
+        the board.  Uses the geometry of the last call to draw().
+        @return the index, or -1 if there is no field at the pixel. */
+    public int getFieldIndex(double x, double y)
+    {
+        int cellIndex[] = m_cellIndex;
+	if (cellIndex == null)
+	    return -1;
+        double dx = x - m_originX;
+        double dy = y - m_originY;
+        double det = m_dfileX * m_drankY - m_drankX * m_dfileY;
+        double a = (dx * m_drankY - dy * m_drankX) / det;
+        double b = (dy * m_dfileX - dx * m_dfileY) / det;
+
+        // Round to the nearest cell in cube coordinates (a, b, -a-b),
+        // where the rounding error of the coordinate that was off the
+        // most is given to that coordinate.
+        double c = -a - b;
+        long ra = Math.round(a);
+        long rb = Math.round(b);
+        long rc = Math.round(c);
+        double ea = Math.abs(ra - a);
+        double eb = Math.abs(rb - b);
+        double ec = Math.abs(rc - c);
+        if (ea > eb && ea > ec)
+            ra = -rb - rc;
+        else if (eb > ec)
+            rb = -ra - rc;
+
+        // Points on the edge between two cells are only contained in
+        // the outline of one of them, which may be a neighbor.
+        for (int i = 0; i < NEIGHBOR_A.length; i++) {
+            long na = ra + NEIGHBOR_A[i];
+            long nb = rb + NEIGHBOR_B[i];
+            if (na < 0 || na >= m_bwidth || nb < 0 || nb >= m_bheight)
+                continue;
+            int index = cellIndex[(int)na + (int)nb * m_bwidth];
+            if (index >= 0 && m_outlines[index].contains(x, y))
+                return index;
+        }
+        return -1;
+    }
+
+    /** Offsets of a cell and its neighbors. */
+    private static final int NEIGHBOR_A[] = { 0, 1, -1, 0, 0, 1, -1 };
+
+    private static final int NEIGHBOR_B[] = { 0, 0, 0, 1, -1, -1, 1 };
+
     /** Draws the board.
 	The size of the region to draw to, the size of the board, and the
 	field to draw must be given.  The position of each field is 
@@ -201,22 +294,155 @@ public abstract class BoardDrawerBase
 		     GuiField field[],
                      Vector<Pair<HexPoint, HexPoint>> arrows)
     {
-        setGeometry(w, h, bw, bh, rotation, mirrored);
-        
-	m_outlines = calcCellOutlines(field);
+        if (m_staticLayer == null || w != m_width || h != m_height
+            || bw != m_bwidth || bh != m_bheight || rotation != m_rotation
+            || mirrored != m_mirrored || m_outlines.length != field.length)
+        {
+            setGeometry(w, h, bw, bh, rotation, mirrored);
+            if (m_scale < m_minimalLimit)
+                m_detail = DETAIL_MINIMAL;
+            else if (m_scale < m_flatLimit)
+                m_detail = DETAIL_FLAT;
+            else
+                m_detail = DETAIL_FULL;
+            m_outlines = calcCellOutlines(field);
+            m_staticLayer = createStaticLayer(field);
+            m_stones.clear();
+        }
+        g.drawImage(m_staticLayer, 0, 0, null);
+        m_clip = g.getClip();
 
 	setAntiAliasing(g);
-	drawBackground(g);
-        drawEdges(g);
         drawCellBackground(g, field);
-	drawCells(g, field);
-	drawLabels(g);
+        drawSelected(g, field);
 	drawShadows(g, field);
 	drawFields(g, field);
         drawAlpha(g, field);
         drawArrows(g, arrows);
     }
 
+    /** Writes the board as an SVG document with the geometry draw()
+        uses for the same arguments: the edges and cell outlines as
+        paths, the stones as circles and the labels, marks and field
+        texts as text.  Arrows, selections and the background image
+        are left out.  Forgets the cached static layer. */
+    public void writeSvg(Writer out, int w, int h, int bw, int bh,
+                         double rotation, boolean mirrored,
+                         GuiField field[]) throws IOException
+    {
+        setGeometry(w, h, bw, bh, rotation, mirrored);
+        m_outlines = calcCellOutlines(field);
+        m_staticLayer = null;
+        m_clip = null;
+        double stroke = m_strokewidth * m_scale;
+        StringBuilder s = new StringBuilder();
+        s.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        s.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + w
+                 + "\" height=\"" + h + "\" viewBox=\"0 0 " + w + " " + h
+                 + "\">\n");
+        s.append("<defs>\n");
+        appendStoneGradient(s, "black", GuiField.COLOR_STONE_BLACK_BRIGHT,
+                            GuiField.COLOR_STONE_BLACK);
+        appendStoneGradient(s, "white", GuiField.COLOR_STONE_WHITE_BRIGHT,
+                            GuiField.COLOR_STONE_WHITE);
+        s.append("</defs>\n");
+
+        Path2D e[] = calcEdges();
+        for (int i=0; i<e.length; i++)
+            s.append("<path d=\"" + svgPath(e[i]) + "\" fill=\""
+                     + ((i % 2 == 0) ? "black" : "white") + "\"/>\n");
+        Path2D all = new Path2D.Double();
+        for (int i=0; i<e.length; i++)
+            all.append(e[i], false);
+        for (int i=0; i<m_outlines.length; i++) {
+            if ((field[i].getAttributes() & GuiField.DRAW_CELL_OUTLINE) != 0)
+                all.append(m_outlines[i], false);
+        }
+        s.append("<path d=\"" + svgPath(all) + "\" fill=\"none\" stroke=\""
+                 + "black\" stroke-width=\"" + svgNumber(stroke) + "\"/>\n");
+
+        s.append("<g font-family=\"sans-serif\" font-size=\""
+                 + svgNumber(m_scale * 0.4) + "\" text-anchor=\"middle\""
+                 + " dominant-baseline=\"central\">\n");
+        for (int a=0; a<m_bwidth; a++) {
+            appendText(s, hexPoint(a, -m_labelradius, 0, 0, 0),
+                       getFileLabel(a), null);
+            appendText(s, hexPoint(a, m_bheight-1+m_labelradius, 0, 0, 0),
+                       getFileLabel(a), null);
+        }
+        for (int b=0; b<m_bheight; b++) {
+            appendText(s, hexPoint(-m_labelradius, b, 0, 0, 0),
+                       getRankLabel(b), null);
+            appendText(s, hexPoint(m_bwidth-1+m_labelradius, b, 0, 0, 0),
+                       getRankLabel(b), null);
+        }
+        s.append("</g>\n");
+
+        for (int i=0; i<field.length; i++)
+            appendField(s, i, field[i]);
+        s.append("</svg>\n");
+        out.write(s.toString());
+    }
+
+    /** Bounds of the pixels a field may draw on, including its
+        outline, shadow and text.  Uses the geometry of the last call to
+        draw().
+        @return the bounds, or null if the field has not been drawn. */
+    public Rectangle getFieldBounds(int index)
+    {
+        Rectangle2D bounds[] = m_bounds;
+        if (bounds == null || index < 0 || index >= bounds.length)
+            return null;
+        return bounds[index].getBounds();
+    }
+
+    /** Bounds of the pixels the arrow between two cells may draw on,
+        or null if the board has not been drawn. */
+    public Rectangle getArrowBounds(HexPoint from, HexPoint to)
+    {
+        if (m_bounds == null)
+            return null;
+        Point2D.Double a = getLocation(from);
+        Point2D.Double b = getLocation(to);
+        Rectangle2D.Double bounds
+            = new Rectangle2D.Double(Math.min(a.x, b.x), Math.min(a.y, b.y),
+                                     Math.abs(a.x - b.x),
+                                     Math.abs(a.y - b.y));
+        int margin = ARROW_MARGIN;
+        return new Rectangle((int)bounds.x - margin, (int)bounds.y - margin,
+                             (int)bounds.width + 2 * margin + 1,
+                             (int)bounds.height + 2 * margin + 1);
+    }
+
+    /** Forgets the cached static layer, so that it is drawn again on
+        the next call to draw(). */
+    public void invalidate()
+    {
+        m_staticLayer = null;
+    }
+
+    //------------------------------------------------------------
+
+    /** Draws the parts of the board that only change with its size,
+        rotation and mirroring: background, edges, cell outlines and
+        labels.  The cell outlines are taken from the fields' current
+        DRAW_CELL_OUTLINE attributes, which GuiBoard sets once per
+        board size. */
+    protected BufferedImage createStaticLayer(GuiField field[])
+    {
+        BufferedImage image = new BufferedImage(Math.max(m_width, 1),
+                                                Math.max(m_height, 1),
+                                                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+	setAntiAliasing(g);
+	drawBackground(g);
+        drawEdges(g);
+	drawCells(g, field);
+	drawLabels(g);
+        g.dispose();
+        return image;
+    }
+
     //------------------------------------------------------------
 
     /** Calculate an array of hexagons representing the board's cells.
@@ -225,22 +451,52 @@ public abstract class BoardDrawerBase
     protected Path2D[] calcCellOutlines(GuiField field[])
     {
 	Path2D outline[] = new Path2D[field.length];
+        Rectangle2D bounds[] = new Rectangle2D[field.length];
+        double centerX[] = new double[field.length];
+        double centerY[] = new double[field.length];
+        int cellIndex[] = new int[m_bwidth * m_bheight];
+        Arrays.fill(cellIndex, -1);
+        double margin = 0.25 * m_scale + 2;
+
+        // Corners of a cell relative to its center; the same for all
+        // cells.
+        Point2D.Double center = hexPoint(0, 0, 0, 0, 0);
+        Point2D.Double corner[] = new Point2D.Double[] {
+            hexPoint(0, 0, 1, 0, 0), hexPoint(0, 0, 0, 1, 0),
+            hexPoint(0, 0, 0, 0, 1), hexPoint(0, 0, -1, 0, 0),
+            hexPoint(0, 0, 0, -1, 0), hexPoint(0, 0, 0, 0, -1)
+        };
+        for (int i = 0; i < corner.length; i++) {
+            corner[i].x -= center.x;
+            corner[i].y -= center.y;
+        }
         for (int x = 0; x < outline.length; x++) {
             HexPoint c = field[x].getPoint();
-            Point2D.Double p;
+            Point2D.Double p = getLocation(c);
+            centerX[x] = p.x;
+            centerY[x] = p.y;
+            if (c.x >= 0 && c.x < m_bwidth && c.y >= 0 && c.y < m_bheight)
+                cellIndex[c.x + c.y * m_bwidth] = x;
             outline[x] = new Path2D.Double();
-            moveToHexPoint(outline[x], c.x, c.y, 1, 0, 0);
-            lineToHexPoint(outline[x], c.x, c.y, 0, 1, 0);
-            lineToHexPoint(outline[x], c.x, c.y, 0, 0, 1);
-            lineToHexPoint(outline[x], c.x, c.y, -1, 0, 0);
-            lineToHexPoint(outline[x], c.x, c.y, 0, -1, 0);
-            lineToHexPoint(outline[x], c.x, c.y, 0, 0, -1);
+            outline[x].moveTo(p.x + corner[0].x, p.y + corner[0].y);
+            for (int i = 1; i < corner.length; i++)
+                outline[x].lineTo(p.x + corner[i].x, p.y + corner[i].y);
             outline[x].closePath();
+            Rectangle2D r = outline[x].getBounds2D();
+            bounds[x] = new Rectangle2D.Double(r.getX() - margin,
+                                               r.getY() - margin,
+                                               r.getWidth() + 2 * margin,
+                                               r.getHeight() + 2 * margin);
         }	
+        m_bounds = bounds;
+        m_centerX = centerX;
+        m_centerY = centerY;
+        m_cellIndex = cellIndex;
 	return outline;
     }
     
-    /** Draws the outlines of the given fields. 
+    /** Draws the outlines of the given fields.  With DETAIL_MINIMAL
+        they are drawn as one path without anti-aliasing.
 	@param g graphics context to draw to.
 	@param field the list of fields to draw.
     */
@@ -249,16 +505,34 @@ public abstract class BoardDrawerBase
         g.setComposite(AlphaComposite.SrcOver);
         g.setStroke(new BasicStroke((float)(m_strokewidth * m_scale)));
 	g.setColor(Color.black);
+        if (m_detail == DETAIL_MINIMAL) {
+            Path2D all = new Path2D.Double();
+            for (int i=0; i<m_outlines.length; i++) {
+                if ((field[i].getAttributes()
+                     & GuiField.DRAW_CELL_OUTLINE) != 0)
+                    all.append(m_outlines[i], false);
+            }
+            setLineAntiAliasing(g);
+            g.draw(all);
+            setAntiAliasing(g);
+            return;
+        }
 	for (int i=0; i<m_outlines.length; i++) {
 	    if ((field[i].getAttributes() & GuiField.DRAW_CELL_OUTLINE) != 0) {
 		g.draw(m_outlines[i]);
 	    }
 	}
+    }
 
+    /** Draws the outlines of the selected fields. */
+    protected void drawSelected(Graphics2D g, GuiField field[])
+    {
+        g.setComposite(AlphaComposite.SrcOver);
         g.setStroke(new BasicStroke((float)(m_strokewidth * m_scale * 1.5)));
 	g.setColor(Color.yellow);
 	for (int i=0; i<m_outlines.length; i++) {
-	    if ((field[i].getAttributes() & GuiField.SELECTED) != 0) {
+	    if ((field[i].getAttributes() & GuiField.SELECTED) != 0
+                && isVisible(i)) {
 		g.draw(m_outlines[i]);
 	    }
 	}
@@ -322,6 +596,27 @@ public abstract class BoardDrawerBase
         @param g graphics context to draw to.
     */
     protected void drawEdges(Graphics2D g)
+    {
+        Path2D e[] = calcEdges();
+
+	g.setColor(Color.black);
+        g.fill(e[0]);
+        g.fill(e[2]);
+        
+	g.setColor(Color.white);
+        g.fill(e[1]);
+        g.fill(e[3]);
+
+        g.setStroke(new BasicStroke((float)(m_strokewidth * m_scale)));
+        g.setColor(Color.black);
+        for (int i=0; i<e.length; i++)
+            g.draw(e[i]);
+    }
+
+    /** Calculates the four edges of the board for the current
+        geometry: the black edges are the first and third, the white
+        ones the second and fourth. */
+    protected Path2D[] calcEdges()
     {
         // 1-edge.
 
@@ -372,20 +667,7 @@ public abstract class BoardDrawerBase
         arcAboutHexPoint(e4, m_bwidth-1, 0, m_excentricity_obtuse/3, 0, -m_excentricity_obtuse/3, r1, 60, 30);
         e4.closePath();
 
-	g.setColor(Color.black);
-        g.fill(e1);
-        g.fill(e3);
-        
-	g.setColor(Color.white);
-        g.fill(e2);
-        g.fill(e4);
-
-        g.setStroke(new BasicStroke((float)(m_strokewidth * m_scale)));
-        g.setColor(Color.black);
-        g.draw(e1);
-        g.draw(e2);
-        g.draw(e3);
-        g.draw(e4);
+        return new Path2D[] { e1, e2, e3, e4 };
     }
 
     //------------------------------------------------------------
@@ -404,18 +686,13 @@ public abstract class BoardDrawerBase
     protected void drawLabel(Graphics2D g, Point2D.Double p, String string, double xoff)
     {
         double size = m_scale * 0.4;
-        Font f = g.getFont();
-        Font f2 = f.deriveFont((float)size);
-
-        FontMetrics fm = g.getFontMetrics(f2);
-	int width = fm.stringWidth(string);
-	int height = fm.getAscent();
+        TextCache.Layout layout = m_texts.get(g, string, (float)size);
+	int width = layout.getWidth();
+	int height = layout.getAscent();
 
-        g.setFont(f2);
         double x = 0.5 * width;
 	double y = 0.45 * height;
-	g.drawString(string, (float)(p.x + xoff - x), (float)(p.y + y)); 
-        g.setFont(f);
+	layout.draw(g, (float)(p.x + xoff - x), (float)(p.y + y)); 
     }
 
     protected void drawLabels(Graphics2D g)
@@ -425,20 +702,48 @@ public abstract class BoardDrawerBase
         g.setColor(Color.black);
 
         for (int a=0; a<m_bwidth; a++) {
-            string = AlphabetNumber.toString(a + 1).toUpperCase();
+            string = getFileLabel(a);
             drawLabel(g, hexPoint(a, -m_labelradius, 0, 0, 0), string, 0);
             drawLabel(g, hexPoint(a, m_bheight-1+m_labelradius, 0, 0, 0), string, 0);
         }
         for (int b=0; b<m_bheight; b++) {
-            string = Integer.toString(b+1);
+            string = getRankLabel(b);
             drawLabel(g, hexPoint(-m_labelradius, b, 0, 0, 0), string, 0);
             drawLabel(g, hexPoint(m_bwidth-1+m_labelradius, b, 0, 0, 0), string, 0);
         }
     }
     
+    /** Label of a file, such as "A", "B" or "AA". */
+    protected static String getFileLabel(int a)
+    {
+        return s_fileLabels[a];
+    }
+
+    /** Label of a rank, such as "1". */
+    protected static String getRankLabel(int b)
+    {
+        return s_rankLabels[b];
+    }
+
+    private static String[] makeFileLabels()
+    {
+        String labels[] = new String[HexPoint.MAX_WIDTH];
+        for (int i=0; i<labels.length; i++)
+            labels[i] = AlphabetNumber.toString(i + 1).toUpperCase();
+        return labels;
+    }
+
+    private static String[] makeRankLabels()
+    {
+        String labels[] = new String[HexPoint.MAX_HEIGHT];
+        for (int i=0; i<labels.length; i++)
+            labels[i] = Integer.toString(i + 1);
+        return labels;
+    }
+
     protected void drawShadows(Graphics2D graphics, GuiField[] field)
     {
-        if (m_scale <= 10)
+        if (m_scale <= 10 || m_detail != DETAIL_FULL)
             return;
 
         graphics.setComposite(COMPOSITE_3);
@@ -447,29 +752,59 @@ public abstract class BoardDrawerBase
 
         double offset = getShadowOffset();
         for (int pos = 0; pos < field.length; pos++) {
-	    if (field[pos].getColor() == HexColor.EMPTY)
+	    if (field[pos].getColor() == HexColor.EMPTY || !isVisible(pos))
 		continue;
-	    Point2D.Double location = getLocation(field[pos].getPoint());
 	    graphics.setColor(Color.black);
-	    graphics.fill(new Ellipse2D.Double(location.x - size + offset,
-                                   location.y - size + offset,
-                                   size*2, size*2));
+            m_stones.drawShadow(graphics, m_centerX[pos] - size + offset,
+                                m_centerY[pos] - size + offset, size);
 	}
         graphics.setPaintMode();
     }
 
     protected void drawFields(Graphics2D g, GuiField field[])
     {
+        if (m_detail != DETAIL_FULL) {
+            drawFlatFields(g, field);
+            return;
+        }
 	for (int x=0; x<field.length; x++) {
-            Point2D.Double p = getLocation(field[x].getPoint());
-	    field[x].draw(g, (int)p.x, (int)p.y, (int)m_scale, (int)m_scale, m_stoneradius*m_scale);
+            if (!isVisible(x))
+                continue;
+	    field[x].draw(g, (int)m_centerX[x], (int)m_centerY[x],
+                          (int)m_scale, (int)m_scale,
+                          m_stoneradius*m_scale, m_stones, m_texts);
+	}
+    }
+
+    /** Draws the fields with less detail: flat stones, drawn from
+        cached images, and marks, but no text with DETAIL_MINIMAL. */
+    protected void drawFlatFields(Graphics2D g, GuiField field[])
+    {
+        int w = (int)m_scale;
+        int h = (int)m_scale;
+        double size = m_stoneradius * m_scale;
+	for (int i=0; i<field.length; i++) {
+            if (!isVisible(i))
+                continue;
+            int x = (int)m_centerX[i];
+            int y = (int)m_centerY[i];
+            Color color = GuiField.getFlatColor(field[i].getColor());
+            if (color != null)
+                m_stones.draw(g, color, color, x - w/2, y - h/2, w, h, size);
+            field[i].drawFlat(g, x, y, w, h, m_detail != DETAIL_MINIMAL,
+                              m_texts);
 	}
     }
 
     protected void drawAlpha(Graphics2D g, GuiField field[])
     {
+        if (m_detail != DETAIL_FULL) {
+            fillCells(g, field, false);
+            return;
+        }
         for (int i=0; i<m_outlines.length; i++) {
-            if ((field[i].getAttributes() & GuiField.DRAW_ALPHA) == 0)
+            if ((field[i].getAttributes() & GuiField.DRAW_ALPHA) == 0
+                || !isVisible(i))
                 continue;
             
             Color color = field[i].getAlphaColor();
@@ -485,23 +820,88 @@ public abstract class BoardDrawerBase
 	}
     }
 
+    /** Draws the background colors of the fields, and the outlines of
+        the fields with one again, since they are drawn over the
+        outlines in the static layer. */
     protected void drawCellBackground(Graphics2D g, GuiField field[])
     {
+        boolean any = false;
+        if (m_detail != DETAIL_FULL)
+            any = fillCells(g, field, true);
+        else {
+            for (int i=0; i<m_outlines.length; i++) {
+                if ((field[i].getAttributes() & GuiField.DRAW_BACKGROUND) == 0
+                    || !isVisible(i))
+                    continue;
+
+                Color color = field[i].getBackgroundColor();
+                if (color == null)
+                    continue;
+
+                g.setComposite(AlphaComposite.
+                                 getInstance(AlphaComposite.SRC_OVER, 
+                                             field[i].getBackgroundBlend()));
+
+                g.setColor(color);
+                g.fill(m_outlines[i]);
+                any = true;
+            }
+        }
+        if (!any)
+            return;
+        g.setComposite(AlphaComposite.SrcOver);
+        g.setStroke(new BasicStroke((float)(m_strokewidth * m_scale)));
+	g.setColor(Color.black);
         for (int i=0; i<m_outlines.length; i++) {
-            if ((field[i].getAttributes() & GuiField.DRAW_BACKGROUND) == 0)
+            if ((field[i].getAttributes() & GuiField.DRAW_BACKGROUND) != 0
+                && field[i].getBackgroundColor() != null && isVisible(i)
+                && (field[i].getAttributes()
+                    & GuiField.DRAW_CELL_OUTLINE) != 0)
+                g.draw(m_outlines[i]);
+        }
+    }
+
+    /** Fills the visible fields with their alpha or background colors
+        with one path for each color and blend, for drawing with less
+        detail.  The paths are always filled in the same order, so that
+        where the edges of cells of different colors overlap, redrawing
+        part of the board gives the same pixels as drawing all of it.
+        @return true if any field was filled. */
+    protected boolean fillCells(Graphics2D g, GuiField field[],
+                                boolean background)
+    {
+        int attribute = background ? GuiField.DRAW_BACKGROUND
+            : GuiField.DRAW_ALPHA;
+        TreeMap<Long, Path2D> paths = new TreeMap<Long, Path2D>();
+        for (int i=0; i<m_outlines.length; i++) {
+            if ((field[i].getAttributes() & attribute) == 0
+                || !isVisible(i))
                 continue;
-            
-            Color color = field[i].getBackgroundColor();
+            Color color = background ? field[i].getBackgroundColor()
+                : field[i].getAlphaColor();
             if (color == null)
                 continue;
-            
+            float blend = background ? field[i].getBackgroundBlend()
+                : field[i].getAlphaBlend();
+            Long key = Long.valueOf(((long)color.getRGB() << 32)
+                                    | (Float.floatToIntBits(blend)
+                                       & 0xffffffffL));
+            Path2D path = paths.get(key);
+            if (path == null) {
+                path = new Path2D.Double();
+                paths.put(key, path);
+            }
+            path.append(m_outlines[i], false);
+        }
+        for (Map.Entry<Long, Path2D> e : paths.entrySet()) {
+            long key = e.getKey().longValue();
             g.setComposite(AlphaComposite.
-                             getInstance(AlphaComposite.SRC_OVER, 
-                                         field[i].getBackgroundBlend()));
-            
-            g.setColor(color);
-            g.fill(m_outlines[i]);
-	}
+                           getInstance(AlphaComposite.SRC_OVER,
+                                       Float.intBitsToFloat((int)key)));
+            g.setColor(new Color((int)(key >>> 32), true));
+            g.fill(e.getValue());
+        }
+        return !paths.isEmpty();
     }
 
     protected void drawArrows(Graphics2D g, 
@@ -515,12 +915,155 @@ public abstract class BoardDrawerBase
         }
     }
 
+    /** Appends the background color, stone, marks, text and alpha
+        color of a field, in the order draw() paints them. */
+    private void appendField(StringBuilder s, int i, GuiField field)
+    {
+        int attributes = field.getAttributes();
+        String outline = null;
+        if ((attributes & (GuiField.DRAW_BACKGROUND | GuiField.DRAW_ALPHA))
+            != 0)
+            outline = svgPath(m_outlines[i]);
+        if ((attributes & GuiField.DRAW_BACKGROUND) != 0
+            && field.getBackgroundColor() != null)
+            s.append("<path d=\"" + outline + "\" fill=\""
+                     + svgColor(field.getBackgroundColor())
+                     + "\" fill-opacity=\""
+                     + svgNumber(field.getBackgroundBlend()) + "\"/>\n");
+        Point2D.Double p = new Point2D.Double(m_centerX[i], m_centerY[i]);
+        HexColor color = field.getColor();
+        double r = m_stoneradius * m_scale;
+        if (color == HexColor.BLACK)
+            s.append("<circle cx=\"" + svgNumber(p.x) + "\" cy=\""
+                     + svgNumber(p.y) + "\" r=\"" + svgNumber(r * 1.01)
+                     + "\" fill=\"url(#black)\"/>\n");
+        else if (color == HexColor.WHITE)
+            s.append("<circle cx=\"" + svgNumber(p.x) + "\" cy=\""
+                     + svgNumber(p.y) + "\" r=\"" + svgNumber(r)
+                     + "\" fill=\"url(#white)\"/>\n");
+
+        // Size of marks and text, as in GuiField.draw().
+        double radius = (int)m_scale / 2;
+        double size = radius - GuiField.getStoneMargin_new(radius * 2);
+        String ink = (color == HexColor.BLACK) ? "white" : "black";
+        if ((attributes & GuiField.LAST_PLAYED) != 0)
+            s.append("<circle cx=\"" + svgNumber(p.x) + "\" cy=\""
+                     + svgNumber(p.y) + "\" r=\"" + svgNumber(size / 6)
+                     + "\" fill=\"gray\"/>\n");
+        if ((attributes & (GuiField.SWAP_PLAYED | GuiField.DRAW_TEXT)) != 0)
+            s.append("<g font-family=\"sans-serif\" text-anchor=\"middle\""
+                     + " dominant-baseline=\"central\" fill=\"" + ink
+                     + "\">\n");
+        if ((attributes & GuiField.SWAP_PLAYED) != 0)
+            appendText(s, p, "S", svgNumber(size));
+        if ((attributes & GuiField.DRAW_TEXT) != 0) {
+            String lines[] = field.getText().split("@");
+            double relheight = lines.length > 1 ? 2.0/lines.length : 1.0;
+            double height = size * relheight;
+            double y = p.y - ((lines.length-1)*height)/2;
+            for (int k=0; k<lines.length; k++, y += height)
+                appendText(s, new Point2D.Double(p.x, y), lines[k].trim(),
+                           svgNumber(height));
+        }
+        if ((attributes & (GuiField.SWAP_PLAYED | GuiField.DRAW_TEXT)) != 0)
+            s.append("</g>\n");
+        if ((attributes & GuiField.DRAW_ALPHA) != 0
+            && field.getAlphaColor() != null)
+            s.append("<path d=\"" + outline + "\" fill=\""
+                     + svgColor(field.getAlphaColor()) + "\" fill-opacity=\""
+                     + svgNumber(field.getAlphaBlend()) + "\"/>\n");
+    }
+
+    /** Appends a text element centered at p.
+        @param size font size, or null to inherit it. */
+    private static void appendText(StringBuilder s, Point2D.Double p,
+                                   String text, String size)
+    {
+        s.append("<text x=\"" + svgNumber(p.x) + "\" y=\""
+                 + svgNumber(p.y) + "\"");
+        if (size != null)
+            s.append(" font-size=\"" + size + "\"");
+        s.append(">" + text.replace("&", "&amp;").replace("<", "&lt;")
+                 .replace(">", "&gt;") + "</text>\n");
+    }
+
+    /** Appends a gradient like the one StoneSprites paints stones
+        with, bright towards the upper left. */
+    private static void appendStoneGradient(StringBuilder s, String id,
+                                            Color bright, Color normal)
+    {
+        s.append("<radialGradient id=\"" + id + "\" cx=\"0.3\" cy=\"0.3\""
+                 + " r=\"0.4\">\n"
+                 + "<stop offset=\"0\" stop-color=\"" + svgColor(bright)
+                 + "\"/>\n"
+                 + "<stop offset=\"1\" stop-color=\"" + svgColor(normal)
+                 + "\"/>\n"
+                 + "</radialGradient>\n");
+    }
+
+    /** Path data of a shape; arcs become cubic curves. */
+    private static String svgPath(Shape shape)
+    {
+        StringBuilder d = new StringBuilder();
+        double c[] = new double[6];
+        for (PathIterator it = shape.getPathIterator(null); !it.isDone();
+             it.next()) {
+            int type = it.currentSegment(c);
+            int n = 0;
+            switch (type) {
+            case PathIterator.SEG_MOVETO: d.append('M'); n = 1; break;
+            case PathIterator.SEG_LINETO: d.append('L'); n = 1; break;
+            case PathIterator.SEG_QUADTO: d.append('Q'); n = 2; break;
+            case PathIterator.SEG_CUBICTO: d.append('C'); n = 3; break;
+            case PathIterator.SEG_CLOSE: d.append('Z'); break;
+            }
+            for (int i=0; i<2*n; i++) {
+                if (i > 0)
+                    d.append(' ');
+                d.append(svgNumber(c[i]));
+            }
+        }
+        return d.toString();
+    }
+
+    /** Formats a coordinate with two decimals, independent of the
+        locale. */
+    private static String svgNumber(double x)
+    {
+        return String.format(Locale.ROOT, "%.2f", x);
+    }
+
+    private static String svgColor(Color color)
+    {
+        return String.format("#%06x", color.getRGB() & 0xffffff);
+    }
+
+    /** True if the field can draw inside the clip of the graphics
+        context passed to draw(). */
+    protected boolean isVisible(int index)
+    {
+        return m_clip == null || m_clip.intersects(m_bounds[index]);
+    }
+
     protected void setAntiAliasing(Graphics2D g)
     {
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                            RenderingHints.VALUE_ANTIALIAS_ON);
     }
 
+    /** Sets the anti-aliasing for the cell outlines of the static
+        layer, which is off with DETAIL_MINIMAL; thin lines are much
+        faster to draw without it.  Outlines drawn over the static layer
+        keep it, since without it the pixels of a clipped line depend on
+        the clip. */
+    protected void setLineAntiAliasing(Graphics2D g)
+    {
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                           m_detail == DETAIL_MINIMAL
+                           ? RenderingHints.VALUE_ANTIALIAS_OFF
+                           : RenderingHints.VALUE_ANTIALIAS_ON);
+    }
+
     public static void drawArrow(Graphics2D g2d, double x1, double y1, 
                                      double x2, double y2, double stroke) 
     {
@@ -575,6 +1118,44 @@ public abstract class BoardDrawerBase
     // Cell outlines.
     protected Path2D m_outlines[];
 
+    /** Bounds of the pixels each field may draw on. */
+    protected Rectangle2D m_bounds[];
+
+    /** Pixel coordinates of the center of each field. */
+    protected double m_centerX[], m_centerY[];
+
+    /** Index of the field of each cell, by x + y * m_bwidth, or -1. */
+    protected int m_cellIndex[];
+
+    /** Background, edges, outlines and labels for the current geometry;
+        null if they must be drawn again. */
+    protected BufferedImage m_staticLayer;
+
+    /** Stone images for the current size; cleared on resize. */
+    protected final StoneSprites m_stones = new StoneSprites();
+
+    /** Layouts of the labels and of the text of the fields. */
+    protected final TextCache m_texts = new TextCache();
+
+    /** Clip of the graphics context in the current call to draw(), or
+        null; fields outside it are not drawn. */
+    protected Shape m_clip;
+
+    /** Cell sizes below which fields are drawn with less detail; see
+        setDetailLimits(). */
+    protected int m_flatLimit, m_minimalLimit;
+
+    /** Level of detail for the current geometry. */
+    protected int m_detail = DETAIL_FULL;
+
+    /** Labels of the files and ranks, made once for all boards. */
+    private static final String s_fileLabels[] = makeFileLabels();
+
+    private static final String s_rankLabels[] = makeRankLabels();
+
+    /** Distance an arrow head may reach beyond the arrow's ends. */
+    private static final int ARROW_MARGIN = 20;
+
     protected static final AlphaComposite COMPOSITE_3
         = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.3f);
 
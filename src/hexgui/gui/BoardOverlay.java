@@ -0,0 +1,247 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import java.awt.Color;
+import java.util.Vector;
+
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.util.Pair;
+
+//----------------------------------------------------------------------------
+
+/** Stones, text, mark colors and arrows shown over the position on a
+    board, for example the results of an analysis command.
+
+    <p>A board shows a stack of named overlays, each of which can be
+    hidden.  Only the properties that were set on a field replace those
+    of the position and the overlays below it when they are combined
+    with applyTo(); mark colors are blended with those below instead.
+    The overlay remembers which fields were set, so that clearing it
+    takes time in the number of those fields, not in the size of the
+    board.
+*/
+public class BoardOverlay
+{
+    /** Creates an empty, visible overlay for a board with fields at the
+        given points; see FieldStore. */
+    public BoardOverlay(String name, HexPoint points[], int width, int height)
+    {
+        m_name = name;
+        m_visible = true;
+        m_store = new FieldStore(points, width, height);
+        m_touched = new int[points.length];
+        m_arrows = new Vector<Pair<HexPoint, HexPoint>>();
+    }
+
+    public String getName()
+    {
+        return m_name;
+    }
+
+    public boolean isVisible()
+    {
+        return m_visible;
+    }
+
+    public void setVisible(boolean visible)
+    {
+        m_visible = visible;
+    }
+
+    public boolean isEmpty()
+    {
+        return m_numTouched == 0 && m_arrows.isEmpty();
+    }
+
+    /** True if stones were placed on the overlay since the last
+        clear(). */
+    public boolean hasStones()
+    {
+        return m_numStones > 0;
+    }
+
+    /** Number of fields with properties set since the last clear(). */
+    public int getNumTouched()
+    {
+        return m_numTouched;
+    }
+
+    /** Index of the k-th field with properties set. */
+    public int getTouched(int k)
+    {
+        return m_touched[k];
+    }
+
+    public void setColor(int i, HexColor color)
+    {
+        touch(i);
+        if ((m_store.getAttributes(i) & COLOR) == 0)
+            ++m_numStones;
+        m_store.setColor(i, color);
+        set(i, COLOR, true);
+    }
+
+    /** Sets the text of a field; null removes it. */
+    public void setText(int i, String text)
+    {
+        touch(i);
+        m_store.setText(i, text);
+        set(i, GuiField.DRAW_TEXT, text != null);
+    }
+
+    /** Sets the alpha color of a field; null removes it. */
+    public void setAlphaColor(int i, Color color, float blend)
+    {
+        touch(i);
+        m_store.setAlphaColor(i, color, blend);
+        set(i, GuiField.DRAW_ALPHA, color != null);
+    }
+
+    /** Sets the background color of a field; null removes it. */
+    public void setBackgroundColor(int i, Color color, float blend)
+    {
+        touch(i);
+        m_store.setBackgroundColor(i, color, blend);
+        set(i, GuiField.DRAW_BACKGROUND, color != null);
+    }
+
+    public void addArrow(HexPoint from, HexPoint to)
+    {
+        m_arrows.add(new Pair<HexPoint, HexPoint>(from, to));
+    }
+
+    public Vector<Pair<HexPoint, HexPoint>> getArrows()
+    {
+        return m_arrows;
+    }
+
+    public void clearArrows()
+    {
+        m_arrows.clear();
+    }
+
+    /** Removes everything from the overlay. */
+    public void clear()
+    {
+        for (int k = 0; k < m_numTouched; k++) {
+            int i = m_touched[k];
+            m_store.setAttributes(i, 0);
+            m_store.setColor(i, HexColor.EMPTY);
+            m_store.setText(i, null);
+            m_store.setAlphaColor(i, null, 0);
+            m_store.setBackgroundColor(i, null, 0);
+        }
+        m_numTouched = 0;
+        m_numStones = 0;
+        m_arrows.clear();
+    }
+
+    /** Replaces the properties of field i of a store with those set on
+        the same field of the overlay, blending the mark colors with
+        those already in the store. */
+    public void applyTo(int i, FieldStore fields)
+    {
+        int set = m_store.getAttributes(i);
+        if ((set & ~TOUCHED) == 0)
+            return;
+        int attributes = fields.getAttributes(i);
+        if ((set & COLOR) != 0)
+            fields.setColor(i, m_store.getColor(i));
+        if ((set & GuiField.DRAW_TEXT) != 0) {
+            fields.setText(i, m_store.getText(i));
+            attributes |= GuiField.DRAW_TEXT;
+        }
+        if ((set & GuiField.DRAW_ALPHA) != 0) {
+            Color color = m_store.getAlphaColor(i);
+            float blend = m_store.getAlphaBlend(i);
+            if ((attributes & GuiField.DRAW_ALPHA) != 0) {
+                Color below = fields.getAlphaColor(i);
+                float belowBlend = fields.getAlphaBlend(i);
+                blend = blend + belowBlend * (1 - blend);
+                color = over(color, m_store.getAlphaBlend(i), below,
+                             belowBlend, blend);
+            }
+            fields.setAlphaColor(i, color, blend);
+            attributes |= GuiField.DRAW_ALPHA;
+        }
+        if ((set & GuiField.DRAW_BACKGROUND) != 0) {
+            Color color = m_store.getBackgroundColor(i);
+            float blend = m_store.getBackgroundBlend(i);
+            if ((attributes & GuiField.DRAW_BACKGROUND) != 0) {
+                Color below = fields.getBackgroundColor(i);
+                float belowBlend = fields.getBackgroundBlend(i);
+                blend = blend + belowBlend * (1 - blend);
+                color = over(color, m_store.getBackgroundBlend(i), below,
+                             belowBlend, blend);
+            }
+            fields.setBackgroundColor(i, color, blend);
+            attributes |= GuiField.DRAW_BACKGROUND;
+        }
+        fields.setAttributes(i, attributes);
+    }
+
+    //------------------------------------------------------------
+
+    /** Attribute bits of m_store that record which properties of a
+        field are set, in addition to DRAW_TEXT, DRAW_ALPHA and
+        DRAW_BACKGROUND. */
+    private static final int COLOR = 1 << 30;
+
+    private static final int TOUCHED = 1 << 29;
+
+    /** Color of a mark drawn with a given opacity over another one.
+        @param opacity the opacity of both together. */
+    private static Color over(Color top, float topOpacity, Color below,
+                              float belowOpacity, float opacity)
+    {
+        if (opacity <= 0)
+            return top;
+        float wb = belowOpacity * (1 - topOpacity) / opacity;
+        float wt = topOpacity / opacity;
+        return new Color(Math.min(255, Math.round(top.getRed() * wt
+                                                  + below.getRed() * wb)),
+                         Math.min(255, Math.round(top.getGreen() * wt
+                                                  + below.getGreen() * wb)),
+                         Math.min(255, Math.round(top.getBlue() * wt
+                                                  + below.getBlue() * wb)));
+    }
+
+    private void touch(int i)
+    {
+        if ((m_store.getAttributes(i) & TOUCHED) != 0)
+            return;
+        m_store.setAttributes(i, TOUCHED);
+        m_touched[m_numTouched++] = i;
+    }
+
+    private void set(int i, int bit, boolean value)
+    {
+        int attributes = m_store.getAttributes(i);
+        m_store.setAttributes(i, value ? (attributes | bit)
+                              : (attributes & ~bit));
+    }
+
+    private final String m_name;
+
+    private boolean m_visible;
+
+    /** Values of the properties that are set, and which are set. */
+    private final FieldStore m_store;
+
+    /** Indices of the fields with properties set since the last
+        clear(). */
+    private final int m_touched[];
+
+    private int m_numTouched;
+
+    /** Number of fields with the COLOR bit set. */
+    private int m_numStones;
+
+    private final Vector<Pair<HexPoint, HexPoint>> m_arrows;
+}
+
+//----------------------------------------------------------------------------
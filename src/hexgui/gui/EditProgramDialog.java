@@ -43,7 +43,9 @@ public final class EditProgramDialog
                          "executable file, or the name plus any options " +
                          "you wish to set.  The working directory can be left " +
                          "blank if the program does not need a special " +
-                         "working directory. Enter a simple descriptive name " +
+                         "working directory.  Environment variables are " +
+                         "given as NAME=value, separated by spaces. " +
+                         "Enter a simple descriptive name " +
                          "to refer to this program.");
         }
         add(info, BorderLayout.NORTH);
@@ -51,9 +53,9 @@ public final class EditProgramDialog
         add(createButtonPanel(), BorderLayout.SOUTH);
 
         if (!is_new) {
-            setPreferredSize(new Dimension(500, 180));
+            setPreferredSize(new Dimension(500, 210));
         } else {
-            setPreferredSize(new Dimension(500, 280));
+            setPreferredSize(new Dimension(500, 330));
         }
         pack();
 
@@ -70,6 +72,7 @@ public final class EditProgramDialog
             m_program.m_name = m_name.getText();
             m_program.m_command = m_command.getText();
             m_program.m_working = m_working.getText();
+            m_program.m_environment = m_environment.getText();
            
             dispose();
 
@@ -105,8 +108,16 @@ public final class EditProgramDialog
         l.setLabelFor(m_working);
         panel.add(m_working);
 
+        l = new JLabel("Environment:", JLabel.TRAILING);
+        panel.add(l);
+        m_environment = new JTextField(40);
+        if (program != null && program.m_environment != null)
+            m_environment.setText(program.m_environment);
+        l.setLabelFor(m_environment);
+        panel.add(m_environment);
+
         SpringUtilities.makeCompactGrid(panel,
-                                        3, 2,        // rows, cols
+                                        4, 2,        // rows, cols
                                         6, 6,        // initX, initY
                                         6, 6);       // xPad, yPad
 
@@ -133,6 +144,7 @@ public final class EditProgramDialog
     JTextField m_name;
     JTextField m_command;
     JTextField m_working;
+    JTextField m_environment;
 
     Program m_program;
 }
@@ -0,0 +1,208 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.htp.EngineManager;
+import hexgui.htp.EngineSession;
+import hexgui.util.RingLog;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
+import java.awt.*;
+import java.awt.event.*;
+import java.util.Vector;
+
+/** Non-modal dialog showing what the engines wrote to standard
+    error.  Refreshes itself once a second while visible; the search
+    field highlights all matches and jumps to the next one. */
+public class EngineLogDialog
+    extends JDialog implements ActionListener
+{
+    public EngineLogDialog(JFrame owner, EngineManager engines)
+    {
+	super(owner, "HexGui: Engine Log");
+        m_engines = engines;
+
+        m_sessions = new JComboBox<EngineSession>();
+        m_sessions.setActionCommand("select");
+        m_sessions.addActionListener(this);
+        m_search = new JTextField(20);
+        m_search.setActionCommand("find");
+        m_search.addActionListener(this);
+        JPanel top = new JPanel();
+        top.add(new JLabel("Engine:"));
+        top.add(m_sessions);
+        top.add(new JLabel("Find:"));
+        top.add(m_search);
+        top.add(createButton("Next", "find"));
+	getContentPane().add(top, BorderLayout.NORTH);
+
+        m_text = new JTextArea();
+        m_text.setEditable(false);
+        m_text.setFont(new Font("Monospaced", Font.PLAIN, 12));
+	getContentPane().add(new JScrollPane(m_text), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel();
+        buttons.add(createButton("Clear", "clear"));
+	getContentPane().add(buttons, BorderLayout.SOUTH);
+
+        m_timer = new javax.swing.Timer(1000, this);
+        m_timer.setActionCommand("refresh");
+
+	setPreferredSize(new Dimension(700, 400));
+        setLocationRelativeTo(owner);
+	pack();
+    }
+
+    public void setVisible(boolean f)
+    {
+        if (f)
+        {
+            refresh();
+            m_timer.start();
+        }
+        else
+            m_timer.stop();
+        super.setVisible(f);
+    }
+
+    public void actionPerformed(ActionEvent e)
+    {
+        String cmd = e.getActionCommand();
+        if (cmd.equals("refresh"))
+            refresh();
+        else if (cmd.equals("select"))
+        {
+            m_shown = -1;
+            refresh();
+        }
+        else if (cmd.equals("find"))
+            find();
+        else if (cmd.equals("clear"))
+        {
+            RingLog log = getLog();
+            if (log != null)
+                log.clear();
+            refresh();
+        }
+    }
+
+    //------------------------------------------------------------
+
+    private JButton createButton(String label, String command)
+    {
+        JButton button = new JButton(label);
+        button.setActionCommand(command);
+        button.addActionListener(this);
+        return button;
+    }
+
+    private RingLog getLog()
+    {
+        EngineSession session = (EngineSession)m_sessions.getSelectedItem();
+        return (session == null) ? null : session.getErrorLog();
+    }
+
+    /** Updates the list of engines, and the text if the log of the
+        selected engine changed. */
+    private void refresh()
+    {
+        Vector<EngineSession> sessions = m_engines.getSessions();
+        boolean changed = (sessions.size() != m_sessions.getItemCount());
+        for (int i = 0; !changed && i < sessions.size(); ++i)
+            changed = (sessions.get(i) != m_sessions.getItemAt(i));
+        if (changed)
+        {
+            Object selected = m_sessions.getSelectedItem();
+            m_sessions.removeActionListener(this);
+            m_sessions.removeAllItems();
+            for (EngineSession session : sessions)
+                m_sessions.addItem(session);
+            if (selected != null && sessions.contains(selected))
+                m_sessions.setSelectedItem(selected);
+            m_sessions.addActionListener(this);
+            m_shown = -1;
+        }
+
+        RingLog log = getLog();
+        long total = (log == null) ? 0 : log.getTotal();
+        if (total == m_shown)
+            return;
+        m_shown = total;
+        boolean atEnd
+            = (m_text.getCaretPosition() == m_text.getDocument().getLength());
+        m_text.setText((log == null) ? "" : log.getText());
+        if (atEnd)
+            m_text.setCaretPosition(m_text.getDocument().getLength());
+        highlight();
+    }
+
+    /** Highlights all matches of the search text. */
+    private void highlight()
+    {
+        Highlighter highlighter = m_text.getHighlighter();
+        highlighter.removeAllHighlights();
+        String pattern = m_search.getText().toLowerCase();
+        if (pattern.equals(""))
+            return;
+        String text = m_text.getText().toLowerCase();
+        try {
+            for (int i = text.indexOf(pattern); i >= 0;
+                 i = text.indexOf(pattern, i + pattern.length()))
+                highlighter.addHighlight(i, i + pattern.length(), PAINTER);
+        }
+        catch (BadLocationException e)
+        {
+        }
+    }
+
+    /** Moves to the next match after the caret, wrapping around. */
+    private void find()
+    {
+        highlight();
+        String pattern = m_search.getText().toLowerCase();
+        if (pattern.equals(""))
+            return;
+        String text = m_text.getText().toLowerCase();
+        int i = text.indexOf(pattern, m_text.getCaretPosition());
+        if (i < 0)
+            i = text.indexOf(pattern);
+        if (i < 0)
+        {
+            getToolkit().beep();
+            return;
+        }
+        m_text.setCaretPosition(i + pattern.length());
+        try {
+            java.awt.geom.Rectangle2D r = m_text.modelToView2D(i);
+            if (r != null)
+                m_text.scrollRectToVisible(r.getBounds());
+        }
+        catch (BadLocationException e)
+        {
+        }
+    }
+
+    /** Serial version to suppress compiler warning.
+        Contains a marker comment for serialver.sf.net
+    */
+    private static final long serialVersionUID = 0L; // SUID
+
+    private static final Highlighter.HighlightPainter PAINTER
+        = new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW);
+
+    private final EngineManager m_engines;
+    private final JComboBox<EngineSession> m_sessions;
+    private final JTextField m_search;
+    private final JTextArea m_text;
+    private final javax.swing.Timer m_timer;
+
+    /** Value of getTotal() of the log currently shown. */
+    private long m_shown = -1;
+}
+
+//----------------------------------------------------------------------------
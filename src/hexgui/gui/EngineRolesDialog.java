@@ -0,0 +1,84 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.htp.EngineManager;
+import hexgui.htp.EngineSession;
+import hexgui.util.SpringUtilities;
+
+import java.util.Vector;
+import javax.swing.*;
+import java.awt.*;
+
+/** Dialog for assigning connected engines to the black player, white
+    player and analyzer roles. */
+public final class EngineRolesDialog
+{
+    /** Run dialog and assign the chosen roles.
+        @return false if the user aborted. */
+    public static boolean show(Component parent, EngineManager engines)
+    {
+        Vector<Object> choices = new Vector<Object>();
+        choices.add(DEFAULT);
+        choices.addAll(engines.getSessions());
+
+        EngineManager.Role roles[] = EngineManager.Role.values();
+        Vector<JComboBox<Object>> boxes = new Vector<JComboBox<Object>>();
+        JPanel panel = new JPanel(new SpringLayout());
+        for (int i = 0; i < roles.length; ++i)
+        {
+            JLabel l = new JLabel(getLabel(roles[i]), JLabel.TRAILING);
+            panel.add(l);
+            JComboBox<Object> box = new JComboBox<Object>(choices);
+            if (engines.isAssigned(roles[i]))
+                box.setSelectedItem(engines.get(roles[i]));
+            l.setLabelFor(box);
+            panel.add(box);
+            boxes.add(box);
+        }
+        SpringUtilities.makeCompactGrid(panel,
+                                        roles.length, 2,  // rows, cols
+                                        6, 6,             // initX, initY
+                                        6, 6);            // xPad, yPad
+
+        int ret = JOptionPane.showConfirmDialog(parent, panel, "Engine Roles",
+                                                JOptionPane.OK_CANCEL_OPTION,
+                                                JOptionPane.PLAIN_MESSAGE);
+        if (ret != JOptionPane.OK_OPTION)
+            return false;
+
+        for (int i = 0; i < roles.length; ++i)
+        {
+            Object item = boxes.get(i).getSelectedItem();
+            if (item instanceof EngineSession)
+                engines.assign(roles[i], (EngineSession)item);
+            else
+                engines.assign(roles[i], null);
+        }
+        return true;
+    }
+
+    private static String getLabel(EngineManager.Role role)
+    {
+        switch (role)
+        {
+        case BLACK:
+            return "Black:";
+        case WHITE:
+            return "White:";
+        default:
+            return "Analyzer:";
+        }
+    }
+
+    private static final String DEFAULT = "(primary engine)";
+
+    /** Make constructor unavailable; class is for namespace only. */
+    private EngineRolesDialog()
+    {
+    }
+}
+
+//----------------------------------------------------------------------------
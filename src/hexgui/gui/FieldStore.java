@@ -0,0 +1,207 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+
+//----------------------------------------------------------------------------
+
+/** State of the fields of a board, kept in one array per property.
+
+    <p>Fields are numbered in the order of the points given to the
+    constructor, and the field of a cell can be found directly from its
+    coordinates.  Colors of marks are stored as ARGB values, where 0
+    means no color.  GuiField objects are views of one field of a
+    store.
+*/
+public class FieldStore
+{
+    /** Creates a store with empty fields at the given points.
+        @param width width of the board; cells must have coordinates
+        within width times height.
+        @param height height of the board. */
+    public FieldStore(HexPoint points[], int width, int height)
+    {
+        int n = points.length;
+        m_width = width;
+        m_height = height;
+        m_point = points.clone();
+        m_color = new byte[n];
+        m_attributes = new int[n];
+        m_alpha = new int[n];
+        m_alphaBlend = new float[n];
+        m_background = new int[n];
+        m_backgroundBlend = new float[n];
+        m_text = new String[n];
+        m_index = new int[width * height];
+        Arrays.fill(m_index, -1);
+        for (int i = 0; i < n; i++) {
+            HexPoint p = points[i];
+            if (p.x >= 0 && p.x < width && p.y >= 0 && p.y < height)
+                m_index[p.x + p.y * width] = i;
+        }
+    }
+
+    /** Creates a copy of the given store. */
+    public FieldStore(FieldStore store)
+    {
+        m_width = store.m_width;
+        m_height = store.m_height;
+        m_index = store.m_index;
+        m_point = store.m_point.clone();
+        m_color = store.m_color.clone();
+        m_attributes = store.m_attributes.clone();
+        m_alpha = store.m_alpha.clone();
+        m_alphaBlend = store.m_alphaBlend.clone();
+        m_background = store.m_background.clone();
+        m_backgroundBlend = store.m_backgroundBlend.clone();
+        m_text = store.m_text.clone();
+    }
+
+    /** Sets all fields to the state of the fields in a store of the
+        same size. */
+    public void copyFrom(FieldStore store)
+    {
+        int n = size();
+        assert(store.size() == n);
+        System.arraycopy(store.m_point, 0, m_point, 0, n);
+        System.arraycopy(store.m_color, 0, m_color, 0, n);
+        System.arraycopy(store.m_attributes, 0, m_attributes, 0, n);
+        System.arraycopy(store.m_alpha, 0, m_alpha, 0, n);
+        System.arraycopy(store.m_alphaBlend, 0, m_alphaBlend, 0, n);
+        System.arraycopy(store.m_background, 0, m_background, 0, n);
+        System.arraycopy(store.m_backgroundBlend, 0, m_backgroundBlend, 0, n);
+        System.arraycopy(store.m_text, 0, m_text, 0, n);
+    }
+
+    /** Sets field i to the state of field j of the given store. */
+    public void set(int i, FieldStore store, int j)
+    {
+        m_point[i] = store.m_point[j];
+        m_color[i] = store.m_color[j];
+        m_attributes[i] = store.m_attributes[j];
+        m_alpha[i] = store.m_alpha[j];
+        m_alphaBlend[i] = store.m_alphaBlend[j];
+        m_background[i] = store.m_background[j];
+        m_backgroundBlend[i] = store.m_backgroundBlend[j];
+        m_text[i] = store.m_text[j];
+    }
+
+    public int size()
+    {
+        return m_point.length;
+    }
+
+    /** Gets the index of the field of a point.
+        @return the index, or -1 if the point has no field. */
+    public int getIndex(HexPoint p)
+    {
+        if (p.x < 0 || p.x >= m_width || p.y < 0 || p.y >= m_height)
+            return -1;
+        return m_index[p.x + p.y * m_width];
+    }
+
+    /** True if field i would be drawn exactly like field j of the
+        given store. */
+    public boolean looksSame(int i, FieldStore store, int j)
+    {
+        return m_point[i] == store.m_point[j]
+            && m_color[i] == store.m_color[j]
+            && m_attributes[i] == store.m_attributes[j]
+            && m_alpha[i] == store.m_alpha[j]
+            && m_alphaBlend[i] == store.m_alphaBlend[j]
+            && m_background[i] == store.m_background[j]
+            && m_backgroundBlend[i] == store.m_backgroundBlend[j]
+            && (m_text[i] == null ? store.m_text[j] == null
+                : m_text[i].equals(store.m_text[j]));
+    }
+
+    public HexPoint getPoint(int i) { return m_point[i]; }
+
+    /** Returns a copy of the points of all fields. */
+    public HexPoint[] getPoints() { return m_point.clone(); }
+
+    public void setPoint(int i, HexPoint p) { m_point[i] = p; }
+
+    public HexColor getColor(int i) { return COLORS[m_color[i]]; }
+
+    public void setColor(int i, HexColor c)
+    {
+        m_color[i] = (c == HexColor.BLACK ? BLACK
+                      : (c == HexColor.WHITE ? WHITE : EMPTY));
+    }
+
+    public int getAttributes(int i) { return m_attributes[i]; }
+
+    public void setAttributes(int i, int attributes)
+    {
+        m_attributes[i] = attributes;
+    }
+
+    public String getText(int i) { return m_text[i]; }
+
+    public void setText(int i, String text) { m_text[i] = text; }
+
+    public Color getAlphaColor(int i) { return toColor(m_alpha[i]); }
+
+    public float getAlphaBlend(int i) { return m_alphaBlend[i]; }
+
+    public void setAlphaColor(int i, Color c, float blend)
+    {
+        m_alpha[i] = toARGB(c);
+        m_alphaBlend[i] = blend;
+    }
+
+    public Color getBackgroundColor(int i) { return toColor(m_background[i]); }
+
+    public float getBackgroundBlend(int i) { return m_backgroundBlend[i]; }
+
+    public void setBackgroundColor(int i, Color c, float blend)
+    {
+        m_background[i] = toARGB(c);
+        m_backgroundBlend[i] = blend;
+    }
+
+    //------------------------------------------------------------
+
+    private static final byte EMPTY = 0;
+
+    private static final byte BLACK = 1;
+
+    private static final byte WHITE = 2;
+
+    private static final HexColor COLORS[]
+        = { HexColor.EMPTY, HexColor.BLACK, HexColor.WHITE };
+
+    private static int toARGB(Color c)
+    {
+        return (c == null) ? 0 : c.getRGB();
+    }
+
+    private static Color toColor(int argb)
+    {
+        return (argb == 0) ? null : new Color(argb, true);
+    }
+
+    private final int m_width, m_height;
+
+    /** Index of the field of each cell, by x + y * m_width, or -1. */
+    private final int m_index[];
+
+    private final HexPoint m_point[];
+    private final byte m_color[];
+    private final int m_attributes[];
+    private final int m_alpha[];
+    private final float m_alphaBlend[];
+    private final int m_background[];
+    private final float m_backgroundBlend[];
+    private final String m_text[];
+}
+
+//----------------------------------------------------------------------------
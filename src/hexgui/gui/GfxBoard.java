@@ -0,0 +1,105 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.htp.HtpController;
+import hexgui.util.Pair;
+import hexgui.util.StringUtils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Vector;
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+
+//----------------------------------------------------------------------------
+
+/** A board without a window that shows gogui-gfx output the way the
+    main window does.
+
+    <p>Each message is handed to the event dispatch thread, shown in
+    the Search overlay of a GuiBoard like the "ab" messages of
+    HexGui, and the board panel is then painted into an image, as a
+    repaint of the window would.  Used by the HTP benchmark to time
+    the whole path from the engine to the board image.  Messages of
+    other forms are ignored.
+*/
+public class GfxBoard
+    implements HtpController.GuiFxCallback
+{
+    /** Creates an 11x11 board drawn into an image of the given size. */
+    public GfxBoard(int width, int height)
+    {
+        m_board = new GuiBoard(new GuiBoard.Listener()
+            {
+                public void panelClicked() { }
+                public void fieldClicked(HexPoint point, boolean ctrl,
+                                         boolean shift) { }
+                public void fieldDoubleClicked(HexPoint point, boolean ctrl,
+                                               boolean shift) { }
+            }, new GuiPreferences(getClass()));
+        m_board.initSize(11, 11);
+        m_panel = (JComponent)m_board.getComponent(0);
+        m_panel.setBounds(0, 0, width, height);
+        m_image = new BufferedImage(width, height,
+                                    BufferedImage.TYPE_INT_RGB);
+    }
+
+    /** HtpController.GuiFxCallback */
+    public void guifx(final String fx)
+    {
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    show(fx);
+                }
+            });
+    }
+
+    //------------------------------------------------------------
+
+    private void show(String fx)
+    {
+        if (!fx.startsWith("ab"))
+            return;
+        int var = fx.indexOf("VAR");
+        int label = fx.indexOf("LABEL");
+        int text = fx.indexOf("TEXT");
+        if (var < 0 || label < var || text < label)
+            return;
+        m_board.beginOverlay("Search");
+        m_board.aboutToDirtyStones();
+        Vector<Pair<HexColor, HexPoint> > vr
+            = StringUtils.parseVariation(fx.substring(var+3, label));
+        if (vr.size() > 0)
+        {
+            m_board.setColor(vr.get(0).second, vr.get(0).first);
+            m_board.setAlphaColor(vr.get(0).second, Color.green);
+            if (vr.size() >= 2)
+            {
+                m_board.setColor(vr.get(1).second, vr.get(1).first);
+                m_board.setAlphaColor(vr.get(1).second, Color.red);
+            }
+        }
+        Vector<Pair<String, String> > labels
+            = StringUtils.parseStringPairList(fx.substring(label+5, text));
+        for (int i = 0; i < labels.size(); ++i)
+            m_board.setText(HexPoint.get(labels.get(i).first),
+                            labels.get(i).second);
+        Graphics2D g = m_image.createGraphics();
+        m_panel.paint(g);
+        g.dispose();
+    }
+
+    private final GuiBoard m_board;
+
+    private final JComponent m_panel;
+
+    private final BufferedImage m_image;
+}
+
+//----------------------------------------------------------------------------
@@ -19,6 +19,8 @@ import java.awt.print.PageFormat;
 import java.awt.print.PrinterException;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
 import java.net.URL;
 
 //----------------------------------------------------------------------------
@@ -46,7 +48,6 @@ public final class GuiBoard
 	m_image = null;
 	m_listener = listener;
 	m_preferences = preferences;
-        m_arrows = new Vector<Pair<HexPoint, HexPoint>>();
 
 	initSize(HEXBOARD, 
                  m_preferences.getInt("gui-board-width"),
@@ -139,6 +140,9 @@ public final class GuiBoard
 	    System.out.println("GuiBoard: unknown draw type '" + name + "'.");
 	    m_drawer = new BoardDrawerHex();
 	} 
+        m_drawer.setDetailLimits
+            (m_preferences.getInt("gui-board-detail-flat"),
+             m_preferences.getInt("gui-board-detail-minimal"));
         repaint();
     }
 
@@ -194,29 +198,51 @@ public final class GuiBoard
 	m_size = new Dimension(m_width, m_height);
         
         m_dirty_stones = false;
-        clearArrows();
+        if (m_layers != null)
+            clearArrows();
 
+        HexPoint points[];
         if (m_mode == HEXBOARD) 
         {
-            m_field = new GuiField[w*h];
-            for (int x=0; x<w*h; x++) {
-                m_field[x] = new GuiField(HexPoint.get(x % w, x / w));
-                m_field[x].setAttributes(GuiField.DRAW_CELL_OUTLINE);
-            }
+            points = new HexPoint[w*h];
+            for (int x=0; x<w*h; x++)
+                points[x] = HexPoint.get(x % w, x / w);
         } 
         else 
         {
             int n = w*(w+1)/2;
-            m_field = new GuiField[n];
+            points = new HexPoint[n];
             for (int y=0,i=0; y<w; y++) {
-                for (int x=0; x<=y; x++,i++) {
-                    m_field[i] = new GuiField(HexPoint.get(x, y));
-                    m_field[i].setAttributes(GuiField.DRAW_CELL_OUTLINE);
-                }
+                for (int x=0; x<=y; x++,i++)
+                    points[i] = HexPoint.get(x, y);
+            }
+        }
+        m_base = new FieldStore(points, w, h);
+        Vector<BoardOverlay> layers = new Vector<BoardOverlay>();
+        layers.add(new BoardOverlay(MARKS, points, w, h));
+        if (m_layers != null) {
+            for (int i=1; i<m_layers.size(); i++) {
+                BoardOverlay layer
+                    = new BoardOverlay(m_layers.get(i).getName(), points, w, h);
+                layer.setVisible(m_layers.get(i).isVisible());
+                layers.add(layer);
             }
         }
+        m_layers = layers;
+        m_overlay = layers.get(0);
+        m_arrows.clear();
+        for (int i=0; i<points.length; i++)
+            m_base.setAttributes(i, GuiField.DRAW_CELL_OUTLINE);
+        synchronized (this) {
+            m_fields = new FieldStore(points, w, h);
+            m_field = createViews(m_fields);
+            m_changed = new boolean[points.length];
+            m_changedIndex = new int[points.length];
+            m_numChanged = 0;
+        }
+        m_last_played = -1;
+        m_swap_played = false;
 	clearAll();
-        repaint();
     }
 
     /** Creates a board with the given dimensions.
@@ -250,68 +276,196 @@ public final class GuiBoard
     /** Clears all marks and stones from the board. */
     public void clearAll()
     {
+        for (int i=0; i<m_layers.size(); i++)
+            m_layers.get(i).clear();
+        m_arrows.clear();
 	for (int x=0; x<m_field.length; x++) {
-	    m_field[x].clear();
+	    m_base.setColor(x, HexColor.EMPTY);
+            updateField(x);
         }
-        repaint();
+        scheduleRepaint(null);
     }
 
-    /** Makes a copy of the current fields if the dirty flag is not
-        already set, and then sets the dirty flag to true. See
-        clearMarks().
-    */
+    /** Sets the dirty flag, so that stones placed until the next call
+        to clearMarks() are only shown over the position and are
+        removed by clearMarks(). */
     public void aboutToDirtyStones()
     {
-        if (!m_dirty_stones) {
-            m_backup_field = new GuiField[m_field.length];
-            for (int i=0; i<m_field.length; i++) 
-                m_backup_field[i] = new GuiField(m_field[i]);
-        }
         m_dirty_stones = true;
     }
 
+    /** True while the dirty flag is set or an overlay shows stones
+        that are not part of the position. */
     public boolean areStonesDirty()
     {
-        return m_dirty_stones;
+        if (m_dirty_stones)
+            return true;
+        for (int i=0; i<m_layers.size(); i++) {
+            if (m_layers.get(i).hasStones())
+                return true;
+        }
+        return false;
     }
 
-    /** Adds an arrow. */
+    /** Adds an arrow to the current overlay. */
     public void addArrow(HexPoint from, HexPoint to)
     {
-        m_arrows.add(new Pair<HexPoint, HexPoint>(from, to));
-        repaint();
+        m_overlay.addArrow(from, to);
+        if (m_overlay.isVisible()) {
+            m_arrows.add(new Pair<HexPoint, HexPoint>(from, to));
+            scheduleRepaint(m_drawer.getArrowBounds(from, to));
+        }
     }
 
+    /** Removes the arrows of all overlays. */
     public void clearArrows()
     {
+        repaintArrows();
+        for (int i=0; i<m_layers.size(); i++)
+            m_layers.get(i).clearArrows();
         m_arrows.clear();
-        repaint();
     }
 
-    /** Clears dynamic marks, leaving stones intact. If the dirty flag is set,
-        revert the fields to the saved fields saved in markStonesDirty().
-        Dirty stones flag is set to false. See aboutToDirtyStones().
-        Empties the list of arrows. 
+    /** Clears dynamic marks, leaving stones intact. Removes all
+        overlays of text, mark colors, arrows and the stones placed
+        while the dirty flag was set, which takes time in the number of
+        fields they changed, and makes the default overlay the current
+        one.  Dirty stones flag is set to false. See
+        aboutToDirtyStones().
      */
     public void clearMarks()
     {
-        if (m_dirty_stones) {
-            for (int i=0; i<m_field.length; i++) {
-                m_field[i] = new GuiField(m_backup_field[i]);
-            }
-        }
         m_dirty_stones = false;
         
         clearArrows();
-        
-	for (int x=0; x<m_field.length; x++) {
-	    m_field[x].clearAttributes(GuiField.LAST_PLAYED | 
-                                       GuiField.SWAP_PLAYED | 
-                                       GuiField.DRAW_TEXT | 
-                                       GuiField.DRAW_ALPHA |
-                                       GuiField.DRAW_BACKGROUND);
+        for (int i=0; i<m_layers.size(); i++)
+            clearLayer(m_layers.get(i));
+        m_overlay = m_layers.get(0);
+
+        markLastPlayed(null);
+        if (m_swap_played)
+            clearSwapPlayed();
+    }
+
+    /** Name of the overlay that is current after clearMarks(). */
+    public static final String MARKS = "Marks";
+
+    /** Clears the overlay with the given name, creating it on top of
+        the others if it does not exist, and makes it the current one.
+        Text, mark colors and arrows are added to the current overlay,
+        and stones as well while the dirty flag is set; the other
+        overlays are kept.  Dirty stones flag is set to false. */
+    public void beginOverlay(String name)
+    {
+        m_dirty_stones = false;
+        BoardOverlay layer = getLayer(name);
+        if (layer == null) {
+            layer = new BoardOverlay(name, m_base.getPoints(),
+                                     m_width, m_height);
+            m_layers.add(layer);
+        }
+        Vector<Pair<HexPoint, HexPoint>> arrows = layer.getArrows();
+        if (!arrows.isEmpty()) {
+            repaintArrows();
+            layer.clearArrows();
+            rebuildArrows();
+        }
+        clearLayer(layer);
+        m_overlay = layer;
+    }
+
+    /** Names of all overlays, from the bottom to the top. */
+    public Vector<String> getOverlayNames()
+    {
+        Vector<String> names = new Vector<String>();
+        for (int i=0; i<m_layers.size(); i++)
+            names.add(m_layers.get(i).getName());
+        return names;
+    }
+
+    public boolean isOverlayVisible(String name)
+    {
+        BoardOverlay layer = getLayer(name);
+        return layer != null && layer.isVisible();
+    }
+
+    /** Shows or hides an overlay.  Only combines the overlays again;
+        their contents are kept while hidden. */
+    public void setOverlayVisible(String name, boolean visible)
+    {
+        BoardOverlay layer = getLayer(name);
+        if (layer == null || layer.isVisible() == visible)
+            return;
+        layer.setVisible(visible);
+        for (int k=0; k<layer.getNumTouched(); k++) {
+            updateField(layer.getTouched(k));
+            repaintField(layer.getTouched(k));
+        }
+        if (!layer.getArrows().isEmpty()) {
+            repaintArrows();
+            rebuildArrows();
+            repaintArrows();
+        }
+    }
+
+    private BoardOverlay getLayer(String name)
+    {
+        for (int i=0; i<m_layers.size(); i++) {
+            if (m_layers.get(i).getName().equals(name))
+                return m_layers.get(i);
+        }
+        return null;
+    }
+
+    /** Clears an overlay and shows the fields it changed without it. */
+    private void clearLayer(BoardOverlay layer)
+    {
+        int n = layer.getNumTouched();
+        int touched[] = new int[n];
+        for (int k=0; k<n; k++)
+            touched[k] = layer.getTouched(k);
+        layer.clear();
+        for (int k=0; k<n; k++) {
+            updateField(touched[k]);
+            repaintField(touched[k]);
+        }
+    }
+
+    /** Collects the arrows of the visible overlays. */
+    private synchronized void rebuildArrows()
+    {
+        m_arrows.clear();
+        for (int i=0; i<m_layers.size(); i++) {
+            if (m_layers.get(i).isVisible())
+                m_arrows.addAll(m_layers.get(i).getArrows());
+        }
+    }
+
+    private void repaintArrows()
+    {
+        for (int i=0; i<m_arrows.size(); i++) {
+            Pair<HexPoint, HexPoint> arrow = m_arrows.get(i);
+            scheduleRepaint(m_drawer.getArrowBounds(arrow.first,
+                                                    arrow.second));
+        }
+    }
+
+    /** Combines the position and the visible overlays at field i into
+        the state that is drawn, and records that the field changed.
+        Holds the lock that paintComponent() takes its copy of the
+        changed fields under. */
+    private synchronized void updateField(int i)
+    {
+        m_fields.set(i, m_base, i);
+        for (int k=0; k<m_layers.size(); k++) {
+            BoardOverlay layer = m_layers.get(k);
+            if (layer.isVisible())
+                layer.applyTo(i, m_fields);
+        }
+        if (!m_changed[i]) {
+            m_changed[i] = true;
+            m_changedIndex[m_numChanged++] = i;
         }
-        repaint();
     }
 
     /** Sets the given point to the given color.
@@ -321,24 +475,30 @@ public final class GuiBoard
     */
     public void setColor(HexPoint point, HexColor color)
     {
-	GuiField f = getField(point);
-        if (f != null) {
-            f.setColor(color);
-            repaint();
-        }
+	int i = getFieldIndex(point);
+        if (i < 0)
+            return;
+        if (m_dirty_stones)
+            m_overlay.setColor(i, color);
+        else
+            m_base.setColor(i, color);
+        updateField(i);
+        repaintField(i);
     }
 
-    /** Gets the color of the specified point.
+    /** Gets the color of the specified point in the position; stones
+        shown by overlays are not included.
 	@param point the point whose color we with to obtain.
 	@return the color of <code>point</code>
     */
     public HexColor getColor(HexPoint point)
     {
-	GuiField f = getField(point);
-	return f.getColor();
+	int i = getFieldIndex(point);
+	return (i < 0) ? HexColor.EMPTY : m_base.getColor(i);
     }
 
-    /** Gets the field at the specified point. 
+    /** Gets the field at the specified point, as it is drawn.  It
+        must not be changed; use the methods of the board instead.
         Special points are ignored (SWAP_SIDES, etc).
     */
     public GuiField getField(HexPoint point)
@@ -351,12 +511,69 @@ public final class GuiBoard
             return null;
         }
 
-	for (int x=0; x<m_field.length; x++) {
-	    if (m_field[x].getPoint() == point) 
-		return m_field[x];
+        int index = getFieldIndex(point);
+        return (index < 0) ? null : m_field[index];
+    }
+
+    /** Gets the index of the field at the specified point in the
+        array of fields, or -1 for special points. */
+    private int getFieldIndex(HexPoint point)
+    {
+        return m_fields.getIndex(point);
+    }
+
+    /** Creates a view of each field of a store. */
+    private static GuiField[] createViews(FieldStore store)
+    {
+        GuiField field[] = new GuiField[store.size()];
+        for (int i=0; i<field.length; i++)
+            field[i] = new GuiField(store, i);
+        return field;
+    }
+
+    /** Schedules repainting the field with the given index. */
+    private void repaintField(int index)
+    {
+        Rectangle bounds = (m_drawer == null) ? null
+            : m_drawer.getFieldBounds(index);
+        if (bounds != null)
+            scheduleRepaint(bounds);
+        else
+            scheduleRepaint(null);
+    }
+
+    /** Schedules repainting the given area of the board, or all of it
+        if <code>area</code> is null.  All areas requested until the
+        event dispatch thread gets to them are merged into a single
+        repaint.  May be called from any thread. */
+    private synchronized void scheduleRepaint(Rectangle area)
+    {
+        if (area == null)
+            m_repaintAll = true;
+        else if (m_repaintArea == null)
+            m_repaintArea = new Rectangle(area);
+        else
+            m_repaintArea.add(area);
+        if (m_repaintPending)
+            return;
+        m_repaintPending = true;
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    flushRepaint();
+                } });
+    }
+
+    private synchronized void flushRepaint()
+    {
+        if (m_boardPanel != null) {
+            if (m_repaintAll)
+                m_boardPanel.repaint();
+            else if (m_repaintArea != null)
+                m_boardPanel.repaint(m_repaintArea);
         }
-	assert(false);
-	return null;
+        m_repaintAll = false;
+        m_repaintArea = null;
+        m_repaintPending = false;
     }
 
     /** Marks the given point to show which move was played last, or
@@ -366,26 +583,27 @@ public final class GuiBoard
     {
         assert(point != HexPoint.SWAP_SIDES && point != HexPoint.SWAP_PIECES);
 
-	if (m_last_played != null) {
-	    m_last_played.clearAttributes(GuiField.LAST_PLAYED);
-            m_last_played = null;
+	if (m_last_played >= 0) {
+            setBaseAttribute(m_last_played, GuiField.LAST_PLAYED, false);
+            m_last_played = -1;
         }
 	if (point != null) {
-	    m_last_played = getField(point);
-            if (m_last_played != null) {
-                m_last_played.setAttributes(GuiField.LAST_PLAYED);
-            }
+	    m_last_played = getFieldIndex(point);
+            if (m_last_played >= 0)
+                setBaseAttribute(m_last_played, GuiField.LAST_PLAYED, true);
 	}
-        repaint();
     }
 
     /** Clear swap marks */
     public void clearSwapPlayed()
     {
         for (int x=0; x<m_field.length; x++) {
-            m_field[x].clearAttributes(GuiField.SWAP_PLAYED);
+            m_base.setAttributes(x, (m_base.getAttributes(x)
+                                     & ~GuiField.SWAP_PLAYED));
+            updateField(x);
         }
-        repaint();
+        m_swap_played = false;
+        scheduleRepaint(null);
     }
         
     /** Add swap mark to all pieces on the board (hopefully there is
@@ -393,30 +611,40 @@ public final class GuiBoard
     public void markSwapPlayed()
     {
         for (int x=0; x<m_field.length; x++) {
-            HexPoint p = m_field[x].getPoint();
-            if (p.is_cell() && m_field[x].getColor() != HexColor.EMPTY) {
-                m_field[x].setAttributes(GuiField.SWAP_PLAYED);
+            HexPoint p = m_base.getPoint(x);
+            if (p.is_cell() && m_base.getColor(x) != HexColor.EMPTY) {
+                m_base.setAttributes(x, (m_base.getAttributes(x)
+                                         | GuiField.SWAP_PLAYED));
+                updateField(x);
+                m_swap_played = true;
             }
         }
-        repaint();
+        scheduleRepaint(null);
+    }
+
+    /** Sets or clears an attribute of field i of the position. */
+    private void setBaseAttribute(int i, int attribute, boolean value)
+    {
+        int attributes = m_base.getAttributes(i);
+        m_base.setAttributes(i, value ? (attributes | attribute)
+                             : (attributes & ~attribute));
+        updateField(i);
+        repaintField(i);
     }
 
     /** Sets the given point's alpha color. */
     public void setAlphaColor(HexPoint point, Color color)
     {
-        GuiField f = getField(point);
-        if (f != null) {
-            f.setAlphaColor(color);
-            repaint();
-        }
+        setAlphaColor(point, color, 0.3f);
     }
 
     public void setAlphaColor(HexPoint point, Color color, float blend)
     {
-        GuiField f = getField(point);
-        if (f != null) {
-            f.setAlphaColor(color, blend);
-            repaint();
+        int i = getFieldIndex(point);
+        if (i >= 0) {
+            m_overlay.setAlphaColor(i, color, blend);
+            updateField(i);
+            repaintField(i);
         }
     }
 
@@ -435,41 +663,39 @@ public final class GuiBoard
     /** Sets the given point's background color. */
     public void setBackgroundColor(HexPoint point, Color color)
     {
-        GuiField f = getField(point);
-        if (f != null) {
-            f.setBackgroundColor(color);
-            repaint();
-        }
+        setBackgroundColor(point, color, 0.3f);
     }
 
     public void setBackgroundColor(HexPoint point, Color color, float blend)
     {
-        GuiField f = getField(point);
-        if (f != null) {
-            f.setBackgroundColor(color, blend);
-            repaint();
+        int i = getFieldIndex(point);
+        if (i >= 0) {
+            m_overlay.setBackgroundColor(i, color, blend);
+            updateField(i);
+            repaintField(i);
         }
     }
 
     /** Sets the given point's text. */
     public void setText(HexPoint point, String str)
     {
-        getField(point).setText(str);
-        repaint();
+        int i = getFieldIndex(point);
+        m_overlay.setText(i, str);
+        updateField(i);
+        repaintField(i);
     }
 
     /** Sets whether this cell is selected. */
     public void setSelected(HexPoint point, boolean selected)
     {
-        getField(point).setSelected(selected);
-        repaint();
+        setBaseAttribute(getFieldIndex(point), GuiField.SELECTED, selected);
     }
 
     /** Check if the board is full */
     public boolean isBoardFull()
     {
         for (int x=0; x<m_field.length; x++) {
-            if (m_field[x].getColor() == HexColor.EMPTY)
+            if (m_base.getColor(x) == HexColor.EMPTY)
                 return false;
         }
         return true;
@@ -480,8 +706,7 @@ public final class GuiBoard
     {
         int count = 0;
         for (int x=0; x<m_field.length; x++) {
-            HexPoint point = m_field[x].getPoint();
-            if (m_field[x].getColor() != HexColor.EMPTY) {
+            if (m_base.getColor(x) != HexColor.EMPTY) {
                 count++;
             }
         }
@@ -494,30 +719,25 @@ public final class GuiBoard
     public void swapColors() 
     {
         for (int x=0; x<m_field.length; x++) {
-            HexPoint point = m_field[x].getPoint();
-            HexColor color = m_field[x].getColor();
-            m_field[x].setColor(color.otherColor());
+            HexColor color = m_base.getColor(x);
+            m_base.setColor(x, color.otherColor());
+            updateField(x);
         }
+        scheduleRepaint(null);
     }
 
     /** Change the pieces' colors and move them. This is only used in
         Hex. */
     public void swapPieces() 
     {
-        // Due to the weird way the data structures are set up, it
-        // is tricky to move pieces to another location on the board.
-        // In particular, there is no O(1) way to find the HexField
-        // attached to a given HexPoint.
-        Map<HexPoint, HexColor> colors = new TreeMap<HexPoint, HexColor>();
-        for (int x=0; x<m_field.length; x++) {
-            HexPoint point = m_field[x].getPoint();
-            colors.put(point, m_field[x].getColor());
-        }
+        FieldStore old = new FieldStore(m_base);
         for (int x=0; x<m_field.length; x++) {
-            HexPoint point = m_field[x].getPoint();
-            HexPoint otherpoint = point.reflect();
-            m_field[x].setColor(colors.get(otherpoint).otherColor());
+            HexPoint otherpoint = m_base.getPoint(x).reflect();
+            int other = old.getIndex(otherpoint);
+            m_base.setColor(x, old.getColor(other).otherColor());
+            updateField(x);
         }
+        scheduleRepaint(null);
     }
 
     /** Stores the current state as a setup position in the
@@ -525,8 +745,8 @@ public final class GuiBoard
     public void storePosition(Node node)
     {
         for (int x=0; x<m_field.length; x++) {
-            HexPoint point = m_field[x].getPoint();
-            HexColor color = m_field[x].getColor();
+            HexPoint point = m_base.getPoint(x);
+            HexColor color = m_base.getColor(x);
             if (color == HexColor.EMPTY)
                 continue;
 
@@ -543,20 +763,20 @@ public final class GuiBoard
     /** Displays this vc on the board. */
     public void displayVC(VC vc)
     {
-        getField(vc.getFrom()).setAlphaColor(Color.blue);
-        getField(vc.getTo()).setAlphaColor(Color.blue);
+        setAlphaColor(vc.getFrom(), Color.blue);
+        setAlphaColor(vc.getTo(), Color.blue);
         
         Vector<HexPoint> carrier = vc.getCarrier();
         for (int i=0; i<carrier.size(); i++) 
-            getField(carrier.get(i)).setAlphaColor(Color.green);
+            setAlphaColor(carrier.get(i), Color.green);
 
         Vector<HexPoint> stones = vc.getStones();
         for (int i=0; i<stones.size(); i++) 
-            getField(stones.get(i)).setAlphaColor(Color.red);
+            setAlphaColor(stones.get(i), Color.red);
 
         Vector<HexPoint> key = vc.getKey();
         for (int i=0; i<key.size(); i++)
-            getField(key.get(i)).setAlphaColor(Color.yellow);
+            setAlphaColor(key.get(i), Color.yellow);
     }
 
     //------------------------------------------------------------
@@ -653,19 +873,46 @@ public final class GuiBoard
 	    setFocusable(true);
 	}
 
+	/** Draws the fields that look different from when they were
+	    last drawn into the board image, or the whole board if the
+	    size, orientation or board drawer changed, and copies the
+	    image to the screen.  The fields and arrows may be changed
+	    in other threads, so the fields changed since the last paint
+	    are copied first and everything is drawn from the copy; a
+	    change made later is recorded again for the next paint.
+	    Only the changed fields are copied and compared, so the
+	    time does not depend on the size of the board unless all of
+	    it is drawn. */
 	public void paintComponent(Graphics graphics)
 	{
 	    int w = getWidth();
 	    int h = getHeight();
 
-	    if (m_image == null) {
-		m_image = createImage(w, h);
-	    }
-
-	    int bw = m_width;
-	    int bh = m_height;
-	    GuiField ff[] = m_field;
-            Vector<Pair<HexPoint, HexPoint>> arrows = m_arrows;
+	    int bw, bh;
+            Vector<Pair<HexPoint, HexPoint>> arrows;
+            int changedFields[];
+            synchronized (GuiBoard.this) {
+                bw = m_width;
+                bh = m_height;
+                if (m_snapshotSource != m_fields) {
+                    m_snapshotSource = m_fields;
+                    m_snapshot = new FieldStore(m_fields);
+                    m_snapshotField = createViews(m_snapshot);
+                    m_painted = null;
+                    changedFields = new int[0];
+                } else {
+                    changedFields = new int[m_numChanged];
+                    for (int k=0; k<m_numChanged; k++) {
+                        int i = m_changedIndex[k];
+                        changedFields[k] = i;
+                        m_snapshot.set(i, m_fields, i);
+                    }
+                }
+                for (int k=0; k<m_numChanged; k++)
+                    m_changed[m_changedIndex[k]] = false;
+                m_numChanged = 0;
+                arrows = new Vector<Pair<HexPoint, HexPoint>>(m_arrows);
+            }
 
             boolean mirrored = false;
             if (m_preferences.get("gui-board-orientation").equals("negative")) {
@@ -673,13 +920,83 @@ public final class GuiBoard
             }
 
             int rotation = m_preferences.getInt("gui-board-rotation");
-            
-	    m_drawer.draw((Graphics2D)m_image.getGraphics(), 
-                          w, h, bw, bh, rotation, mirrored, 
-                          ff, arrows);
+
+            boolean full = (m_image == null || m_painted == null
+                            || m_paintedDrawer != m_drawer
+                            || bw != m_paintedWidth || bh != m_paintedHeight
+                            || rotation != m_paintedRotation
+                            || mirrored != m_paintedMirrored);
+	    if (m_image == null) {
+		m_image = createImage(w, h);
+                // The panel is not displayable, as in GfxBoard.
+                if (m_image == null)
+                    m_image = new BufferedImage(Math.max(w, 1),
+                                                Math.max(h, 1),
+                                                BufferedImage.TYPE_INT_RGB);
+	    }
+
+            Graphics2D g = (Graphics2D)m_image.getGraphics();
+            Path2D changed = null;
+            if (!full)
+                changed = getChangedArea(changedFields, arrows);
+            if (full || changed != null) {
+                if (changed != null)
+                    g.setClip(changed);
+                m_drawer.draw(g, w, h, bw, bh, rotation, mirrored, 
+                              m_snapshotField, arrows);
+                if (m_painted == null)
+                    m_painted = new FieldStore(m_snapshot);
+                else if (full)
+                    m_painted.copyFrom(m_snapshot);
+                else {
+                    for (int k=0; k<changedFields.length; k++) {
+                        int i = changedFields[k];
+                        m_painted.set(i, m_snapshot, i);
+                    }
+                }
+                m_paintedArrows = arrows;
+                m_paintedDrawer = m_drawer;
+                m_paintedWidth = bw;
+                m_paintedHeight = bh;
+                m_paintedRotation = rotation;
+                m_paintedMirrored = mirrored;
+            }
+            g.dispose();
 	    graphics.drawImage(m_image, 0, 0, null);
 	}
 
+	/** Returns the area covered by the fields and arrows that
+	    changed since they were last drawn, or null if nothing
+	    changed.  Only the given fields of the snapshot are compared
+	    with the ones drawn; the others have not changed.
+	    @param changedFields indices of the fields updated since the
+	    last paint. */
+	private Path2D getChangedArea(int changedFields[],
+                                      Vector<Pair<HexPoint, HexPoint>> arrows)
+	{
+            Path2D area = new Path2D.Double();
+            boolean changed = false;
+            for (int k=0; k<changedFields.length; k++) {
+                int i = changedFields[k];
+                if (!m_snapshot.looksSame(i, m_painted, i)) {
+                    area.append(m_drawer.getFieldBounds(i), false);
+                    changed = true;
+                }
+            }
+            if (!sameArrows(arrows, m_paintedArrows)) {
+                for (int i=0; i<arrows.size(); i++)
+                    area.append(m_drawer.getArrowBounds
+                                (arrows.get(i).first, arrows.get(i).second),
+                                false);
+                for (int i=0; i<m_paintedArrows.size(); i++)
+                    area.append(m_drawer.getArrowBounds
+                                (m_paintedArrows.get(i).first,
+                                 m_paintedArrows.get(i).second), false);
+                changed = true;
+            }
+            return changed ? area : null;
+	}
+
 	public void setBounds(int x, int y, int w, int h)
 	{
 	    super.setBounds(x, y, w, h);
@@ -687,6 +1004,19 @@ public final class GuiBoard
 	}
     }
 
+    private static boolean sameArrows(Vector<Pair<HexPoint, HexPoint>> a,
+                                      Vector<Pair<HexPoint, HexPoint>> b)
+    {
+        if (a.size() != b.size())
+            return false;
+        for (int i=0; i<a.size(); i++) {
+            if (a.get(i).first != b.get(i).first
+                || a.get(i).second != b.get(i).second)
+                return false;
+        }
+        return true;
+    }
+
     public void mousePressed(MouseEvent e) {}
     public void mouseReleased(MouseEvent e) {}
     public void mouseEntered(MouseEvent e) {}
@@ -697,17 +1027,63 @@ public final class GuiBoard
     private int m_mode;
 
     private Image m_image;
+
+    /** Position, with stones and the marks that belong to it, and the
+        overlay shown over it. */
+    private FieldStore m_base;
+
+    /** Overlays from the bottom to the top; the first one is MARKS. */
+    private Vector<BoardOverlay> m_layers;
+
+    /** Overlay that marks are added to. */
+    private BoardOverlay m_overlay;
+
+    /** Arrows of the visible overlays. */
+    private Vector<Pair<HexPoint, HexPoint>> m_arrows
+        = new Vector<Pair<HexPoint, HexPoint>>();
+
+    /** Position and overlay combined as they are drawn, and a view of
+        each field for the board drawer. */
+    private FieldStore m_fields;
     private GuiField m_field[];
-    private Vector<Pair<HexPoint, HexPoint>> m_arrows;
 
     private boolean m_dirty_stones;
-    private GuiField m_backup_field[];
 
-    private GuiField m_last_played;
+    /** Index of the field marked as played last, or -1. */
+    private int m_last_played;
+
+    /** True if fields may have the SWAP_PLAYED mark. */
+    private boolean m_swap_played;
 
     private BoardDrawerBase m_drawer;
     private BoardPanel m_boardPanel;
 
+    /** Copies of the fields and arrows as they were last drawn into
+        m_image, and the settings they were drawn with. */
+    private FieldStore m_painted;
+    private Vector<Pair<HexPoint, HexPoint>> m_paintedArrows;
+    private BoardDrawerBase m_paintedDrawer;
+    private int m_paintedWidth, m_paintedHeight;
+    private int m_paintedRotation;
+    private boolean m_paintedMirrored;
+
+    /** Copy of the fields being drawn, taken from m_snapshotSource,
+        the store of m_fields at the time. */
+    private FieldStore m_snapshot;
+    private GuiField m_snapshotField[];
+    private FieldStore m_snapshotSource;
+
+    /** Fields of m_fields updated since the last paint: a flag for
+        each field, and the indices of the flagged ones. */
+    private boolean m_changed[];
+    private int m_changedIndex[];
+    private int m_numChanged;
+
+    /** Repaint requests not yet passed on to the board panel. */
+    private Rectangle m_repaintArea;
+    private boolean m_repaintAll;
+    private boolean m_repaintPending;
+
     private Listener m_listener;
     private GuiPreferences m_preferences;
 }
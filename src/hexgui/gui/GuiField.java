@@ -29,10 +29,10 @@ public class GuiField
     public static final int SELECTED = 32;
     public static final int DRAW_BACKGROUND = 64;
 
-    private static final Color COLOR_STONE_BLACK = Color.decode("#030303");
-    private static final Color COLOR_STONE_BLACK_BRIGHT = Color.decode("#666666");
-    private static final Color COLOR_STONE_WHITE = Color.decode("#d7d0c9");
-    private static final Color COLOR_STONE_WHITE_BRIGHT = Color.decode("#ffffff");
+    static final Color COLOR_STONE_BLACK = Color.decode("#030303");
+    static final Color COLOR_STONE_BLACK_BRIGHT = Color.decode("#666666");
+    static final Color COLOR_STONE_WHITE = Color.decode("#d7d0c9");
+    static final Color COLOR_STONE_WHITE_BRIGHT = Color.decode("#ffffff");
 
 
     public GuiField(HexPoint p)
@@ -43,12 +43,12 @@ public class GuiField
     public GuiField(HexPoint p, HexColor c, int attributes, 
                     String text, Color alpha, float blend)
     {
-	m_point = p;
-	m_color = c;
-        m_text = text;
-	m_alpha_color = alpha;
-	m_attributes = attributes;
-        m_alpha_blend = blend;
+        m_store = new FieldStore(new HexPoint[] { p }, 0, 0);
+        m_index = 0;
+	m_store.setColor(0, c);
+        m_store.setText(0, text);
+	m_store.setAlphaColor(0, alpha, blend);
+	m_store.setAttributes(0, attributes);
     }
 
     /** Creates a copy of the given field. */
@@ -56,6 +56,22 @@ public class GuiField
     {
 	this(f.getPoint(), f.getColor(), f.getAttributes(), 
 	     f.getText(), f.getAlphaColor(), f.getAlphaBlend());
+        m_store.setBackgroundColor(0, f.getBackgroundColor(),
+                                   f.getBackgroundBlend());
+    }
+
+    /** Creates a view of a field of a store.  Changes to the view
+        change the store. */
+    public GuiField(FieldStore store, int index)
+    {
+        m_store = store;
+        m_index = index;
+    }
+
+    /** True if the field would be drawn exactly like the given one. */
+    public boolean looksSame(GuiField f)
+    {
+        return m_store.looksSame(m_index, f.m_store, f.m_index);
     }
 
     public static int getStoneMargin(int width)
@@ -70,37 +86,37 @@ public class GuiField
 
     public void clearAttributes()
     {
-        m_attributes = 0;
+        m_store.setAttributes(m_index, 0);
     }
     
     public void clearAttributes(int f)
     {
-        m_attributes &= ~f;
+        m_store.setAttributes(m_index, getAttributes() & ~f);
     }
     
     public void setAttributes(int f)
     {
-        m_attributes |= f;
+        m_store.setAttributes(m_index, getAttributes() | f);
     }
 
     public int getAttributes()
     {
-        return m_attributes;
+        return m_store.getAttributes(m_index);
     }
  
     public void setColor(HexColor c)
     {
-        m_color = c;
+        m_store.setColor(m_index, c);
     }
     
     public HexColor getColor()
     {
-        return m_color;
+        return m_store.getColor(m_index);
     }
 
     public void setText(String str)
     {
-        m_text = str;
+        m_store.setText(m_index, str);
         if (str == null)
             clearAttributes(DRAW_TEXT);
         else
@@ -108,7 +124,7 @@ public class GuiField
     }
 
     public String getText() {
-        return m_text;
+        return m_store.getText(m_index);
     }
 
     public void setAlphaColor(Color c)
@@ -118,8 +134,7 @@ public class GuiField
 
     public void setAlphaColor(Color c, float blend)
     {
-	m_alpha_color = c;
-        m_alpha_blend = blend;
+	m_store.setAlphaColor(m_index, c, blend);
 	if (c == null) 
 	    clearAttributes(DRAW_ALPHA);
 	else 
@@ -133,8 +148,7 @@ public class GuiField
 
     public void setBackgroundColor(Color c, float blend)
     {
-	m_background_color = c;
-        m_background_blend = blend;
+	m_store.setBackgroundColor(m_index, c, blend);
 	if (c == null) 
 	    clearAttributes(DRAW_BACKGROUND);
 	else 
@@ -142,19 +156,19 @@ public class GuiField
     }
 
     public Color getAlphaColor() {
-        return m_alpha_color;
+        return m_store.getAlphaColor(m_index);
     }
 
     public float getAlphaBlend() {
-        return m_alpha_blend;
+        return m_store.getAlphaBlend(m_index);
     }
 
     public Color getBackgroundColor() {
-        return m_background_color;
+        return m_store.getBackgroundColor(m_index);
     }
 
     public float getBackgroundBlend() {
-        return m_background_blend;
+        return m_store.getBackgroundBlend(m_index);
     }
 
     public void setSelected(boolean f) 
@@ -167,10 +181,10 @@ public class GuiField
     }
 
     public void setPoint(HexPoint p) {
-        m_point = p;
+        m_store.setPoint(m_index, p);
     }
     public HexPoint getPoint() {
-        return m_point;
+        return m_store.getPoint(m_index);
     }
     
     public void clear()
@@ -178,140 +192,156 @@ public class GuiField
 	setColor(HexColor.EMPTY);
     }
 
-    private RadialGradientPaint getPaint(int width, 
-					 int height,
-                                         Color colorNormal,
-                                         Color colorBright)
+    public void draw(Graphics2D g, int x, int y, int w, int h, double stoneradius)
     {
-        RadialGradientPaint paint;
-        int paintSize;
-	int size = (width < height) ? width : height;
-        int radius = Math.max(size / 3, 1);
-        Point2D.Double centerPoint =
-            new Point2D.Double(width/2 - size/6, height/2 - size/6);
-        Point2D.Double radiusPoint =
-            new Point2D.Double(radius, radius);
-        paint = new RadialGradientPaint(centerPoint, colorBright,
-                                        radiusPoint, colorNormal);
-        return paint;
+        draw(g, x, y, w, h, stoneradius, null, null);
     }
 
-    public void draw(Graphics2D g, int x, int y, int w, int h, double stoneradius)
+    /** Draws the field centered at (x,y).
+        @param sprites cached stone images to use, or null to paint
+        the stones directly.
+        @param texts cached text layouts to use, or null to lay out
+        the text while drawing it. */
+    public void draw(Graphics2D g, int x, int y, int w, int h,
+                     double stoneradius, StoneSprites sprites,
+                     TextCache texts)
     {
-	m_width = w;
-	m_height = h;
-
-	m_radius = (h < w) ? h/2 : w/2;
-	m_margin = getStoneMargin_new(m_radius*2);
-        m_stoneradius = stoneradius;
-
-	m_graphics = (Graphics2D)g.create(x-w/2,y-h/2,w,h);
+	Graphics2D graphics = (Graphics2D)g.create(x-w/2,y-h/2,w,h);
+        double radius = (h < w) ? h/2 : w/2;
+        // size of marks and text
+	double size = radius - getStoneMargin_new(radius*2);
+        HexColor color = getColor();
+        int attributes = getAttributes();
 	
-	if (m_color == HexColor.WHITE) {
-	    drawStone(COLOR_STONE_WHITE, COLOR_STONE_WHITE_BRIGHT, stoneradius);
-        } else if (m_color == HexColor.BLACK) {
-	    drawStone(COLOR_STONE_BLACK, COLOR_STONE_BLACK_BRIGHT, stoneradius * 1.01);
+	if (color == HexColor.WHITE) {
+	    drawStone(graphics, w, h, COLOR_STONE_WHITE,
+                      COLOR_STONE_WHITE_BRIGHT, stoneradius, sprites);
+        } else if (color == HexColor.BLACK) {
+	    drawStone(graphics, w, h, COLOR_STONE_BLACK,
+                      COLOR_STONE_BLACK_BRIGHT, stoneradius * 1.01, sprites);
         }
         
-	if ((m_attributes & LAST_PLAYED) != 0) {
-	    drawLastPlayed();
+	if ((attributes & LAST_PLAYED) != 0) {
+	    drawLastPlayed(graphics, w, h, size);
         }
 
-        if ((m_attributes & SWAP_PLAYED) != 0) {
-            drawSwapPlayed();
+        if ((attributes & SWAP_PLAYED) != 0) {
+            drawSwapPlayed(graphics, w, h, size, texts);
         }
 
         // FIXME: this is done in BoardDrawer since we don't know
         // anything about our shape and size and we want to cover the
         // entire field.  Should all drawing be done in board drawer?
-        // if ((m_attributes & DRAW_ALPHA) != 0) drawAlpha();
 
-        if ((m_attributes & DRAW_TEXT) != 0)
-            drawText();
+        if ((attributes & DRAW_TEXT) != 0)
+            drawText(graphics, w, h, size, texts);
 	
+        graphics.dispose();
     }
     
-    private void drawStone(Color normal, Color bright, double size)
+    /** Color of the stone of a field drawn with less detail, or null
+        for an empty field. */
+    public static Color getFlatColor(HexColor color)
     {
-        RadialGradientPaint paint = getPaint(m_width, m_height, normal, bright);
-        m_graphics.setPaint(paint);
-
-	m_graphics.fill(new Ellipse2D.Double(m_width/2 - size, m_height/2 - size, size*2, size*2));
-
-	m_graphics.setPaintMode();
+        if (color == HexColor.WHITE)
+            return COLOR_STONE_WHITE;
+        if (color == HexColor.BLACK)
+            return COLOR_STONE_BLACK;
+        return null;
+    }
+
+    /** Draws the marks of the field centered at (x,y) with less
+        detail, for fields too small to show it.  The stone, if any, is
+        left to the caller, see getFlatColor(), and the text is only
+        drawn if withText is true.  Does not create a graphics context
+        unless there is text to draw.
+        @param texts cached text layouts to use, or null. */
+    public void drawFlat(Graphics2D g, int x, int y, int w, int h,
+                         boolean withText, TextCache texts)
+    {
+        int attributes = getAttributes();
+        if ((attributes & (LAST_PLAYED | SWAP_PLAYED | DRAW_TEXT)) == 0)
+            return;
+        double radius = (h < w) ? h/2 : w/2;
+	double size = radius - getStoneMargin_new(radius*2);
+	if ((attributes & LAST_PLAYED) != 0) {
+            g.setColor(Color.gray);
+            double r = size / 6;
+            g.fill(new Ellipse2D.Double(x - r, y - r, 2*r, 2*r));
+        }
+        if (!withText || (attributes & (SWAP_PLAYED | DRAW_TEXT)) == 0)
+            return;
+	Graphics2D graphics = (Graphics2D)g.create(x-w/2,y-h/2,w,h);
+        if ((attributes & SWAP_PLAYED) != 0)
+            drawSwapPlayed(graphics, w, h, size, texts);
+        if ((attributes & DRAW_TEXT) != 0)
+            drawText(graphics, w, h, size, texts);
+        graphics.dispose();
+    }
+
+    private static void drawStone(Graphics2D g, int w, int h, Color normal,
+                                  Color bright, double size,
+                                  StoneSprites sprites)
+    {
+        if (sprites == null)
+            StoneSprites.paint(g, normal, bright, w, h, size);
+        else
+            sprites.draw(g, normal, bright, w, h, size);
     }
 
-    private void drawLastPlayed()
+    private static void drawLastPlayed(Graphics2D g, int w, int h,
+                                       double size)
     {
-	m_graphics.setColor(Color.gray);
-        double size = (m_radius - m_margin) / 6;
-	m_graphics.fill(new Ellipse2D.Double(m_width/2 - size, m_height/2 - size, 2*size, 2*size));
+	g.setColor(Color.gray);
+        double r = size / 6;
+	g.fill(new Ellipse2D.Double(w/2 - r, h/2 - r, 2*r, 2*r));
     }
 
     /** Draw the given string centered at the coordinates (x,y) in the
-        current font, with the given relative size. */
-    private void drawString(String str, double x, double y, double size)
+        current font, with the given size. */
+    private static void drawString(Graphics2D g, String str, double x,
+                                   double y, double abssize,
+                                   TextCache texts)
     {
-        double abssize = (m_radius - m_margin) * size;
-        Font f = m_graphics.getFont();
+        if (texts != null) {
+            TextCache.Layout layout = texts.get(g, str, (float)abssize);
+            double width = layout.getWidth();
+            double height = layout.getAscent();
+            layout.draw(g, (int)(x - width/2), (int)(y + 0.8*height/2));
+            return;
+        }
+        Font f = g.getFont();
         Font f2 = f.deriveFont((float)abssize);
-        FontMetrics m = m_graphics.getFontMetrics(f2);
+        FontMetrics m = g.getFontMetrics(f2);
         double width = m.stringWidth(str);
         double height = m.getAscent();
         
-        m_graphics.setFont(f2);
-        m_graphics.drawString(str, (int)(x - width/2), (int)(y + 0.8*height/2));
-        m_graphics.setFont(f);
+        g.setFont(f2);
+        g.drawString(str, (int)(x - width/2), (int)(y + 0.8*height/2));
+        g.setFont(f);
     }
     
-    private void drawSwapPlayed()
+    private void drawSwapPlayed(Graphics2D g, int w, int h, double size,
+                                TextCache texts)
     {
-        if (m_color == HexColor.BLACK) {
-            m_graphics.setColor(Color.white);
+        if (getColor() == HexColor.BLACK) {
+            g.setColor(Color.white);
         } else {
-            m_graphics.setColor(Color.black);
+            g.setColor(Color.black);
         }
-        this.drawString("S", m_width/2.0, m_height/2.0, 1);
-    }
-
-    private void drawAlpha()
-    {
-	if (m_alpha_color == null)
-	    return;
-
-	m_graphics.setComposite(AlphaComposite.
-				  getInstance(AlphaComposite.SRC_OVER, 
-                                              0.3f));
-	m_graphics.setColor(m_alpha_color);
-	m_graphics.fillRect(m_width/2 - m_width/4, m_height/2 - m_height/4,
-			    m_width/2, m_height/2);
-
+        drawString(g, "S", w/2.0, h/2.0, size, texts);
     }
 
-    private void drawBackground()
+    private void drawText(Graphics2D g, int w, int h, double size,
+                          TextCache texts)
     {
-	if (m_background_color == null)
-	    return;
-
-	m_graphics.setComposite(AlphaComposite.
-				  getInstance(AlphaComposite.SRC_OVER, 
-                                              0.3f));
-	m_graphics.setColor(m_background_color);
-	m_graphics.fillRect(m_width/2 - m_width/4, m_height/2 - m_height/4,
-			    m_width/2, m_height/2);
-
-    }
-
-    private void drawText()
-    {
-        String[] lines = m_text.split("@");
+        String[] lines = getText().split("@");
         int nlines = lines.length;
         
-        double size = m_radius - m_margin;
         double relheight = nlines > 1 ? 2.0/nlines : 1.0;
         double height = size * relheight;
         
-        double y = m_height/2 + ((nlines-1)*height)/2;
+        double y = h/2 + ((nlines-1)*height)/2;
 
         for (int i=lines.length-1; i>=0; --i) {
             String str = lines[i].trim();
@@ -320,31 +350,16 @@ public class GuiField
             if (getColor() == HexColor.BLACK)
                 color = Color.white;
 
-            m_graphics.setColor(color);
-            this.drawString(str, m_width/2, y, relheight);
+            g.setColor(color);
+            drawString(g, str, w/2, y, size * relheight, texts);
 
             y -= height;
         }
     }
 
-    private HexPoint m_point;
-    private HexColor m_color;
-    private int m_attributes;
-
-    private Color m_alpha_color;
-    private float m_alpha_blend;
-    private Color m_background_color;
-    private float m_background_blend;
-
-    private String m_text;
-
-    private int m_width;
-    private int m_height;
-    private double m_radius;
-    private double m_margin;
-    private double m_stoneradius;
-    
-    private Graphics2D m_graphics;
+    /** Store holding the state of this field, and its index there. */
+    private final FieldStore m_store;
+    private final int m_index;
 }
 
 //----------------------------------------------------------------------------
@@ -42,6 +42,8 @@ public final class GuiMenuBar
     {
 	//m_connect_remote.setEnabled(!f);
 	m_connect_local.setEnabled(!f);
+	m_add_program.setEnabled(f);
+	m_engine_roles.setEnabled(f);
 	m_disconnect.setEnabled(f);
         m_reconnect.setEnabled(f);
         m_genmove.setEnabled(f);
@@ -62,6 +64,21 @@ public final class GuiMenuBar
 	}
     }
 
+    /** Lists the overlays of the board in the Overlays menu, from the
+        top down, each with a check box for showing it. */
+    public void setOverlays(Vector<String> names, Vector<Boolean> visible)
+    {
+        m_overlays.removeAll();
+        for (int i=names.size()-1; i>=0; i--) {
+            JCheckBoxMenuItem item = new JCheckBoxMenuItem(names.get(i));
+            item.setState(visible.get(i).booleanValue());
+            item.addActionListener(m_listener);
+            item.setActionCommand("gui-overlay-visible");
+            m_overlays.add(item);
+        }
+        m_overlays.setEnabled(names.size() > 1);
+    }
+
     public void updateMenuStates(HexGui current)
     {
         m_swap_pieces.setEnabled(current.isSwapAllowed());
@@ -159,12 +176,36 @@ public final class GuiMenuBar
 	m_connect_local = item;
  	menu.add(item);
 
-	// item = new JMenuItem("Connect Remote Program...");
-	// item.addActionListener(m_listener);
-	// item.setActionCommand("connect-program");
-        // item.setEnabled(false);
-	// m_connect_remote = item;
- 	// menu.add(item);
+	item = new JMenuItem("Add Program...");
+	item.setMnemonic(KeyEvent.VK_A);
+	item.addActionListener(m_listener);
+	item.setActionCommand("add-program");
+	m_add_program = item;
+ 	menu.add(item);
+
+	item = new JMenuItem("Engine Roles...");
+	item.setMnemonic(KeyEvent.VK_O);
+	item.addActionListener(m_listener);
+	item.setActionCommand("engine-roles");
+	m_engine_roles = item;
+ 	menu.add(item);
+
+	item = new JMenuItem("Connect Remote Program...");
+	item.addActionListener(m_listener);
+	item.setActionCommand("connect-program");
+	m_connect_remote = item;
+ 	menu.add(item);
+
+	item = new JMenuItem("Replay Session...");
+	item.addActionListener(m_listener);
+	item.setActionCommand("replay-session");
+ 	menu.add(item);
+
+	m_record_sessions = new JCheckBoxMenuItem("Record Sessions");
+	m_record_sessions.setState(m_preferences.getBoolean("session-record"));
+	m_record_sessions.addActionListener(m_listener);
+	m_record_sessions.setActionCommand("record-sessions");
+ 	menu.add(m_record_sessions);
 
  	menu.addSeparator();
 
@@ -463,6 +504,31 @@ public final class GuiMenuBar
         m_analyze_visible.setState(f);
     }
 
+    public boolean getMetricsVisible()
+    {
+        return m_metrics_visible.getState();
+    }
+
+    public void setMetricsVisible(boolean f)
+    {
+        m_metrics_visible.setState(f);
+    }
+
+    public boolean getRecordSessions()
+    {
+        return m_record_sessions.getState();
+    }
+
+    public boolean getEngineLogVisible()
+    {
+        return m_engine_log_visible.getState();
+    }
+
+    public void setEngineLogVisible(boolean f)
+    {
+        m_engine_log_visible.setState(f);
+    }
+
     public boolean getEvalGraphVisible()
     {
         return m_evalgraph_visible.getState();
@@ -500,6 +566,18 @@ public final class GuiMenuBar
 	m_analyze_visible.setEnabled(false);
 	menu.add(m_analyze_visible);
 
+	m_metrics_visible = new JCheckBoxMenuItem("Show Metrics");
+	m_metrics_visible.setMnemonic(KeyEvent.VK_M);
+	m_metrics_visible.addActionListener(m_listener);
+	m_metrics_visible.setActionCommand("gui_metrics_visible");
+	menu.add(m_metrics_visible);
+
+	m_engine_log_visible = new JCheckBoxMenuItem("Show Engine Log");
+	m_engine_log_visible.setMnemonic(KeyEvent.VK_E);
+	m_engine_log_visible.addActionListener(m_listener);
+	m_engine_log_visible.setActionCommand("gui_engine_log_visible");
+	menu.add(m_engine_log_visible);
+
 	menu.addSeparator();
 
         JMenuItem item = new JMenuItem("Clear Marks");
@@ -508,6 +586,10 @@ public final class GuiMenuBar
         item.setActionCommand("gui-clear-marks");
         menu.add(item);
 
+        m_overlays = new JMenu("Overlays");
+        m_overlays.setEnabled(false);
+        menu.add(m_overlays);
+
 	menu.addSeparator();
 
 	JMenu view;
@@ -674,10 +756,15 @@ public final class GuiMenuBar
     private JCheckBoxMenuItem m_toolbar_visible;
     private JCheckBoxMenuItem m_shell_visible;
     private JCheckBoxMenuItem m_analyze_visible;
+    private JCheckBoxMenuItem m_metrics_visible;
+    private JCheckBoxMenuItem m_engine_log_visible;
+    private JCheckBoxMenuItem m_record_sessions;
     private JCheckBoxMenuItem m_evalgraph_visible;
 
+    private JMenu m_overlays;
+
     private JMenuItem m_connect_local, m_connect_remote, 
-        m_disconnect, m_reconnect;
+        m_disconnect, m_reconnect, m_add_program, m_engine_roles;
 
     private JMenuItem m_pass, m_resign, m_forfeit, m_swap_pieces, m_swap_sides, m_addsetup, m_genmove;
 
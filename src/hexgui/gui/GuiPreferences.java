@@ -22,6 +22,8 @@ public final class GuiPreferences
 	    {"gui-board-pixel-height",            "500"},
 	    {"gui-board-width",                   "11"},
 	    {"gui-board-height",                  "11"},
+	    {"gui-board-detail-flat",             "16"},
+	    {"gui-board-detail-minimal",          "12"},
 
             {"draw-field-alpha",                  "0.3"}, // FIXME: not used yet!
 
@@ -36,6 +38,28 @@ public final class GuiPreferences
             {"first-move-color",                  "black"},
 
             {"remote-host-name",                  "localhost"},
+            {"remote-port",                       "20000"},
+            {"remote-connect-timeout",            "10000"},
+            {"remote-read-timeout",               "0"},
+            {"remote-reconnect",                  "true"},
+
+            {"analysis-cache-megabytes",          "16"},
+            {"analysis-cache-persistent",         "false"},
+            {"analysis-debounce",                 "250"},
+            {"analysis-prefetch",                 "3"},
+            {"analysis-node-kilobytes",           "4096"},
+            {"analysis-in-sgf",                   "true"},
+
+            {"watchdog-deadlines",
+             "name=10,version=10,boardsize=10,clear_board=10,play=10,undo=10"},
+            {"watchdog-grace",                    "5"},
+
+            {"engine-log-kilobytes",              "256"},
+
+            {"engine-pool-size",                  "0"},
+            {"engine-pool-programs",              ""},
+
+            {"session-record",                    "false"},
 
             {"is-program-attached",               "false"},
 	    {"attached-program",                  "dummy-program-name"},
@@ -4,26 +4,36 @@ import hexgui.hex.*;
 import hexgui.util.Pair;
 import hexgui.util.StringUtils;
 import hexgui.game.Node;
+import hexgui.game.AnalysisStore;
 import hexgui.game.GameInfo;
 import hexgui.game.Clock;
 import hexgui.sgf.SgfWriter;
 import hexgui.sgf.SgfReader;
 import hexgui.htp.HtpController;
 import hexgui.htp.HtpError;
-import hexgui.util.StreamCopy;
+import hexgui.htp.EngineManager;
+import hexgui.htp.EngineSession;
+import hexgui.htp.EngineWatchdog;
+import hexgui.htp.NioTransport;
+import hexgui.htp.RemoteConnection;
+import hexgui.util.ProcessLauncher;
+import hexgui.util.RingLog;
 import hexgui.version.Version;
 import hexgui.gui.ParameterDialog;
 import hexgui.htp.AnalyzeDefinition;
 import hexgui.htp.AnalyzeCommand;
 import hexgui.htp.AnalyzeType;
+import hexgui.htp.AnalysisCache;
+import hexgui.htp.ProbeCache;
+import hexgui.htp.EnginePool;
+import hexgui.htp.ReplayEngine;
+import hexgui.htp.SessionRecorder;
 import hexgui.util.ErrorMessage;
 import hexgui.gui.ShowAnalyzeText;
 
 import java.io.*;
 import static java.text.MessageFormat.format;
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.Semaphore;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
@@ -36,7 +46,7 @@ import java.net.*;
 public final class HexGui
     extends JFrame
     implements ActionListener, GuiBoard.Listener, 
-               HtpShell.Callback, HtpController.GuiFxCallback, 
+               HtpController.GuiFxCallback, EngineSession.Listener,
                AnalyzeDialog.Listener, Comment.Listener
 {
     public HexGui(final File file, final String command)
@@ -76,6 +86,18 @@ public final class HexGui
 
         m_showAnalyzeText = new ShowAnalyzeText(this, m_guiboard);
 
+        m_ponderTimer = new javax.swing.Timer
+            (m_preferences.getInt("analysis-debounce"), new ActionListener()
+                {
+                    public void actionPerformed(ActionEvent e)
+                    {
+                        ponder();
+                    }
+                });
+        m_ponderTimer.setRepeats(false);
+        m_analysisStore = new AnalysisStore
+            (1024L * m_preferences.getInt("analysis-node-kilobytes"));
+
         JPanel panel = new JPanel(new BorderLayout());
         getContentPane().add(panel, BorderLayout.EAST);
 
@@ -92,9 +114,13 @@ public final class HexGui
 
         m_locked = false;
 
-        m_semaphore = new Semaphore(1);
-        m_htp_queue = new ArrayBlockingQueue<HtpCommand>(256);
-        new Thread(new CommandHandler(this, m_htp_queue)).start();
+        m_engines = new EngineManager();
+        m_analysisCache = new AnalysisCache
+            (1024L * 1024L * m_preferences.getInt("analysis-cache-megabytes"));
+        m_watchdog = createWatchdog();
+        m_probeCache = new ProbeCache
+            (new File(System.getProperty("user.home"),
+                      ".hexgui" + File.separator + "probe-cache"));
 
         setVisible(true);
         // After frame is visible, further code using Swing functions must
@@ -127,8 +153,16 @@ public final class HexGui
             cmdDeleteProgram();
         } else if (cmd.equals("connect-program")) {
 	    cmdConnectRemoteProgram();
+        } else if (cmd.equals("replay-session")) {
+            cmdReplaySession();
+        } else if (cmd.equals("record-sessions")) {
+            m_preferences.put("session-record", m_menubar.getRecordSessions());
         } else if (cmd.equals("connect-local-program")) {
 	    cmdConnectLocalProgram();
+        } else if (cmd.equals("add-program")) {
+            cmdAddProgram();
+        } else if (cmd.equals("engine-roles")) {
+            cmdEngineRoles();
         } else if (cmd.equals("disconnect-program")) {
 	    cmdDisconnectProgram();
         } else if (cmd.equals("reconnect-program")) {
@@ -169,6 +203,10 @@ public final class HexGui
 	    cmdGuiShellVisible();
         } else if (cmd.equals("gui_analyze_visible")) {
             cmdGuiAnalyzeVisible();
+        } else if (cmd.equals("gui_metrics_visible")) {
+            cmdGuiMetricsVisible();
+        } else if (cmd.equals("gui_engine_log_visible")) {
+            cmdGuiEngineLogVisible();
         } else if (cmd.equals("gui_board_draw_type")) {
 	    cmdGuiBoardDrawType();
         } else if (cmd.equals("gui_board_orientation")) {
@@ -185,6 +223,8 @@ public final class HexGui
             cmdShowPreferences();
         } else if (cmd.equals("gui-clear-marks")) {
             cmdClearMarks();
+        } else if (cmd.equals("gui-overlay-visible")) {
+            cmdGuiOverlayVisible(e);
 	//
         // game navigation commands
 	//
@@ -244,7 +284,7 @@ public final class HexGui
         } else if (cmd.equals("game_stop_clock")) {
             stopClock();
         } else if (cmd.equals("stop")) {
-            m_white.interrupt();
+            m_engines.interruptAll();
         } else if (cmd.equals("toggle_tomove")) {
             end_setup();
             cmdToggleToMove();
@@ -263,8 +303,7 @@ public final class HexGui
         {
             Runnable cb = new Runnable() 
                 { public void run() { cbShowInferiorCells(); } };
-            Runnable callback = new GuiRunnable(cb);            
-            sendCommand("vc-build " + m_tomove.toString() + "\n", callback);
+            sendAnalyzeCommand("vc-build " + m_tomove.toString() + "\n", cb);
         }
         else if (cmd.equals("solve_state"))
         {
@@ -278,7 +317,8 @@ public final class HexGui
         else if (cmd.equals("program_options"))
         {
             AnalyzeCommand command;
-            if (m_white_name.equalsIgnoreCase("Mohex") || m_white_name.equalsIgnoreCase("HexHex"))
+            String name = analyzer().getName();
+            if (name.equalsIgnoreCase("Mohex") || name.equalsIgnoreCase("HexHex"))
             {
                 command = new AnalyzeCommand
                     (new AnalyzeDefinition("param/blah/param_mohex"));
@@ -288,7 +328,7 @@ public final class HexGui
                 m_curAnalyzeCommand = command;
                 sendCommand(command.getCommand() + "\n", callback);
             }
-            else if (m_white_name.equalsIgnoreCase("Wolve"))
+            else if (name.equalsIgnoreCase("Wolve"))
             {
                 command = new AnalyzeCommand
                     (new AnalyzeDefinition("param/blah/param_wolve"));
@@ -325,13 +365,18 @@ public final class HexGui
 	if (gameChanged() && !askSaveGame())
 	    return;
 
+        if (m_enginePool != null)
+            m_enginePool.shutdown();
+
 	System.out.println("Shutting down...");
 
-	if (m_white_process != null)
+        for (EngineSession session : m_engines.getSessions())
         {
-	    System.out.println("Stopping [" + m_white_name + " " +
-			       m_white_version + "] process...");
-	    m_white_process.destroy();
+            saveAnalysisCache(session);
+            if (session.getProcess() == null)
+                continue;
+	    System.out.println("Stopping [" + session + "] process...");
+	    session.destroy();
 	}
 	System.exit(0);
     }
@@ -397,145 +442,288 @@ public final class HexGui
 
     private void cmdConnectLocalProgram()
     {
-        ChooseProgramDialog dialog
-            =  new ChooseProgramDialog(this, "Choose program to connect",
-                                       m_programs);
-        dialog.setVisible(true);
-        Program program = dialog.getProgram();
-        dialog.dispose();
-
+        Program program = chooseProgram("Choose program to connect");
 	if (program == null) // user aborted
 	    return;
 
         cmdConnectLocalProgram(program);
     }
 
+    /** Connects another engine alongside the ones already attached.
+        The new engine does nothing until it is given a role. */
+    private void cmdAddProgram()
+    {
+        Program program = chooseProgram("Choose program to add");
+	if (program == null) // user aborted
+	    return;
+
+        EngineSession session = startLocalProgram(program);
+        if (session != null)
+            cmdEngineRoles();
+    }
+
+    private Program chooseProgram(String title)
+    {
+        ChooseProgramDialog dialog
+            =  new ChooseProgramDialog(this, title, m_programs);
+        dialog.setVisible(true);
+        Program program = dialog.getProgram();
+        dialog.dispose();
+        return program;
+    }
 
-    /** @note NOT CURRENTLY USED! */
+    private void cmdEngineRoles()
+    {
+        Vector<EngineSession> sessions = m_engines.getSessions();
+        if (sessions.isEmpty())
+            return;
+        EngineSession analyzer = m_engines.get(EngineManager.Role.ANALYZER);
+        if (!EngineRolesDialog.show(this, m_engines))
+            return;
+        if (m_engines.get(EngineManager.Role.ANALYZER) != analyzer)
+            analyzerChanged();
+        m_statusbar.setMessage("Black: "
+                               + m_engines.get(EngineManager.Role.BLACK)
+                               + ", White: "
+                               + m_engines.get(EngineManager.Role.WHITE)
+                               + ", Analyzer: "
+                               + m_engines.get(EngineManager.Role.ANALYZER));
+    }
+
+    /** Connects to an engine listening on a TCP port.  The connection
+        is served by the shared NioTransport and reconnects on its own
+        if it drops; the engine's board is set up again afterwards. */
     private void cmdConnectRemoteProgram()
     {
-	int port = 20000;
-	String hostname = "localhost";
-
-        String remote = m_preferences.get("remote-host-name");
+        String remote = m_preferences.get("remote-host-name") + ":"
+            + m_preferences.get("remote-port");
         String name = RemoteProgramDialog.show(this, remote);
         if (name == null) // user aborted
             return;
 
-        hostname = name;
-	System.out.print("Connecting to HTP program at [" + hostname +
+        String hostname = name.trim();
+        int port = m_preferences.getInt("remote-port");
+        int colon = hostname.lastIndexOf(':');
+        if (colon >= 0)
+        {
+            try {
+                port = Integer.parseInt(hostname.substring(colon + 1));
+            }
+            catch (NumberFormatException e)
+            {
+                ShowError.msg(this, "Invalid port: '"
+                              + hostname.substring(colon + 1) + "'");
+                return;
+            }
+            hostname = hostname.substring(0, colon);
+        }
+
+	System.out.println("Connecting to HTP program at [" + hostname +
 			 "] on port " + port + "...");
-	System.out.flush();
 
+        RemoteConnection connection;
 	try
         {
-	    m_white_socket = new Socket(hostname, port);
+            connection = NioTransport.getDefault().connect
+                (hostname, port,
+                 m_preferences.getInt("remote-connect-timeout"),
+                 m_preferences.getInt("remote-read-timeout"),
+                 m_preferences.getBoolean("remote-reconnect"));
 	}
 	catch (UnknownHostException e)
         {
 	    ShowError.msg(this, "Unknown host: '" + e.getMessage() + "'");
-            System.out.println("\nconnection attempt aborted.");
 	    return;
 	}
 	catch (IOException e)
         {
-	    ShowError.msg(this, "Error creating socket: '" 
-                          + e.getMessage() + "'");
-            System.out.println("\nconnection attempt aborted.");
+	    ShowError.msg(this, "Error connecting to " + hostname + ":"
+                          + port + ": '" + e.getMessage() + "'");
 	    return;
 	}
-	System.out.println("connected.");
 
-	InputStream in;
-	OutputStream out;
-	try
-        {
-	    in = m_white_socket.getInputStream();
-	    out = m_white_socket.getOutputStream();
-	}
-	catch (IOException e)
+        m_preferences.put("remote-host-name", hostname);
+        m_preferences.put("remote-port", port);
+	final EngineSession session
+            = connectProgram(connection.toString(),
+                             connection.getInputStream(),
+                             connection.getOutputStream(), null, null);
+        session.setConnection(connection);
+        connection.setListener(new RemoteConnection.Listener()
+            {
+                public void connectionLost(RemoteConnection c,
+                                           final String reason)
+                {
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                m_statusbar.setMessage("Lost connection to "
+                                                       + session + ": "
+                                                       + reason);
+                            }
+                        });
+                }
+
+                public void reconnected(RemoteConnection c)
+                {
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                m_statusbar.setMessage("Reconnected to "
+                                                       + session);
+                                syncProgram(session);
+                            }
+                        });
+                }
+            });
+    }
+
+    /** Connects an engine that plays back a session log. */
+    private void cmdReplaySession()
+    {
+        File file = FileDialogs.showOpen(this, "Replay Session");
+        if (file == null)
+            return;
+        int speed = JOptionPane.showConfirmDialog
+            (this, "Replay at the recorded speed?\n"
+             + "Otherwise responses are sent as fast as possible.",
+             "Replay Session", JOptionPane.YES_NO_CANCEL_OPTION);
+        if (speed == JOptionPane.CANCEL_OPTION
+            || speed == JOptionPane.CLOSED_OPTION)
+            return;
+        ReplayEngine engine;
+        try {
+            engine = new ReplayEngine(file,
+                                      speed == JOptionPane.YES_OPTION);
+        }
+        catch (IOException e)
         {
-	    ShowError.msg(this, "Error obtaining socket stream: " 
+            ShowError.msg(this, "Could not read " + file + ": "
                           + e.getMessage());
-	    m_white = null;
-	    return;
-	}
-        m_preferences.put("remote-host-name", hostname);
-	connectProgram(in, out);
+            return;
+        }
+        engine.start();
+        connectProgram("Replay " + file.getName(), engine.getInputStream(),
+                       engine.getOutputStream(), null, null);
+    }
+
+    /** Creates a recorder for a new engine if session-record is set.
+        Logs go to ~/.hexgui/sessions.
+        @return the recorder, or null. */
+    private SessionRecorder startRecording(String label)
+    {
+        if (!m_preferences.getBoolean("session-record"))
+            return null;
+        File dir = new File(System.getProperty("user.home"),
+                            ".hexgui" + File.separator + "sessions");
+        String name = label.replaceAll("[^A-Za-z0-9._-]", "_") + "-"
+            + new java.text.SimpleDateFormat("yyyyMMdd-HHmmss")
+            .format(new Date()) + ".htplog";
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Cannot create " + dir);
+            SessionRecorder recorder
+                = new SessionRecorder(new File(dir, name));
+            System.out.println("Recording session to "
+                               + recorder.getFile());
+            return recorder;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not record session: "
+                               + e.getMessage());
+            return null;
+        }
     }
 
     //------------------------------------------------------------
 
     private void cmdConnectLocalProgram(Program program)
     {
-	Runtime runtime = Runtime.getRuntime();
+        if (startLocalProgram(program) == null)
+            return;
+
+        m_program = program;
+        m_preferences.put("is-program-attached", true);
+	m_preferences.put("attached-program", program.m_name);
+    }
 
-	String cmd = program.m_command;
+    /** Starts the program's process, with its standard error going
+        to the given log.
+        @return the process, or null if it could not be started. */
+    private Process startProcess(Program program, RingLog log)
+    {
 	System.out.println("Executing '" + program.m_name + "':");
-        System.out.println("Command = '" + cmd + "'");
+        System.out.println("Command = '" + program.m_command + "'");
         System.out.println("Working directory = '" + program.m_working + "'");
 
-        File working = null;
-        if (!program.m_working.trim().equals(""))
-        {
-            ShowError.msg(this,
-                          "Working directory not implemented! " +
-                          "Running with no working directory.");
-
-//             working = new File(program.m_working);
-//             if (!working.isDirectory())
-//             {
-//                 ShowError.msg(this, "Invalid working directory: '"
-//                               + working.getName() + "'");
-//             }
-        }
-
+        Process proc;
 	try
         {
-            // Create command array with StringUtil::splitArguments
-            // because Runtime.exec(String) uses a default StringTokenizer
-            // which does not respect ".
-            String[] cmdArray = StringUtils.splitArguments(cmd);
-            // Make file name absolute, if working directory is not current
-            // directory. With Java 1.5, it seems that Runtime.exec succeeds
-            // if the relative path is valid from the current, but not from
-            // the given working directory, but the process is not usable
-            // (reading from its input stream immediately returns
-            // end-of-stream)
-            if (cmdArray.length > 0)
-            {
-                File file = new File(cmdArray[0]);
-                // Only replace if executable is a path to a file, not
-                // an executable in the exec-path
-                if (file.exists())
-                    cmdArray[0] = file.getAbsolutePath();
-            }
-
-            m_white_process = runtime.exec(cmdArray);
-            //m_white_process = runtime.exec(cmdArray, null, workingDirectory);
-            //m_white_process = runtime.exec(cmd);
+            proc = ProcessLauncher.start(program.m_command, program.m_working,
+                                         program.m_environment, log);
 	}
-	catch (Throwable e)
+	catch (IOException e)
         {
 	    ShowError.msg(this, "Error starting " + program.m_name + ": '"
                           + e.getMessage() + "'");
-	    return;
+	    return null;
 	}
+        return proc;
+    }
 
-        m_program = program;
-        m_preferences.put("is-program-attached", true);
-	m_preferences.put("attached-program", program.m_name);
-
- 	Process proc = m_white_process;
+    private int getEngineLogCapacity()
+    {
+        return 1024 * m_preferences.getInt("engine-log-kilobytes");
+    }
 
-	///////////////////////////////
-	/// FIXME: DEBUGING!!! REMOVE!
-	Thread blah = new Thread(new StreamCopy(false, proc.getErrorStream(),
-						System.out, false));
-	blah.start();
-	///////////////////////////////
+    /** Returns an instance of the program that the engine pool started
+        ahead of time, or null if the pool is off or has none ready. */
+    private EnginePool.Instance takeFromPool(Program program)
+    {
+        if (m_enginePool == null)
+            return null;
+        EnginePool.Instance instance
+            = m_enginePool.take(program.m_command, program.m_working,
+                                program.m_environment);
+        if (instance != null)
+            System.out.println("Using pre-started '" + program.m_name
+                               + "'");
+        return instance;
+    }
 
-	connectProgram(proc.getInputStream(), proc.getOutputStream());
+    /** Starts the program's process and connects it as a new engine.
+        @return the new session, or null if the process could not be
+        started. */
+    private EngineSession startLocalProgram(Program program)
+    {
+        EnginePool.Instance instance = takeFromPool(program);
+        Process proc;
+        RingLog log;
+        ProbeCache.Entry probed = null;
+        if (instance != null)
+        {
+            proc = instance.getProcess();
+            log = instance.getErrorLog();
+            probed = instance.getProbe();
+        }
+        else
+        {
+            log = new RingLog(getEngineLogCapacity());
+            proc = startProcess(program, log);
+            if (proc == null)
+                return null;
+        }
+        String probeKey = ProbeCache.key
+            (ProcessLauncher.findExecutable(program.m_command,
+                                            program.m_working),
+             program.m_command);
+	EngineSession session = connectProgram(program.m_name,
+                                               proc.getInputStream(),
+                                               proc.getOutputStream(),
+                                               probeKey, probed);
+        session.setProcess(proc);
+        session.setErrorLog(log);
+        m_sessionPrograms.put(session, program);
+        return session;
     }
 
     private void createAnalyzeDialog()
@@ -562,50 +750,263 @@ public final class HexGui
         }
     }
 
-    private void connectProgram(InputStream in, OutputStream out)
+    /** Creates a session for the engine on the given streams, asks it
+        for its name, version and analyze commands, and brings its
+        board in sync with the current position.  The first engine
+        connected becomes the primary engine.
+        @param probeKey key of the engine in the probe cache, or null
+        if it cannot be cached.  If the cache knows the engine, its
+        answers are used at once and the engine is asked again in the
+        background.
+        @param probed the engine's answers if it was already probed,
+        as engines from the pool are; null otherwise. */
+    private EngineSession connectProgram(String label, InputStream in,
+                                         OutputStream out, String probeKey,
+                                         ProbeCache.Entry probed)
     {
-	m_shell = new HtpShell(this, this);
-	m_shell.addWindowListener(new WindowAdapter()
+        SessionRecorder recorder = startRecording(label);
+        if (recorder != null)
+        {
+            in = recorder.recordResponses(in);
+            out = recorder.recordCommands(out);
+        }
+	final HtpShell shell = new HtpShell(this, null);
+	shell.addWindowListener(new WindowAdapter()
 	    {
 		public void windowClosing(WindowEvent winEvt)
                 {
-		    m_menubar.setShellVisible(false);
+                    if (shell == m_shell)
+                        m_menubar.setShellVisible(false);
 		}
 	    });
-	m_white = new HtpController(in, out, m_shell, this);
+	final EngineSession session
+            = new EngineSession(label, in, out, shell, this, this);
+        session.setRecorder(recorder);
+        shell.setCallback(new HtpShell.Callback()
+            {
+                public void commandEntered(String cmd)
+                {
+                    session.sendCommand(cmd, null);
+                }
+            });
 
-        // get name and version information; block until
-        // version is returned.  
+        // get name, version and list of accepted commands before the
+        // session's command thread is started.
+        ProbeCache.Entry cached = null;
+        if (probeKey != null && probed == null)
+            cached = m_probeCache.get(probeKey);
+        if (cached != null)
+            applyProbe(session, cached);
+        else
+        {
+            ProbeCache.Entry probe
+                = (probed != null) ? probed : probeProgram(session);
+            applyProbe(session, probe);
+            if (probeKey != null)
+                saveProbe(probeKey, probe);
+        }
+        loadAnalysisCache(session);
 
-        acquireSemaphore();
-	htpName();
-	htpVersion();  // releases semaphore when finished. 
-        acquireSemaphore();
-        releaseSemaphore();
+	shell.setTitle("HexGui: [" + session + "] Shell");
 
-	m_shell.setTitle("HexGui: [" + m_white_name + " "
-                            + m_white_version + "] Shell");
+        boolean primary = m_engines.isEmpty();
+        m_engines.add(session);
+        m_shells.put(session, shell);
+        session.start();
+        if (m_watchdog != null)
+            m_watchdog.watch(session);
+        if (cached != null)
+            reprobeProgram(session, probeKey, cached);
 
-        // get list of accepted commands; block until
-        // this is completed.
-        acquireSemaphore();
-        htpAnalyzeCommands();   // releases semaphore when finished
-        acquireSemaphore();
-        releaseSemaphore();
+        if (primary)
+        {
+            analyzerChanged();
 
-        createAnalyzeDialog();
+            m_toolbar.setProgramConnected(true);
+            m_menubar.setProgramConnected(true);
 
-	m_toolbar.setProgramConnected(true);
-	m_menubar.setProgramConnected(true);
+            m_shell.setVisible(m_preferences.getBoolean("shell-show-on-connect"));
+            m_analyzeDialog.setVisible(m_preferences.getBoolean("analyze-show-on-connect"));
+        }
 
-	m_shell.setVisible(m_preferences.getBoolean("shell-show-on-connect"));
-	m_analyzeDialog.setVisible(m_preferences.getBoolean("analyze-show-on-connect"));
+        syncProgram(session);
+        return session;
+    }
+
+    /** Runs the name, version and hexgui-analyze_commands commands
+        synchronously on a session whose thread is not running yet. */
+    private ProbeCache.Entry probeProgram(EngineSession session)
+    {
+        try
+        {
+            return ProbeCache.probe(session.getController());
+        }
+        catch (HtpError e)
+        {
+            ShowError.msg(this, e.getMessage());
+        }
+        return new ProbeCache.Entry(null, null, "");
+    }
 
-	htpBoardsize(m_guiboard.getBoardSize());
+    /** Queues the probe commands on a running session whose name,
+        version and analyze commands were taken from the probe cache.
+        If the engine answers differently, the session and the cache
+        are updated. */
+    private void reprobeProgram(final EngineSession session,
+                                final String probeKey,
+                                final ProbeCache.Entry cached)
+    {
+        final String result[] = new String[PROBE_COMMANDS.length];
+        for (int i = 0; i < PROBE_COMMANDS.length; ++i)
+        {
+            final int index = i;
+            session.sendCommand(PROBE_COMMANDS[i], new Runnable() {
+                    public void run() {
+                        HtpController htp = session.getController();
+                        result[index]
+                            = htp.wasSuccess() ? htp.getResponse() : null;
+                        if (index + 1 < PROBE_COMMANDS.length)
+                            return;
+                        final ProbeCache.Entry probe = new ProbeCache.Entry
+                            (trim(result[0]), trim(result[1]),
+                             (result[2] == null) ? "" : result[2]);
+                        SwingUtilities.invokeLater(new Runnable() {
+                                public void run() {
+                                    reprobeFinished(session, probeKey,
+                                                    cached, probe);
+                                } });
+                    } });
+        }
+    }
 
-        // Replay all moves up to the current node. 
-        replayUpToNode(m_current);
-        htpShowboard();
+    private void reprobeFinished(EngineSession session, String probeKey,
+                                 ProbeCache.Entry cached,
+                                 ProbeCache.Entry probe)
+    {
+        if (probe.equals(cached))
+            return;
+        System.out.println("[" + session + "] changed since it was last "
+                           + "probed, updating.");
+        saveProbe(probeKey, probe);
+        if (!m_engines.getSessions().contains(session))
+            return;
+        applyProbe(session, probe);
+        m_shells.get(session).setTitle("HexGui: [" + session + "] Shell");
+        if (session == analyzer())
+            analyzerChanged();
+        else
+            setFrameTitle();
+    }
+
+    private static String trim(String s)
+    {
+        return (s == null) ? null : s.trim();
+    }
+
+    /** Sets the name, version and analyze commands of a session from
+        the responses to the probe commands. */
+    private void applyProbe(EngineSession session, ProbeCache.Entry probe)
+    {
+        if (probe.getName() != null)
+            session.setName(probe.getName());
+        if (probe.getVersion() != null)
+            session.setVersion(probe.getVersion());
+        try
+        {
+            session.setAnalyzeCommands
+                (AnalyzeDefinition.read(probe.getAnalyzeCommands()));
+        }
+        catch (ErrorMessage e)
+        {
+            ShowError.msg(this, "Could not parse analyze commands!");
+        }
+    }
+
+    private void saveProbe(String probeKey, ProbeCache.Entry probe)
+    {
+        try {
+            m_probeCache.put(probeKey, probe);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not save probe cache: "
+                               + e.getMessage());
+        }
+    }
+
+    /** Directory for the saved analysis caches. */
+    private File getAnalysisCacheDir()
+    {
+        return new File(System.getProperty("user.home"),
+                        ".hexgui" + File.separator + "analysis-cache");
+    }
+
+    private void loadAnalysisCache(EngineSession session)
+    {
+        if (!m_preferences.getBoolean("analysis-cache-persistent"))
+            return;
+        try {
+            m_analysisCache.load(getAnalysisCacheDir(), session.toString());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not load analysis cache: "
+                               + e.getMessage());
+        }
+    }
+
+    private void saveAnalysisCache(EngineSession session)
+    {
+        if (!m_preferences.getBoolean("analysis-cache-persistent"))
+            return;
+        try {
+            m_analysisCache.save(getAnalysisCacheDir(), session.toString());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not save analysis cache: "
+                               + e.getMessage());
+        }
+    }
+
+    /** Brings the engine's board in sync with the current position,
+        without changing the GUI. */
+    private void syncProgram(EngineSession session)
+    {
+        htpBoardsize(session, m_guiboard.getBoardSize());
+        Dimension size = m_guiboard.getBoardSize();
+        for (int y = 0; y < size.height; y++) {
+            for (int x = 0; x < size.width; x++) {
+                HexPoint point = HexPoint.get(x, y);
+                HexColor c = m_guiboard.getColor(point);
+                if (c == HexColor.BLACK || c == HexColor.WHITE) {
+                    session.sendCommand("play " + c + " " + point + "\n",
+                                        null);
+                }
+            }
+        }
+        session.sendCommand("showboard\n", null);
+    }
+
+    /** Points the shell, the analyze dialog and the window title at
+        the engine that currently has the analyzer role. */
+    private void analyzerChanged()
+    {
+        EngineSession session = analyzer();
+        boolean shellVisible = (m_shell != null && m_shell.isVisible());
+        if (m_shell != null)
+            m_shell.setVisible(false);
+        m_shell = m_shells.get(session);
+        m_shell.setVisible(shellVisible);
+
+        boolean analyzeVisible = (m_analyzeDialog != null
+                                  && m_analyzeDialog.isVisible());
+        actionDisposeAnalyzeDialog();
+        m_analyzeCommands = session.getAnalyzeCommands();
+        createAnalyzeDialog();
+        m_analyzeDialog.setVisible(analyzeVisible);
+        m_menubar.setAnalyzeVisible(analyzeVisible);
+        setFrameTitle();
     }
 
     // Replay all moves up to the given node. Do this without changing
@@ -654,30 +1055,28 @@ public final class HexGui
     
     private void cmdDisconnectProgram()
     {
-	if (m_white == null)
+	if (m_engines.isEmpty())
 	    return;
 
-	htpQuit();
 	try
         {
-	    if (m_white_process != null)
+            for (EngineSession session : m_engines.getSessions())
             {
-		m_white_process.waitFor();
-		m_white_process = null;
-	    }
-	    if (m_white_socket != null)
-            {
-		m_white_socket.close();
-		m_white_socket = null;
-	    }
-	    m_white = null;
-	    m_shell.dispose();
+                saveAnalysisCache(session);
+                if (m_watchdog != null)
+                    m_watchdog.unwatch(session);
+                session.close();
+                m_engines.remove(session);
+                m_sessionPrograms.remove(session);
+                m_shells.remove(session).dispose();
+            }
 	    m_shell = null;
             actionDisposeAnalyzeDialog();
             m_program = null;
 	    m_menubar.setProgramConnected(false);
 	    m_toolbar.setProgramConnected(false);
             m_preferences.put("is-program-attached", false);
+            setFrameTitle();
 	}
 	catch (Throwable e)
         {
@@ -735,6 +1134,7 @@ public final class HexGui
 
 	    m_root = new Node();
 	    m_current = m_root;
+            m_analysisStore.reset(m_root);
 	    m_gameinfo = new GameInfo();
 	    m_gameinfo.setBoardSize(dim);
             stopClock(HexColor.BLACK);
@@ -749,6 +1149,7 @@ public final class HexGui
 
 	    m_guiboard.initSize(dim.width, dim.height);
 	    m_guiboard.repaint();
+            positionChanged();
 
 	    m_preferences.put("gui-board-width", dim.width);
 	    m_preferences.put("gui-board-height", dim.height);
@@ -854,6 +1255,35 @@ public final class HexGui
 	m_analyzeDialog.setVisible(visible);
     }
 
+    private void cmdGuiMetricsVisible()
+    {
+        if (m_metricsDialog == null)
+        {
+            m_metricsDialog = new MetricsDialog(this, m_engines,
+                                                m_messageDialogs);
+            m_metricsDialog.addWindowListener(new WindowAdapter() {
+                    public void windowClosing(WindowEvent e) {
+                        m_menubar.setMetricsVisible(false);
+                    }
+                });
+        }
+        m_metricsDialog.setVisible(m_menubar.getMetricsVisible());
+    }
+
+    private void cmdGuiEngineLogVisible()
+    {
+        if (m_engineLogDialog == null)
+        {
+            m_engineLogDialog = new EngineLogDialog(this, m_engines);
+            m_engineLogDialog.addWindowListener(new WindowAdapter() {
+                    public void windowClosing(WindowEvent e) {
+                        m_menubar.setEngineLogVisible(false);
+                    }
+                });
+        }
+        m_engineLogDialog.setVisible(m_menubar.getEngineLogVisible());
+    }
+
     private void cmdGuiBoardDrawType()
     {
 	String type = m_menubar.getCurrentBoardDrawType();
@@ -889,6 +1319,32 @@ public final class HexGui
 	m_guiboard.repaint();
     }
 
+    /** Clears the board overlay with the given name and makes it the
+        one that marks are added to, see GuiBoard.beginOverlay(). */
+    private void beginOverlay(String name)
+    {
+        boolean isNew = !m_guiboard.getOverlayNames().contains(name);
+        m_guiboard.beginOverlay(name);
+        if (isNew)
+            updateOverlayMenu();
+    }
+
+    private void updateOverlayMenu()
+    {
+        Vector<String> names = m_guiboard.getOverlayNames();
+        Vector<Boolean> visible = new Vector<Boolean>();
+        for (int i=0; i<names.size(); i++)
+            visible.add(Boolean.valueOf(m_guiboard.isOverlayVisible
+                                        (names.get(i))));
+        m_menubar.setOverlays(names, visible);
+    }
+
+    private void cmdGuiOverlayVisible(ActionEvent e)
+    {
+        JCheckBoxMenuItem item = (JCheckBoxMenuItem)e.getSource();
+        m_guiboard.setOverlayVisible(item.getText(), item.getState());
+    }
+
     private void cmdClearMarks()
     {
         m_guiboard.clearMarks();
@@ -964,7 +1420,7 @@ public final class HexGui
 
     public void actionClearAnalyzeCommand()
     {
-        
+        stopPonder();
     }
 
     public void actionSetAnalyzeCommand(AnalyzeCommand command)
@@ -1006,7 +1462,42 @@ public final class HexGui
         String args[] = cleaned.split(" ");
 	String c = args[0];
         m_curAnalyzeCommand = command;
+        if (autoRun && type != AnalyzeType.PARAM && type != AnalyzeType.MOVE)
+        {
+            stopPonder();
+            m_ponderCommand = command;
+            ponder();
+            return;
+        }
 
+        Runnable cb = analyzeCallback(type);
+        // if (c.equals("dfpn-get-bounds"))
+        //     cb = new Runnable() { public void run() { cbDfpnDisplayBounds();} };
+        // else if (c.equals("book-scores"))
+        //     cb = new Runnable() { public void run() { cbDisplayBookScores(); } };
+        // else if (c.equals("eval-resist"))
+        //     cb = new Runnable() { public void run() { cbEvalResist(); } };
+        if (type == AnalyzeType.PARAM)
+        {
+            // Results may depend on the parameters about to be changed.
+            if (analyzer() != null)
+                m_analysisCache.clear(analyzer().toString());
+        }
+        else if (type != AnalyzeType.MOVE && cb != null)
+        {
+            sendAnalyzeCommand(cmd + "\n", cb);
+            return;
+        }
+        Runnable callback = null;
+        if (cb != null)
+            callback = new GuiRunnable(cb);
+        sendCommand(cmd + "\n", callback);
+    }
+
+    /** Callback showing the result of an analyze command of the
+        given type, or null if the type has none. */
+    private Runnable analyzeCallback(AnalyzeType type)
+    {
         Runnable cb = null;
         switch(type)
         {
@@ -1040,26 +1531,306 @@ public final class HexGui
         case VAR:
             cb = new Runnable() { public void run() { cbVar(); } };
             break;
-        }            
-        // if (c.equals("dfpn-get-bounds"))
-        //     cb = new Runnable() { public void run() { cbDfpnDisplayBounds();} };
-        // else if (c.equals("book-scores"))
-        //     cb = new Runnable() { public void run() { cbDisplayBookScores(); } };
-        // else if (c.equals("eval-resist"))
-        //     cb = new Runnable() { public void run() { cbEvalResist(); } };
-        Runnable callback = null;
-        if (cb != null)
-            callback = new GuiRunnable(cb);
-        sendCommand(cmd + "\n", callback);
+        }
+        return cb;
     }
 
-    /** HtpShell Callback.
-        By the name of the command it choose the proper callback function.
-        Arguments are passed as given.
-    */
-    public void commandEntered(String cmd)
+    /** Sends an analysis command whose result depends only on the
+        position, unless the response is already in the analysis
+        cache.  On a cache hit the callback is run at once with the
+        cached response; otherwise it runs when the engine's response
+        arrives, which is then added to the cache. */
+    private void sendAnalyzeCommand(String cmd, Runnable cb)
+    {
+        sendAnalyzeCommand(cmd, cb, NO_PONDER);
+    }
+
+    /** Sends an analysis command as above.
+        @param generation the position generation the command is
+        meant for, or NO_PONDER.  If the position changes before the
+        response arrives, the response is neither cached nor shown.
+        @return the callback the command was queued with, or null if
+        it was answered from the cache. */
+    private Runnable sendAnalyzeCommand(final String cmd, final Runnable cb,
+                                        final int generation)
+    {
+        final EngineSession session = analyzer();
+        if (session == null)
+            return null;
+        final String key = AnalysisCache.key(session.toString(), cmd,
+                                             positionHash(), m_tomove);
+        String cached = m_analysisCache.get(key);
+        if (cached != null)
+        {
+            System.out.println("analysis cache hit: '" + cmd.trim() + "'");
+            runWithResponse(cb, cached);
+            return null;
+        }
+        final Node node = m_current;
+        String stored = m_analysisStore.get(node, session.toString(), cmd);
+        if (stored != null)
+        {
+            System.out.println("analysis from game tree: '" + cmd.trim()
+                               + "'");
+            m_analysisCache.put(key, stored);
+            runWithResponse(cb, stored);
+            return null;
+        }
+        Runnable callback = new Runnable()
+            {
+                public void run()
+                {
+                    if (m_ponderRunning == generation)
+                        m_ponderRunning = NO_PONDER;
+                    if (isStale(generation))
+                    {
+                        System.out.println("dropped result of '" + cmd.trim()
+                                           + "' for an old position");
+                        return;
+                    }
+                    HtpController htp = session.getController();
+                    if (!htp.wasSuccess())
+                    {
+                        SwingUtilities.invokeLater(cb);
+                        return;
+                    }
+                    final String response = htp.getResponse();
+                    m_analysisCache.put(key, response);
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                m_analysisStore.put(node, session.toString(),
+                                                    cmd, response);
+                                if (!isStale(generation))
+                                    runWithResponse(cb, response);
+                            }
+                        });
+                }
+            };
+        session.sendCommand(cmd, callback);
+        return callback;
+    }
+
+    private boolean isStale(int generation)
+    {
+        return generation != NO_PONDER && generation != m_ponderGeneration;
+    }
+
+    /** Called whenever the board or the color to move may have
+        changed.  If the position did change while an autorun command
+        is selected, the command for the old position is taken out of
+        the analyzer's queue or interrupted, and the command is run
+        again once navigation has paused for the debounce time. */
+    private void positionChanged()
+    {
+        long position = 3 * positionHash()
+            + (m_tomove == HexColor.BLACK ? 1 : 2);
+        if (position == m_ponderPosition)
+            return;
+        m_ponderPosition = position;
+        ++m_ponderGeneration;
+        if (m_ponderCommand == null)
+            return;
+        cancelPonder();
+        EngineSession session = analyzer();
+        String cmd = ponderCommand(m_tomove);
+        if (session != null
+            && (m_analysisCache.contains
+                (AnalysisCache.key(session.toString(), cmd, positionHash(),
+                                   m_tomove))
+                || m_current.getAnalysis(session.toString(), cmd) != null))
+        {
+            // Already analysed, for example by prefetch(); showing it
+            // costs no engine time.
+            m_ponderTimer.stop();
+            ponder();
+        }
+        else
+            m_ponderTimer.restart();
+    }
+
+    private String ponderCommand(HexColor toMove)
+    {
+        return m_ponderCommand.replaceWildCards(toMove) + "\n";
+    }
+
+    /** Runs the autorun command on the current position, then starts
+        prefetching. */
+    private void ponder()
+    {
+        EngineSession session = analyzer();
+        if (m_ponderCommand == null || session == null)
+            return;
+        String cmd = ponderCommand(m_tomove);
+        final Runnable show = analyzeCallback(m_ponderCommand.getType());
+        Runnable cb = new Runnable()
+            {
+                public void run()
+                {
+                    show.run();
+                    if (htpSuccess())
+                        prefetch();
+                }
+            };
+        m_ponderSession = session;
+        m_ponderSent = cmd;
+        m_ponderRunning = m_ponderGeneration;
+        m_ponderQueued = sendAnalyzeCommand(cmd, cb, m_ponderGeneration);
+    }
+
+    /** Has the analyzer run the autorun command, while it is idle, on
+        the positions the user is likely to go to next: the next nodes
+        along the recent line, as many as the analysis-prefetch
+        preference says, and the siblings of the current node.  The
+        results only go into the analysis cache.  The analyzer drops
+        the jobs as soon as another command is sent to it. */
+    private void prefetch()
+    {
+        int depth = m_preferences.getInt("analysis-prefetch");
+        EngineSession session = analyzer();
+        if (depth <= 0 || m_ponderCommand == null || session == null)
+            return;
+        Vector<EngineSession.Step> steps = new Vector<EngineSession.Step>();
+        HashMap<HexPoint, HexColor> changes = new HashMap<HexPoint, HexColor>();
+        Node node = m_current;
+        for (int i = 0; i < depth; ++i)
+        {
+            node = node.getRecentChild();
+            if (!canPrefetch(node))
+                break;
+            Move move = node.getMove();
+            steps.add(new EngineSession.Step(playCommand(move), "undo\n"));
+            changes.put(move.getPoint(), move.getColor());
+            prefetch(session, steps, changes, node);
+        }
+        Node parent = m_current.getParent();
+        if (parent == null || !canPrefetch(m_current))
+            return;
+        Move current = m_current.getMove();
+        for (int i = 0; i < parent.numChildren(); ++i)
+        {
+            Node sibling = parent.getChild(i);
+            if (sibling == m_current || !canPrefetch(sibling))
+                continue;
+            Move move = sibling.getMove();
+            steps.clear();
+            steps.add(new EngineSession.Step("undo\n", playCommand(current)));
+            steps.add(new EngineSession.Step(playCommand(move), "undo\n"));
+            changes.clear();
+            changes.put(current.getPoint(), HexColor.EMPTY);
+            changes.put(move.getPoint(), move.getColor());
+            prefetch(session, steps, changes, sibling);
+        }
+    }
+
+    /** Queues the autorun command for the node, whose position is
+        reached by the steps, unless its result is known already. */
+    private void prefetch(final EngineSession session,
+                          Vector<EngineSession.Step> steps,
+                          HashMap<HexPoint, HexColor> changes,
+                          final Node node)
+    {
+        HexColor toMove = node.getPlayerToMove();
+        final String cmd = ponderCommand(toMove);
+        final String key = AnalysisCache.key(session.toString(), cmd,
+                                             positionHash(changes), toMove);
+        if (m_analysisCache.contains(key)
+            || node.getAnalysis(session.toString(), cmd) != null)
+            return;
+        session.sendBackground(new Vector<EngineSession.Step>(steps), cmd,
+                               new Runnable()
+            {
+                public void run()
+                {
+                    HtpController htp = session.getController();
+                    if (!htp.wasSuccess())
+                        return;
+                    final String response = htp.getResponse();
+                    m_analysisCache.put(key, response);
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                m_analysisStore.put(node, session.toString(),
+                                                    cmd, response);
+                            }
+                        });
+                }
+            });
+    }
+
+    /** True if the node is an ordinary move, which the engine can
+        play and take back. */
+    private static boolean canPrefetch(Node node)
+    {
+        return node != null && node.hasMove() && !node.hasSetup()
+            && node.getMove().getPoint().is_cell();
+    }
+
+    private static String playCommand(Move move)
     {
-        sendCommand(cmd, null);
+        return "play " + move.getColor().toString() + " "
+            + move.getPoint().toString() + "\n";
+    }
+
+    /** Cancels or interrupts the autorun command if it has not
+        finished yet. */
+    private void cancelPonder()
+    {
+        if (m_ponderQueued == null)
+            return;
+        if (m_ponderSession.cancel(m_ponderQueued))
+            m_ponderRunning = NO_PONDER;
+        else if (m_ponderSent.equals(m_ponderSession.getCurrentCommand()))
+            m_ponderSession.interrupt();
+        m_ponderQueued = null;
+    }
+
+    private void stopPonder()
+    {
+        m_ponderTimer.stop();
+        ++m_ponderGeneration;
+        cancelPonder();
+        m_ponderCommand = null;
+    }
+
+    /** Runs a callback that reads its response through htpSuccess()
+        and htpResponse(), handing it the given response.  Must be
+        called on the event dispatch thread. */
+    private void runWithResponse(Runnable cb, String response)
+    {
+        m_response = response;
+        try {
+            cb.run();
+        }
+        finally
+        {
+            m_response = null;
+        }
+    }
+
+    /** Hash of the stones on the board (64-bit FNV-1a). */
+    private long positionHash()
+    {
+        return positionHash(null);
+    }
+
+    /** Hash of the stones on the board after the given cells were
+        changed, or of the board itself if changes is null. */
+    private long positionHash(HashMap<HexPoint, HexColor> changes)
+    {
+        Dimension size = m_guiboard.getBoardSize();
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ size.width) * 0x100000001b3L;
+        hash = (hash ^ size.height) * 0x100000001b3L;
+        for (int y = 0; y < size.height; y++) {
+            for (int x = 0; x < size.width; x++) {
+                HexPoint p = HexPoint.get(x, y);
+                HexColor c = (changes != null && changes.containsKey(p))
+                    ? changes.get(p) : m_guiboard.getColor(p);
+                int v = (c == HexColor.BLACK) ? 1
+                    : (c == HexColor.WHITE) ? 2 : 0;
+                hash = (hash ^ v) * 0x100000001b3L;
+            }
+        }
+        return hash;
     }
 
     //----------------------------------------------------------------------
@@ -1076,138 +1847,180 @@ public final class HexGui
         return false;
     }
 
-    private void lockGUI()
+    /** Locks the GUI for the command a session is running.  Several
+        engines may be busy at the same time, so the GUI stays locked
+        until the last of them is done. */
+    private synchronized void lockGUI(EngineSession session)
     {
+        m_lockingSessions.add(session);
+        if (m_lockCount++ > 0)
+            return;
         m_locked = true;
         m_toolbar.lockToolbar();
     }
 
-    private void unlockGUI()
+    /** Unlocks the GUI if the session's command locked it. */
+    private synchronized void unlockGUI(EngineSession session)
     {
+        if (!m_lockingSessions.remove(session))
+            return;
+        if (--m_lockCount > 0)
+            return;
         m_toolbar.unlockToolbar(m_current, this);
         m_locked = false;
     }
 
-    /** A (command, callback) pair. */
-    private class HtpCommand
+    /** EngineSession.Listener.  The autorun command does not lock the
+        GUI, since navigating cancels it anyway; it is recognized by
+        the identity of the string ponder() sent.  Prefetch jobs run in
+        the background and are not reported to the listener. */
+    public void commandStarted(EngineSession session, String cmd)
     {
-        public HtpCommand()
-        {
-        }
-
-        public HtpCommand(String cmd, Runnable callback)
-        {
-            this.str = cmd;
-            this.callback = callback;
-        }
-
-        public String str;
-        public Runnable callback;
+        if (commandNeedsToLockGUI(cmd) && cmd != m_ponderSent)
+            lockGUI(session);
     }
 
-    /** Waits for commands to be added to the queue, then processes
-        each in turn. */
-    private class CommandHandler
-        implements Runnable
+    public void commandFinished(EngineSession session, String cmd)
     {
+        unlockGUI(session);
+    }
 
-        public CommandHandler(Component parent, 
-                              ArrayBlockingQueue<HtpCommand> queue)
-        {
-            m_parent = parent;
-            m_queue = queue;
-        }
+    public void commandFailed(EngineSession session, String cmd, HtpError e)
+    {
+        // the watchdog reports engines it killed itself
+        if (session.wasKilled())
+            System.out.println("[" + session + "] " + e.getMessage());
+        else
+            ShowError.msg(this, e.getMessage());
+    }
 
-        public void run()
-        {
-            while (true) 
+    /** Creates the watchdog from the preferences, or returns null if
+        the deadlines cannot be parsed. */
+    private EngineWatchdog createWatchdog()
+    {
+        EngineWatchdog.Listener listener = new EngineWatchdog.Listener()
             {
-                HtpCommand cmd = null;
-                try 
-                {
-                    // block until queue contains an element
-                    cmd = m_queue.take();
-                }
-                catch(InterruptedException e)
+                public void commandInterrupted(EngineWatchdog.Watched engine,
+                                               final String cmd,
+                                               final long elapsed)
                 {
-                    System.out.println("INTERRUPTED! HUH?");
+                    final EngineSession session = (EngineSession)engine;
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                m_statusbar.setMessage
+                                    (session + ": '" + cmd.trim()
+                                     + "' still running after "
+                                     + elapsed / 1000 + " s, interrupted.");
+                            } });
                 }
 
-                if (m_white != null && m_white.connected()) 
+                public void engineKilled(EngineWatchdog.Watched engine,
+                                         final String cmd, final long elapsed)
                 {
-                    if (commandNeedsToLockGUI(cmd.str))
-                        lockGUI();
-                    
-                    try  {
-                        m_white.sendCommand(cmd.str);
-                        if (cmd.callback != null) {
-                            cmd.callback.run();
-                        }
-                    }
-                    catch (HtpError e) {
-                        System.out.println("Caught error '" 
-                                           + e.getMessage() + "'");
-                        ShowError.msg(m_parent, e.getMessage());
-                    }
-                    
-                    if (commandNeedsToLockGUI(cmd.str))
-                        unlockGUI();
+                    final EngineSession session = (EngineSession)engine;
+                    SwingUtilities.invokeLater(new Runnable() {
+                            public void run() {
+                                restartProgram(session, cmd, elapsed);
+                            } });
                 }
-                else
-                {
-                    System.out.println("Not sending to disconnected: '" 
-                                       + cmd.str.trim() + "'");
-                }
-            }
+            };
+        try {
+            return new EngineWatchdog
+                (m_preferences.get("watchdog-deadlines"),
+                 1000L * m_preferences.getInt("watchdog-grace"), listener);
+        }
+        catch (NumberFormatException e)
+        {
+            System.out.println("Invalid watchdog-deadlines: "
+                               + e.getMessage());
+            return null;
         }
-
-        Component m_parent;
-        ArrayBlockingQueue<HtpCommand> m_queue;
     }
 
-    private void sendCommand(String cmd, Runnable callback)
+    /** Starts a new process for an engine the watchdog killed and
+        brings it back in sync with the current position.  Remote
+        engines cannot be restarted and are only reported. */
+    private void restartProgram(EngineSession session, String cmd,
+                                long elapsed)
     {
-	if (m_white == null)
-	    return;
-
-        try {
-            System.out.println("sendCommand: '" + cmd.trim() + "'");
-            m_htp_queue.put(new HtpCommand(cmd, callback));
+        if (!m_engines.getSessions().contains(session))
+            return;
+        String msg = session + " hung in '" + cmd.trim() + "' for "
+            + elapsed / 1000 + " s and was killed";
+        Program program = m_sessionPrograms.get(session);
+        EnginePool.Instance instance
+            = (program == null) ? null : takeFromPool(program);
+        Process proc = null;
+        if (instance != null)
+        {
+            proc = instance.getProcess();
+            session.setErrorLog(instance.getErrorLog());
         }
-        catch (InterruptedException e)
+        else if (program != null)
+            proc = startProcess(program, session.getErrorLog());
+        if (proc == null)
         {
-            System.out.println("Interrupted while adding!");
+            msg += ".";
         }
+        else
+        {
+            session.replaceConnection(proc.getInputStream(),
+                                      proc.getOutputStream());
+            session.setProcess(proc);
+            m_watchdog.watch(session);
+            syncProgram(session);
+            msg += "; restarted.";
+        }
+        System.out.println(msg);
+        m_statusbar.setMessage(msg);
+        HtpShell shell = m_shells.get(session);
+        if (shell != null)
+            shell.appendText("# watchdog: " + msg + "\n");
+    }
+
+    /** Returns the session of the engine that runs analyze commands
+        and commands typed by the user, or null if no engine is
+        connected. */
+    private EngineSession analyzer()
+    {
+        return m_engines.get(EngineManager.Role.ANALYZER);
     }
 
-    // FIXME: add callback?
-    private void htpQuit()
+    /** Returns the controller of the analyzer engine.  Used by the
+        callbacks of analyze commands to read the response. */
+    private HtpController htp()
     {
-	sendCommand("quit\n", null);
+        return analyzer().getController();
     }
 
-    private void htpName()
+    /** True if the last analyzer command succeeded, or if a callback
+        is being run with a cached response. */
+    private boolean htpSuccess()
     {
-	Runnable cb = new Runnable() { public void run() { cbName(); } };
-	sendCommand("name\n", cb);
+        return m_response != null || htp().wasSuccess();
     }
 
-    private void htpVersion()
+    /** The response callbacks should show: the cached one while
+        runWithResponse() runs, else the analyzer's last response. */
+    private String htpResponse()
     {
-	Runnable cb = new Runnable() { public void run() { cbVersion(); } };
-	sendCommand("version\n", cb);
+        if (m_response != null)
+            return m_response;
+        return htp().getResponse();
     }
 
-    private void htpAnalyzeCommands()
+    /** Sends a command to the analyzer engine. */
+    private void sendCommand(String cmd, Runnable callback)
     {
-	Runnable cb = new Runnable() 
-            { public void run() { cbAnalyzeCommands(); } };
-	sendCommand("hexgui-analyze_commands\n", cb);
+        EngineSession session = analyzer();
+	if (session == null)
+	    return;
+        session.sendCommand(cmd, callback);
     }
 
     private void htpClearBoard()
     {
-        sendCommand("clear_board\n", null);
+        m_engines.sendToAll("clear_board\n");
     }
     
     private void htpShowboard()
@@ -1215,7 +2028,7 @@ public final class HexGui
         sendCommand("showboard\n", null);
     }
 
-    /** Play a move on the attached HTP backend. This only works if
+    /** Play a move on the attached HTP backends. This only works if
      * move is a legal move of color black or white. There is no HTP
      * command for setup moves that remove a piece, or that change the
      * color of an already existing piece, and swap, pass, resign, and
@@ -1235,8 +2048,8 @@ public final class HexGui
             htpSetUpCurrentBoard();
             return;
         }
-	sendCommand("play " + move.getColor().toString() +
-		    " " + move.getPoint().toString() + "\n", null);
+	m_engines.sendToAll("play " + move.getColor().toString() +
+                            " " + move.getPoint().toString() + "\n");
     }
 
     /** GUI must already be updated prior to calling this. */
@@ -1248,83 +2061,77 @@ public final class HexGui
             || move.getPoint() == HexPoint.PASS) {
             return;
         }
-	sendCommand("undo\n", null);
+	m_engines.sendToAll("undo\n");
     }
 
+    /** Asks the engine playing the given color for a move. */
     private void htpGenMove(HexColor color)
     {
-        if (! checkBoardSizeSupported())
+        final EngineSession session
+            = m_engines.get(EngineManager.playerRole(color));
+        if (session == null || ! checkBoardSizeSupported(session))
             return;
-        m_statusbar.setMessage(format("{0} is thinking...", m_white_name));
+        m_statusbar.setMessage(format("{0} is thinking...",
+                                      session.getName()));
 	Runnable callback = new GuiRunnable(new Runnable()
 	    {
-		public void run() { cbGenMove(); }
+		public void run() { cbGenMove(session); }
 	    });
- 	sendCommand("genmove " + color.toString() + "\n", callback);
+ 	session.sendCommand("genmove " + color.toString() + "\n", callback);
+    }
+
+    /** Asks the engine for the color to move for a move, if that
+        color was explicitly given to an engine.  Lets two engines
+        play each other. */
+    private void autoGenMove()
+    {
+        if (m_guiboard.isBoardFull())
+            return;
+        EngineManager.Role role = EngineManager.playerRole(m_tomove);
+        if (m_engines.isAssigned(role))
+            htpGenMove(m_tomove);
     }
 
     private void htpBoardsize(Dimension size)
+    {
+        for (EngineSession session : m_engines.getSessions())
+            htpBoardsize(session, size);
+        m_statusbar.setMessage("New game");
+    }
+
+    private void htpBoardsize(final EngineSession session, Dimension size)
     {
 	Runnable callback = new Runnable()
 	    {
 		public void run() {
-                    m_unsupportedBoardSize = ! m_white.wasSuccess();
-                    checkBoardSizeSupported();
+                    session.setBoardSizeSupported
+                        (session.getController().wasSuccess());
+                    checkBoardSizeSupported(session);
                 }
 	    };
-        sendCommand("boardsize " + size.width + " " + size.height + "\n",
-                    callback);
-        sendCommand("clear_board\n", null);
-        m_statusbar.setMessage("New game");
+        session.setBoardSize(size);
+        session.sendCommand("boardsize " + size.width + " " + size.height
+                            + "\n", callback);
+        session.sendCommand("clear_board\n", null);
     }
     
     //
     // Callbacks
     //
-    public void cbName()
-    {
-	String str = m_white.getResponse();
-	// FIXME: handle errors!
-	m_white_name = str.trim();
-    }
-
-    public void cbVersion()
-    {
-	String str = m_white.getResponse();
-	// FIXME: handle errors!
-	m_white_version = str.trim();
-        releaseSemaphore();
-    }
-
-    private void cbAnalyzeCommands()
+    public void cbGenMove()
     {
-        String programAnalyzeCommands = m_white.getResponse();
-
-        // Because hexgui-analyze_commands is not required by GTP, engines
-        // are not expected to implement it. So we must be able to handle
-        // a failure response.
-        if (!m_white.wasSuccess()) {
-            programAnalyzeCommands = "";
-        }
-        
-        try
-        {
-            m_analyzeCommands 
-                = AnalyzeDefinition.read(programAnalyzeCommands);
-        }
-        catch (ErrorMessage e)
-        {
-            ShowError.msg(this, "Could not parse analyze commands!");
-        }
-        releaseSemaphore();
+        cbGenMove(analyzer());
     }
 
-    public void cbGenMove()
+    /** Plays the move generated by the given engine, and passes it on
+        to the other engines. */
+    private void cbGenMove(EngineSession session)
     {
-        if (!m_white.wasSuccess())
+        HtpController htp = session.getController();
+        if (!htp.wasSuccess())
             return;
         m_guiboard.clearMarks();
-	String str = m_white.getResponse();
+	String str = htp.getResponse();
 	HexPoint point = HexPoint.get(str.trim());
 	if (point == null)
         {
@@ -1332,17 +2139,25 @@ public final class HexGui
 	}
         else
         {
-	    play(new Move(point, m_tomove));
+            Move move = new Move(point, m_tomove);
+	    play(move);
+            if (point.is_cell())
+                m_engines.sendToOthers(session, "play " + move.getColor()
+                                       + " " + point + "\n");
+            else if (point == HexPoint.SWAP_PIECES)
+                htpSetUpCurrentBoard();
+            if (point != HexPoint.RESIGN && point != HexPoint.FORFEIT)
+                autoGenMove();
 	}
     }
 
     public void cbDisplayPointList()
     {
-	if (!m_white.wasSuccess())
+	if (!htpSuccess())
 	    return;
-	String str = m_white.getResponse();
+	String str = htpResponse();
 	Vector<HexPoint> points = StringUtils.parsePointList(str);
-        m_guiboard.clearMarks();
+        beginOverlay("Points");
         for (int i=0; i<points.size(); i++)
         {
 	    m_guiboard.setAlphaColor(points.get(i), Color.green);
@@ -1352,20 +2167,21 @@ public final class HexGui
 
     private void cbDfpnDisplayBounds()
     {
-	if (!m_white.wasSuccess()) 
+	if (!htpSuccess()) 
 	    return;
-	String str = m_white.getResponse();
+	String str = htpResponse();
+        beginOverlay("Dfpn Bounds");
         showDfpnBounds(str);
 	m_guiboard.repaint();
     }
 
     public void cbGroupGet()
     {
-        if (!m_white.wasSuccess())
+        if (!htpSuccess())
 	    return;
-	String str = m_white.getResponse();
+	String str = htpResponse();
 	Vector<HexPoint> points = StringUtils.parsePointList(str);
-        m_guiboard.clearMarks();
+        beginOverlay("Group");
         if (points.size() > 0)
         {
             m_guiboard.setAlphaColor(points.get(0), Color.blue);
@@ -1379,12 +2195,12 @@ public final class HexGui
 
     public void cbGfx()
     {
-	if (!m_white.wasSuccess())
+	if (!htpSuccess())
 	    return;
-        m_guiboard.clearMarks();
+        beginOverlay("Gfx");
         m_guiboard.aboutToDirtyStones();
         
-        String fx = m_white.getResponse();
+        String fx = htpResponse();
         int inf = fx.indexOf("INFLUENCE");
         if (inf < 0)
             return;
@@ -1412,28 +2228,28 @@ public final class HexGui
 
     public void cbShowInferiorCells()
     {
-	if (!m_white.wasSuccess()) 
+	if (!htpSuccess()) 
 	    return;
-        m_guiboard.clearMarks();
+        beginOverlay("Inferior Cells");
         m_guiboard.aboutToDirtyStones();
-        showInferiorCells(m_white.getResponse());
+        showInferiorCells(htpResponse());
 	m_guiboard.repaint();
     }
 
     public void cbVCs()
     {
-	if (!m_white.wasSuccess()) 
+	if (!htpSuccess()) 
             return;
-        String str = m_white.getResponse();
+        String str = htpResponse();
         Vector<VC> vcs = StringUtils.parseVCList(str);
         new VCDisplayDialog(this, m_guiboard, vcs);
     }
 
     public void cbString()
     {
-	if (!m_white.wasSuccess()) 
+	if (!htpSuccess()) 
             return;
-        String showText = m_white.getResponse();
+        String showText = htpResponse();
         String title = m_curAnalyzeCommand.getResultTitle();
         if (showText != null)
         {
@@ -1454,11 +2270,11 @@ public final class HexGui
 
     public void cbVar()
     {
-        if (!m_white.wasSuccess())
+        if (!htpSuccess())
             return;
-        String str = m_white.getResponse();
+        String str = htpResponse();
         Vector<HexPoint> points = StringUtils.parsePointList(str, " ");
-        m_guiboard.clearMarks();
+        beginOverlay("Variation");
         m_guiboard.aboutToDirtyStones();
         HexColor color = m_tomove;
         for (int i = 0; i < points.size(); i++)
@@ -1472,12 +2288,12 @@ public final class HexGui
 
     public void cbDisplayPointText()
     {
-	if (!m_white.wasSuccess()) 
+	if (!htpSuccess()) 
             return;
-	String str = m_white.getResponse();
+	String str = htpResponse();
         Vector<Pair<String, String> > pairs =
             StringUtils.parseStringPairList(str);
-        m_guiboard.clearMarks();
+        beginOverlay("Text");
         for (int i=0; i<pairs.size(); i++)
         {
 	    HexPoint point = HexPoint.get(pairs.get(i).first);
@@ -1489,12 +2305,12 @@ public final class HexGui
 
     public void cbDisplayBookScores()
     {
-	if (!m_white.wasSuccess()) 
+	if (!htpSuccess()) 
             return;
-	String str = m_white.getResponse();
+	String str = htpResponse();
         Vector<Pair<String, String> > pairs =
             StringUtils.parseStringPairList(str);
-        m_guiboard.clearMarks();
+        beginOverlay("Book Scores");
         for (int i=0; i<pairs.size(); i++)
         {
 	    HexPoint point = HexPoint.get(pairs.get(i).first);
@@ -1510,15 +2326,15 @@ public final class HexGui
 
     public void cbEvalResist()
     {
-	if (!m_white.wasSuccess()) 
+	if (!htpSuccess()) 
             return;
-	String str = m_white.getResponse();
+	String str = htpResponse();
         Vector<Pair<String, String> > pairs =
             StringUtils.parseStringPairList(str);
         String res = "";
         String rew = "";
         String reb = "";
-        m_guiboard.clearMarks();
+        beginOverlay("Resistance");
         for (int i=0; i<pairs.size(); i++)
         {
             if (pairs.get(i).first.equals("res"))
@@ -1548,17 +2364,17 @@ public final class HexGui
 
     public void cbEditParameters()
     {
-        if (!m_white.wasSuccess()) 
+        if (!htpSuccess()) 
             return;
-	String response = m_white.getResponse();
+	String response = htpResponse();
         ParameterDialog.editParameters(m_curAnalyzeCommand.getCommand(), this,
-                                       "Edit Parameters", response, m_white,
+                                       "Edit Parameters", response, htp(),
                                        m_messageDialogs);
     }
 
     public void cbSolveState()
     {
-        if (!m_white.wasSuccess()) {
+        if (!htpSuccess()) {
             // If the backend didn't know dfpn-solve-state, try
             // gogui-gfx-analyze instead.
             Runnable callback = new GuiRunnable(new Runnable()
@@ -1568,26 +2384,41 @@ public final class HexGui
             sendCommand("gogui-gfx-analyze " + m_tomove + "\n", callback);
             return;
         }
-        String response = m_white.getResponse();
+        String response = htpResponse();
         m_statusbar.setMessage(format("Winning: {0}", response));
     }
 
     public void cbKataAnalyze()
     {
-        if (!m_white.wasSuccess()) {
+        if (!htpSuccess()) {
             return;
         }
-        String response = m_white.getResponse();
+        String response = htpResponse();
         m_statusbar.setMessage(response);
     }
 
     //==================================================
     // gfx commands
     //==================================================
-    public void guifx(String fx)
+    /** Called from the HTP command thread.  The output is shown in the
+        event dispatch thread, which is the only one that changes the
+        overlays of the board and the menus. */
+    public void guifx(final String fx)
     {
         System.out.println("gogui-gfx:\n'" + fx + "'");
-        
+        final int generation = m_ponderRunning;
+        if (generation != NO_PONDER && isStale(generation))
+            return;
+        SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    if (generation == NO_PONDER || !isStale(generation))
+                        showGuifx(fx);
+                }
+            });
+    }
+
+    private void showGuifx(String fx)
+    {
         if (fx.length() > 3 && fx.substring(0, 3).equals("uct"))
             guifx_uct(fx.substring(3));
         else if (fx.length() > 2 && fx.substring(0, 2).equals("ab"))
@@ -1605,7 +2436,7 @@ public final class HexGui
         String[] tk = fx.trim().split(" ");
         int i=0;
 
-        m_guiboard.clearMarks();
+        beginOverlay("Search");
         m_guiboard.aboutToDirtyStones();
 
         /** @todo Fix this to parse like guifx_ab() and
@@ -1690,7 +2521,7 @@ public final class HexGui
 
     private void guifx_ab(String fx)
     {
-        m_guiboard.clearMarks();
+        beginOverlay("Search");
         m_guiboard.aboutToDirtyStones();
 
         int var = fx.indexOf("VAR");
@@ -1723,7 +2554,7 @@ public final class HexGui
 
     private void guifx_solver(String fx)
     {
-        m_guiboard.clearMarks();
+        beginOverlay("Solver");
         m_guiboard.aboutToDirtyStones();
         m_statusbar.setProgressVisible(true);
 
@@ -1762,7 +2593,7 @@ public final class HexGui
 
     private void guifx_dfpn(String fx)
     {
-        m_guiboard.clearMarks();
+        beginOverlay("Dfpn");
         m_guiboard.aboutToDirtyStones();
 
         int var = fx.indexOf("VAR");
@@ -1786,7 +2617,7 @@ public final class HexGui
 
     private void guifx_kata(String fx)
     {
-        m_guiboard.clearMarks();
+        beginOverlay("Kata");
         m_guiboard.aboutToDirtyStones();
 
         ArrayList<String> move = new ArrayList<String>();
@@ -2056,8 +2887,10 @@ public final class HexGui
         htpShowboard();
         if (! m_guiboard.isBoardFull()
             && m_preferences.getBoolean("auto-respond")
-            && m_program != null)
+            && ! m_engines.isEmpty())
             htpGenMove(m_tomove);
+        else
+            autoGenMove();
     }
 
     /** Update the GUI to reflect the given move. Do this without any
@@ -2172,6 +3005,7 @@ public final class HexGui
             displayLabels(m_current);
             m_guiboard.paintImmediately();
         }
+        positionChanged();
     }
 
     /** Add a new empty setup node as a child of the current
@@ -2368,6 +3202,7 @@ public final class HexGui
             System.out.println("Count: " + m_current.getCount());
         determineColorToMove();
         htpShowboard();
+        positionChanged();
     }
 
     /** Unselect the setup buttons. Most other actions trigger this. */
@@ -2540,8 +3375,8 @@ public final class HexGui
 	if (m_file != null) filename = m_file.getName();
 	if (gameChanged()) filename = filename + "*";
 	String name = "HexGui " + Version.id;
-	if (m_white != null)
-	    name += " - [" + m_white_name + " " + m_white_version + "]";
+	if (analyzer() != null)
+	    name += " - [" + analyzer() + "]";
 	setTitle(name + " - " + filename);
     }
 
@@ -2604,7 +3439,8 @@ public final class HexGui
 	    return false;
 	}
 
-	new SgfWriter(out, root, gameinfo);
+	new SgfWriter(out, root, gameinfo,
+                      m_preferences.getBoolean("analysis-in-sgf"));
 	return true;
     }
 
@@ -2663,23 +3499,6 @@ public final class HexGui
 	return null;
     }
 
-    //------------------------------------------------------------
-    
-    private void acquireSemaphore()
-    {
-        try {
-            m_semaphore.acquire();
-        }
-        catch(InterruptedException e) {
-            System.out.println("Acquire interrupted!");
-        }
-    }
-
-    private void releaseSemaphore()
-    {
-        m_semaphore.release();
-    }
-
     //------------------------------------------------------------
 
     private void stopClock()
@@ -2720,18 +3539,41 @@ public final class HexGui
         m_current.setComment(string);
     }
 
-    private boolean checkBoardSizeSupported()
+    private boolean checkBoardSizeSupported(EngineSession session)
     {
-        if (m_unsupportedBoardSize)
+        if (!session.isBoardSizeSupported())
         {
             ShowError.msg(HexGui.this,
                           format("{0} does not support this board size.",
-                                 m_white_name));
+                                 session.getName()));
             return false;
         }
         return true;
     }
 
+    /** Creates the engine pool if engine-pool-size is not 0, and
+        starts warming the programs named in engine-pool-programs.
+        Other programs are added to the pool when first used. */
+    private void startEnginePool()
+    {
+        int size = m_preferences.getInt("engine-pool-size");
+        if (size <= 0)
+            return;
+        m_enginePool = new EnginePool(size, getEngineLogCapacity());
+        for (String name : m_preferences.get("engine-pool-programs").split(","))
+        {
+            if (name.trim().equals(""))
+                continue;
+            Program program = Program.findWithName(name.trim(), m_programs);
+            if (program == null)
+                System.out.println("engine-pool-programs: unknown program '"
+                                   + name.trim() + "'");
+            else
+                m_enginePool.warm(program.m_command, program.m_working,
+                                  program.m_environment);
+        }
+    }
+
     private void initialize(File file, String command)
     {
         // attach program from the last run of HexGui
@@ -2742,6 +3584,7 @@ public final class HexGui
             setFrameTitle();
         }
         m_programs = Program.load();
+        startEnginePool();
         /*
         if (m_preferences.getBoolean("is-program-attached"))
         {
@@ -2765,6 +3608,7 @@ public final class HexGui
 	    m_root = sgf.getGameTree();
 	    m_gameinfo = sgf.getGameInfo();
 	    m_current = m_root;
+            m_analysisStore.reset(m_root);
 
 	    m_guiboard.initSize(m_gameinfo.getBoardSize());
             htpBoardsize(m_guiboard.getBoardSize());
@@ -2801,10 +3645,11 @@ public final class HexGui
     private GuiMenuBar m_menubar;
     private HtpShell m_shell;
     private AnalyzeDialog m_analyzeDialog;
+    private MetricsDialog m_metricsDialog;
+    private EngineLogDialog m_engineLogDialog;
     private GameInfoPanel m_gameinfopanel;
     private Comment m_comment;
     private boolean m_locked;
-    private boolean m_unsupportedBoardSize;
     private Node m_root;
     private Node m_current;
     private GameInfo m_gameinfo;
@@ -2825,14 +3670,54 @@ public final class HexGui
 
     private ShowAnalyzeText m_showAnalyzeText;
 
-    private ArrayBlockingQueue<HtpCommand> m_htp_queue;
-    private Semaphore m_semaphore;
-    private HtpController m_white;
-    private String m_white_name;
-    private String m_white_version;
+    private EngineManager m_engines;
+    private HashMap<EngineSession, HtpShell> m_shells
+        = new HashMap<EngineSession, HtpShell>();
+    private int m_lockCount;
+
+    /** Sessions running a command that locked the GUI. */
+    private Vector<EngineSession> m_lockingSessions
+        = new Vector<EngineSession>();
+    private AnalysisCache m_analysisCache;
+
+    /** Analysis attached to the nodes of the game tree. */
+    private AnalysisStore m_analysisStore;
+
+    private static final int NO_PONDER = -1;
+
+    /** Command run again whenever the position changes, or null. */
+    private AnalyzeCommand m_ponderCommand;
+
+    /** Delays running the autorun command while navigating. */
+    private javax.swing.Timer m_ponderTimer;
+
+    /** Incremented whenever the position changes. */
+    private volatile int m_ponderGeneration;
+
+    /** Generation of the autorun command in the analyzer's queue, or
+        NO_PONDER; its gfx output is dropped once it is stale. */
+    private volatile int m_ponderRunning = NO_PONDER;
+
+    private long m_ponderPosition;
+    private EngineSession m_ponderSession;
+    /** Autorun command last sent; read by the sessions' threads in
+        commandStarted(). */
+    private volatile String m_ponderSent;
+    private Runnable m_ponderQueued;
+    private static final String PROBE_COMMANDS[] =
+        { "name\n", "version\n", "hexgui-analyze_commands\n" };
+
+    private ProbeCache m_probeCache;
+    /** Null if engine-pool-size is 0. */
+    private EnginePool m_enginePool;
+    /** Null if the watchdog-deadlines preference is invalid. */
+    private EngineWatchdog m_watchdog;
+    /** Programs of the locally started engines, for restarting them. */
+    private HashMap<EngineSession, Program> m_sessionPrograms
+        = new HashMap<EngineSession, Program>();
+    /** Response handed to a callback by runWithResponse(). */
+    private String m_response;
     private AnalyzeCommand m_curAnalyzeCommand;
-    private Process m_white_process;
-    private Socket m_white_socket;
 
     private File m_file;
 }
@@ -51,6 +51,12 @@ public class HtpShell
 	pack();
     }
 
+    /** Sets the callback for commands typed into the shell. */
+    public void setCallback(Callback callback)
+    {
+        m_callback = callback;
+    }
+
     public void appendText(String text)
     {
 	appendText(text, null);
@@ -115,7 +121,8 @@ public class HtpShell
 	String cmd = e.getActionCommand();
 	if (cmd.equals("command-entered")) {
 	    String text = m_field.getText() + "\n";
-	    m_callback.commandEntered(text);
+	    if (m_callback != null)
+		m_callback.commandEntered(text);
 	    m_field.setText(null);
 	}
     }
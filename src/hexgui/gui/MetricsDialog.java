@@ -0,0 +1,175 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import hexgui.htp.CommandMetrics;
+import hexgui.htp.EngineManager;
+import hexgui.htp.EngineSession;
+import hexgui.htp.LatencyHistogram;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Vector;
+
+/** Non-modal dialog showing per-command timing of all connected
+    engines.  Refreshes itself once a second while visible. */
+public class MetricsDialog
+    extends JDialog implements ActionListener
+{
+    public MetricsDialog(JFrame owner, EngineManager engines,
+                         MessageDialogs messageDialogs)
+    {
+	super(owner, "HexGui: HTP Metrics");
+        m_engines = engines;
+        m_messageDialogs = messageDialogs;
+
+        m_model = new DefaultTableModel(COLUMNS, 0)
+            {
+                public boolean isCellEditable(int row, int column)
+                {
+                    return false;
+                }
+            };
+        JTable table = new JTable(m_model);
+        table.setAutoCreateRowSorter(true);
+        table.setToolTipText("Times in milliseconds: queue and write are "
+                             + "spent in HexGui, think in the engine.");
+	getContentPane().add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel();
+        buttons.add(createButton("Reset", "reset"));
+        buttons.add(createButton("Export...", "export"));
+	getContentPane().add(buttons, BorderLayout.SOUTH);
+
+        m_timer = new javax.swing.Timer(1000, this);
+        m_timer.setActionCommand("refresh");
+
+	setPreferredSize(new Dimension(900, 300));
+        setLocationRelativeTo(owner);
+	pack();
+    }
+
+    public void setVisible(boolean f)
+    {
+        if (f)
+        {
+            refresh();
+            m_timer.start();
+        }
+        else
+            m_timer.stop();
+        super.setVisible(f);
+    }
+
+    public void actionPerformed(ActionEvent e)
+    {
+        String cmd = e.getActionCommand();
+        if (cmd.equals("refresh"))
+            refresh();
+        else if (cmd.equals("reset"))
+        {
+            for (EngineSession session : m_engines.getSessions())
+                session.getMetrics().reset();
+            refresh();
+        }
+        else if (cmd.equals("export"))
+            export();
+    }
+
+    //------------------------------------------------------------
+
+    private JButton createButton(String label, String command)
+    {
+        JButton button = new JButton(label);
+        button.setActionCommand(command);
+        button.addActionListener(this);
+        return button;
+    }
+
+    private void refresh()
+    {
+        m_model.setRowCount(0);
+        for (EngineSession session : m_engines.getSessions())
+        {
+            CommandMetrics metrics = session.getMetrics();
+            double seconds = Math.max(1, metrics.getElapsed()) / 1000.0;
+            for (CommandMetrics.Entry e : metrics.getEntries())
+            {
+                LatencyHistogram total = e.getPhase(CommandMetrics.TOTAL);
+                m_model.addRow(new Object[] {
+                        session.toString(),
+                        e.getCommand(),
+                        Long.valueOf(e.getCount()),
+                        String.format("%.2f", e.getCount() / seconds),
+                        median(e, CommandMetrics.QUEUE),
+                        median(e, CommandMetrics.WRITE),
+                        median(e, CommandMetrics.THINK),
+                        median(e, CommandMetrics.PARSE),
+                        CommandMetrics.ms(total.getPercentile(50)),
+                        CommandMetrics.ms(total.getPercentile(99)),
+                        CommandMetrics.ms(total.getMax()),
+                        Long.valueOf(e.getResponseChars())
+                    });
+            }
+        }
+    }
+
+    private static String median(CommandMetrics.Entry e, int phase)
+    {
+        return CommandMetrics.ms(e.getPhase(phase).getPercentile(50));
+    }
+
+    /** Writes JSON, or CSV if the file name ends in ".csv". */
+    private void export()
+    {
+        File file = FileDialogs.showSave(this, "Export Metrics",
+                                         m_messageDialogs);
+        if (file == null)
+            return;
+        Vector<String> names = new Vector<String>();
+        Vector<CommandMetrics> metrics = new Vector<CommandMetrics>();
+        for (EngineSession session : m_engines.getSessions())
+        {
+            names.add(session.toString());
+            metrics.add(session.getMetrics());
+        }
+        try {
+            PrintStream out = new PrintStream(new FileOutputStream(file));
+            if (file.getName().toLowerCase().endsWith(".csv"))
+                CommandMetrics.writeCsv(out, names, metrics);
+            else
+                CommandMetrics.writeJson(out, names, metrics);
+            out.close();
+        }
+        catch (IOException e)
+        {
+            ShowError.msg(this, "Could not write " + file + ": "
+                          + e.getMessage());
+        }
+    }
+
+    /** Serial version to suppress compiler warning.
+        Contains a marker comment for serialver.sf.net
+    */
+    private static final long serialVersionUID = 0L; // SUID
+
+    private static final String COLUMNS[] = {
+        "Engine", "Command", "Count", "Per sec", "Queue p50", "Write p50",
+        "Think p50", "Parse p50", "Total p50", "Total p99", "Max", "Chars"
+    };
+
+    private final EngineManager m_engines;
+    private final MessageDialogs m_messageDialogs;
+    private final DefaultTableModel m_model;
+    private final javax.swing.Timer m_timer;
+}
+
+//----------------------------------------------------------------------------
@@ -15,6 +15,8 @@ public class Program
     public String m_name;
     public String m_command;
     public String m_working;
+    /** Variables added to the environment, as NAME=value words. */
+    public String m_environment;
 
     public Program()
     {
@@ -25,6 +27,14 @@ public class Program
         m_name = name;
         m_command = command;
         m_working = working;
+        m_environment = "";
+    }
+
+    public Program(String name, String command, String working,
+                   String environment)
+    {
+        this(name, command, working);
+        m_environment = environment;
     }
 
     public String toString()
@@ -50,7 +60,9 @@ public class Program
             String version = prefs.get("version", "");
             String command = prefs.get("command", "");
             String workingDirectory = prefs.get("working-directory", "");
-            programs.add(new Program(name, command, workingDirectory));
+            String environment = prefs.get("environment", "");
+            programs.add(new Program(name, command, workingDirectory,
+                                     environment));
         }
         return programs;
     }
@@ -70,6 +82,7 @@ public class Program
             prefs.put("name", p.m_name);
             prefs.put("command", p.m_command);
             prefs.put("working-directory", p.m_working);
+            prefs.put("environment", p.m_environment);
         }
     }
 
@@ -9,8 +9,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 
-/** Dialog for entering a remote program hostname. 
-    FIXME: allow port to be set. 
+/** Dialog for entering a remote program's host and port,
+    as <code>host:port</code>.
   */
 public final class RemoteProgramDialog
 {
@@ -21,7 +21,7 @@ public final class RemoteProgramDialog
     public static String show(Component parent, String value)
     {
         String ret = JOptionPane.showInputDialog(parent, 
-						 "Remote Host", 
+						 "Remote Host (host:port)",
 						 value);
         return ret;
     }
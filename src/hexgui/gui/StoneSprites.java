@@ -0,0 +1,208 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.Vector;
+
+import hexgui.util.RadialGradientPaint;
+
+//----------------------------------------------------------------------------
+
+/** Images of stones, rendered once per color and size and then
+    copied to the board.
+
+    <p>Computing the radial gradient of a stone takes a square root per
+    pixel, and filling the antialiased disks of the stones and their
+    shadows is most of the rest of the time needed to draw a board full
+    of stones.  The board drawer owns one instance and clears it whenever
+    the board is resized.  Only used from the event dispatch thread.
+*/
+public class StoneSprites
+{
+    public StoneSprites()
+    {
+        m_sprites = new Vector<Sprite>();
+    }
+
+    /** Forgets all images. */
+    public void clear()
+    {
+        m_sprites.clear();
+        m_shadows = null;
+    }
+
+    /** Draws a stone into a field of size w by h at the origin of the
+        graphics context.  Uses a cached image unless the graphics
+        context is scaled or rotated, as when printing, where an image
+        would look blurred. */
+    public void draw(Graphics2D g, Color normal, Color bright,
+                     int w, int h, double size)
+    {
+        int type = g.getTransform().getType();
+        if ((type & ~AffineTransform.TYPE_TRANSLATION) != 0)
+        {
+            paint(g, normal, bright, w, h, size);
+            return;
+        }
+        Sprite sprite = get(g, normal, bright, w, h, size);
+        g.drawImage(sprite.m_image, -sprite.m_margin, -sprite.m_margin, null);
+    }
+
+    /** Draws a stone into a field of size w by h with its top left
+        corner at (x,y), without creating a translated graphics
+        context. */
+    public void draw(Graphics2D g, Color normal, Color bright,
+                     int x, int y, int w, int h, double size)
+    {
+        int type = g.getTransform().getType();
+        if ((type & ~AffineTransform.TYPE_TRANSLATION) != 0)
+        {
+            g.translate(x, y);
+            paint(g, normal, bright, w, h, size);
+            g.translate(-x, -y);
+            return;
+        }
+        Sprite sprite = get(g, normal, bright, w, h, size);
+        g.drawImage(sprite.m_image, x - sprite.m_margin, y - sprite.m_margin,
+                    null);
+    }
+
+    /** Draws the shadow of a stone, a black disk with its top left
+        corner at (x,y), in the color and composite of the graphics
+        context.  The images are cached for positions in steps of a
+        eighth of a pixel. */
+    public void drawShadow(Graphics2D g, double x, double y, double size)
+    {
+        int type = g.getTransform().getType();
+        if ((type & ~AffineTransform.TYPE_TRANSLATION) != 0
+            || !Color.black.equals(g.getColor()))
+        {
+            g.fill(new Ellipse2D.Double(x, y, size*2, size*2));
+            return;
+        }
+        int px = (int)Math.floor(x * SHADOW_STEPS);
+        int py = (int)Math.floor(y * SHADOW_STEPS);
+        int fx = px & (SHADOW_STEPS - 1);
+        int fy = py & (SHADOW_STEPS - 1);
+        if (m_shadows == null || size != m_shadowSize)
+        {
+            m_shadows = new BufferedImage[SHADOW_STEPS * SHADOW_STEPS];
+            m_shadowSize = size;
+        }
+        int index = fy * SHADOW_STEPS + fx;
+        if (m_shadows[index] == null)
+        {
+            int dim = (int)Math.ceil(size*2) + 3;
+            BufferedImage image
+                = new BufferedImage(dim, dim, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D ig = image.createGraphics();
+            ig.setRenderingHints(g.getRenderingHints());
+            ig.setColor(Color.black);
+            ig.fill(new Ellipse2D.Double(1 + (double)fx / SHADOW_STEPS,
+                                         1 + (double)fy / SHADOW_STEPS,
+                                         size*2, size*2));
+            ig.dispose();
+            m_shadows[index] = image;
+        }
+        g.drawImage(m_shadows[index], (px >> SHADOW_SHIFT) - 1,
+                    (py >> SHADOW_SHIFT) - 1, null);
+    }
+
+    /** Paints a stone directly with a radial gradient, or in one
+        color if normal and bright are the same. */
+    public static void paint(Graphics2D g, Color normal, Color bright,
+                             int w, int h, double size)
+    {
+        if (normal.equals(bright))
+            g.setColor(normal);
+        else
+            g.setPaint(getPaint(w, h, normal, bright));
+	g.fill(new Ellipse2D.Double(w/2 - size, h/2 - size, size*2, size*2));
+	g.setPaintMode();
+    }
+
+    //------------------------------------------------------------
+
+    private static class Sprite
+    {
+        public Sprite(Color normal, Color bright, int w, int h, double size,
+                      BufferedImage image, int margin)
+        {
+            m_normal = normal;
+            m_bright = bright;
+            m_w = w;
+            m_h = h;
+            m_size = size;
+            m_image = image;
+            m_margin = margin;
+        }
+
+        private final Color m_normal, m_bright;
+        private final int m_w, m_h;
+        private final double m_size;
+        private final BufferedImage m_image;
+
+        /** Pixels the image extends beyond the field on each side. */
+        private final int m_margin;
+    }
+
+    private Sprite get(Graphics2D g, Color normal, Color bright,
+                       int w, int h, double size)
+    {
+        for (int i=0; i<m_sprites.size(); i++) {
+            Sprite s = m_sprites.get(i);
+            if (s.m_normal == normal && s.m_bright == bright
+                && s.m_w == w && s.m_h == h
+                && s.m_size == size)
+                return s;
+        }
+        int margin = (int)Math.ceil(Math.max(0, size - Math.min(w, h)/2)) + 2;
+        BufferedImage image = new BufferedImage(w + 2*margin, h + 2*margin,
+                                                BufferedImage.TYPE_INT_ARGB);
+        Graphics2D ig = image.createGraphics();
+        ig.setRenderingHints(g.getRenderingHints());
+        ig.translate(margin, margin);
+        paint(ig, normal, bright, w, h, size);
+        ig.dispose();
+        Sprite sprite = new Sprite(normal, bright, w, h, size, image, margin);
+        m_sprites.add(sprite);
+        return sprite;
+    }
+
+    private static RadialGradientPaint getPaint(int width,
+                                                int height,
+                                                Color colorNormal,
+                                                Color colorBright)
+    {
+	int size = (width < height) ? width : height;
+        int radius = Math.max(size / 3, 1);
+        Point2D.Double centerPoint =
+            new Point2D.Double(width/2 - size/6, height/2 - size/6);
+        Point2D.Double radiusPoint =
+            new Point2D.Double(radius, radius);
+        return new RadialGradientPaint(centerPoint, colorBright,
+                                       radiusPoint, colorNormal);
+    }
+
+    private static final int SHADOW_SHIFT = 3;
+
+    private static final int SHADOW_STEPS = 1 << SHADOW_SHIFT;
+
+    private final Vector<Sprite> m_sprites;
+
+    /** Shadow images by position within a pixel, for disks of size
+        m_shadowSize. */
+    private BufferedImage m_shadows[];
+
+    private double m_shadowSize;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,150 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.gui;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//----------------------------------------------------------------------------
+
+/** Strings laid out as glyphs in a given font size, so that drawing
+    them again does not derive fonts or shape the text again.
+
+    <p>Analysis overlays write several numbers on many fields and are
+    redrawn often with mostly the same strings.  The cache keeps the
+    most recently used layouts and forgets the others, so it does not
+    need to be cleared when the board is resized.  The board drawer
+    owns one instance.  Only used from one thread.
+*/
+public class TextCache
+{
+    /** A string laid out in a font and size. */
+    public static class Layout
+    {
+        /** Advance width as given by FontMetrics.stringWidth(). */
+        public int getWidth()
+        {
+            return m_width;
+        }
+
+        /** Ascent of the font as given by FontMetrics.getAscent(). */
+        public int getAscent()
+        {
+            return m_ascent;
+        }
+
+        /** Draws the string with its baseline starting at (x,y), in
+            the color of the graphics context. */
+        public void draw(Graphics2D g, float x, float y)
+        {
+            g.drawGlyphVector(m_glyphs, x, y);
+        }
+
+        private Layout(GlyphVector glyphs, int width, int ascent)
+        {
+            m_glyphs = glyphs;
+            m_width = width;
+            m_ascent = ascent;
+        }
+
+        private final GlyphVector m_glyphs;
+        private final int m_width, m_ascent;
+    }
+
+    public TextCache()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** @param capacity number of layouts to keep. */
+    public TextCache(final int capacity)
+    {
+        m_layouts = new LinkedHashMap<Key, Layout>(64, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Key, Layout> e)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** Forgets all layouts. */
+    public void clear()
+    {
+        m_layouts.clear();
+    }
+
+    /** Returns the layout of a string in the current font of the
+        graphics context, at the given size, for drawing with that
+        graphics context. */
+    public Layout get(Graphics2D g, String str, float size)
+    {
+        Font font = g.getFont();
+        FontRenderContext frc = g.getFontRenderContext();
+        Key key = new Key(str, font, size, frc);
+        Layout layout = m_layouts.get(key);
+        if (layout == null) {
+            Font f = font.deriveFont(size);
+            FontMetrics m = g.getFontMetrics(f);
+            layout = new Layout(f.createGlyphVector(frc, str),
+                                m.stringWidth(str), m.getAscent());
+            m_layouts.put(key, layout);
+        }
+        return layout;
+    }
+
+    public int size()
+    {
+        return m_layouts.size();
+    }
+
+    //------------------------------------------------------------
+
+    private static final int DEFAULT_CAPACITY = 4096;
+
+    private static class Key
+    {
+        public Key(String str, Font font, float size, FontRenderContext frc)
+        {
+            m_str = str;
+            m_font = font;
+            m_size = size;
+            m_frc = frc;
+            m_hash = ((str.hashCode() * 31 + font.hashCode()) * 31
+                      + Float.floatToIntBits(size)) * 31 + frc.hashCode();
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key)o;
+            return m_hash == k.m_hash && m_size == k.m_size
+                && m_str.equals(k.m_str) && m_font.equals(k.m_font)
+                && m_frc.equals(k.m_frc);
+        }
+
+        public int hashCode()
+        {
+            return m_hash;
+        }
+
+        private final String m_str;
+        private final Font m_font;
+        private final float m_size;
+        private final FontRenderContext m_frc;
+        private final int m_hash;
+    }
+
+    /** Most recently used layouts, least recently used first. */
+    private final LinkedHashMap<Key, Layout> m_layouts;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,191 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.hex;
+
+import java.awt.Dimension;
+
+//----------------------------------------------------------------------------
+
+/** Hex board without any GUI attached.
+
+    <p>Black connects the top and bottom edges, white connects the left
+    and right edges, as on the board drawn by HexGui.  Used where games
+    are played without a GuiBoard, for example in engine matches.
+*/
+public final class Board
+{
+    /** Constructs an empty board of the given size. */
+    public Board(Dimension size)
+    {
+        m_width = size.width;
+        m_height = size.height;
+        m_color = new HexColor[m_width * m_height];
+        m_stack = new int[m_width * m_height];
+        m_mark = new boolean[m_width * m_height];
+        clear();
+    }
+
+    public Dimension getSize()
+    {
+        return new Dimension(m_width, m_height);
+    }
+
+    /** Removes all stones. */
+    public void clear()
+    {
+        for (int i = 0; i < m_color.length; ++i)
+            m_color[i] = HexColor.EMPTY;
+        m_numStones = 0;
+    }
+
+    /** True if the point is a cell on this board. */
+    public boolean contains(HexPoint point)
+    {
+        return point.is_cell() && point.x < m_width && point.y < m_height;
+    }
+
+    /** Returns the color of the given cell. */
+    public HexColor getColor(HexPoint point)
+    {
+        assert contains(point);
+        return m_color[index(point.x, point.y)];
+    }
+
+    public boolean isEmpty(HexPoint point)
+    {
+        return getColor(point) == HexColor.EMPTY;
+    }
+
+    /** True if every cell is occupied. */
+    public boolean isFull()
+    {
+        return m_numStones == m_color.length;
+    }
+
+    public int getNumStones()
+    {
+        return m_numStones;
+    }
+
+    /** True if the move can be played on the current position.
+        Swap-pieces is legal only while exactly one stone is on the
+        board; resign and forfeit are always legal. */
+    public boolean isLegal(Move move)
+    {
+        HexPoint point = move.getPoint();
+        if (point == HexPoint.RESIGN || point == HexPoint.FORFEIT)
+            return true;
+        if (point == HexPoint.SWAP_PIECES)
+            return m_numStones == 1 && m_width == m_height;
+        return contains(point) && isEmpty(point);
+    }
+
+    /** Plays a move.  Swap-pieces mirrors the single stone on the
+        board and gives it to the other color; resign and forfeit do
+        not change the board. */
+    public void play(Move move)
+    {
+        assert isLegal(move);
+        HexPoint point = move.getPoint();
+        if (point == HexPoint.SWAP_PIECES)
+            swapPieces();
+        else if (point.is_cell())
+        {
+            m_color[index(point.x, point.y)] = move.getColor();
+            ++m_numStones;
+        }
+    }
+
+    /** Returns the color that has connected its edges, or
+        <code>HexColor.EMPTY</code> if the game is not over. */
+    public HexColor getWinner()
+    {
+        if (isConnected(HexColor.BLACK))
+            return HexColor.BLACK;
+        if (isConnected(HexColor.WHITE))
+            return HexColor.WHITE;
+        return HexColor.EMPTY;
+    }
+
+    //------------------------------------------------------------
+
+    private void swapPieces()
+    {
+        for (int i = 0; i < m_color.length; ++i)
+        {
+            if (m_color[i] == HexColor.EMPTY)
+                continue;
+            int x = i % m_width;
+            int y = i / m_width;
+            HexColor c = m_color[i];
+            m_color[i] = HexColor.EMPTY;
+            m_color[index(y, x)] = c.otherColor();
+            return;
+        }
+    }
+
+    /** Flood fill from the first edge of the color, looking for a
+        stone on the opposite edge. */
+    private boolean isConnected(HexColor color)
+    {
+        boolean vertical = (color == HexColor.BLACK);
+        int length = vertical ? m_width : m_height;
+        int far = vertical ? m_height - 1 : m_width - 1;
+        int top = 0;
+        for (int i = 0; i < m_mark.length; ++i)
+            m_mark[i] = false;
+        for (int i = 0; i < length; ++i)
+        {
+            int p = vertical ? index(i, 0) : index(0, i);
+            if (m_color[p] == color)
+            {
+                m_mark[p] = true;
+                m_stack[top++] = p;
+            }
+        }
+        while (top > 0)
+        {
+            int p = m_stack[--top];
+            int x = p % m_width;
+            int y = p / m_width;
+            if ((vertical ? y : x) == far)
+                return true;
+            for (int d = 0; d < DX.length; ++d)
+            {
+                int nx = x + DX[d];
+                int ny = y + DY[d];
+                if (nx < 0 || ny < 0 || nx >= m_width || ny >= m_height)
+                    continue;
+                int n = index(nx, ny);
+                if (!m_mark[n] && m_color[n] == color)
+                {
+                    m_mark[n] = true;
+                    m_stack[top++] = n;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int index(int x, int y)
+    {
+        return y * m_width + x;
+    }
+
+    /** Offsets of the six neighbours of a cell. */
+    private static final int DX[] = {  1, -1,  0,  0,  1, -1 };
+    private static final int DY[] = {  0,  0,  1, -1, -1,  1 };
+
+    private final int m_width;
+    private final int m_height;
+    private final HexColor m_color[];
+    private int m_numStones;
+
+    /** Work space for isConnected(). */
+    private final int m_stack[];
+    private final boolean m_mark[];
+}
+
+//----------------------------------------------------------------------------
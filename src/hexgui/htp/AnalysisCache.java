@@ -0,0 +1,231 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import hexgui.hex.HexColor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//----------------------------------------------------------------------------
+
+/** Least-recently-used cache of responses to analysis commands.
+
+    <p>Entries are keyed by engine, command text, position and color
+    to move (see <code>key()</code>), so showing the same analysis for
+    a position again does not have to ask the engine.  The cache is
+    bounded by the approximate number of bytes the keys and responses
+    take up; the least recently used entries are dropped first.
+
+    <p>The entries of one engine can be saved to and loaded from a
+    file, so that results survive a restart as long as the engine's
+    name and version stay the same.
+*/
+public class AnalysisCache
+{
+    /** @param maxBytes approximate memory the entries may use. */
+    public AnalysisCache(long maxBytes)
+    {
+        m_maxBytes = maxBytes;
+        m_map = new LinkedHashMap<String, String>(64, 0.75f, true);
+    }
+
+    /** Builds the key for a command.
+        @param engine name and version of the engine.
+        @param command the command text, after wildcards were replaced.
+        @param position hash of the stones on the board.
+        @param toMove color to move. */
+    public static String key(String engine, String command, long position,
+                             HexColor toMove)
+    {
+        return engine + SEPARATOR + command.trim() + SEPARATOR
+            + Long.toHexString(position) + SEPARATOR + toMove;
+    }
+
+    /** Returns the cached response, or null. */
+    public synchronized String get(String key)
+    {
+        String response = m_map.get(key);
+        if (response == null)
+            ++m_misses;
+        else
+            ++m_hits;
+        return response;
+    }
+
+    /** True if the key has a response; does not count as a hit or a
+        miss, nor as a use of the entry. */
+    public synchronized boolean contains(String key)
+    {
+        return m_map.containsKey(key);
+    }
+
+    public synchronized void put(String key, String response)
+    {
+        String old = m_map.put(key, response);
+        if (old != null)
+            m_bytes -= size(key, old);
+        m_bytes += size(key, response);
+        evict();
+    }
+
+    /** Drops all entries for the given engine, for example because
+        its parameters were changed. */
+    public synchronized void clear(String engine)
+    {
+        String prefix = engine + SEPARATOR;
+        Iterator<Map.Entry<String, String>> it = m_map.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Map.Entry<String, String> e = it.next();
+            if (e.getKey().startsWith(prefix))
+            {
+                m_bytes -= size(e.getKey(), e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized int getNumEntries() { return m_map.size(); }
+
+    public synchronized long getBytes() { return m_bytes; }
+
+    public synchronized int getHits() { return m_hits; }
+
+    public synchronized int getMisses() { return m_misses; }
+
+    //------------------------------------------------------------
+
+    /** Returns the file the entries of an engine are saved in. */
+    public static File getFile(File dir, String engine)
+    {
+        return new File(dir, engine.replaceAll("[^A-Za-z0-9._-]", "_")
+                        + ".cache");
+    }
+
+    /** Adds the entries saved for an engine.  A missing file is not
+        an error. */
+    public synchronized void load(File dir, String engine)
+        throws IOException
+    {
+        File file = getFile(dir, engine);
+        if (!file.exists())
+            return;
+        DataInputStream in = new DataInputStream
+            (new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_VERSION)
+                return;
+            while (true)
+            {
+                String key;
+                try {
+                    key = readString(in);
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+                String response = readString(in);
+                put(engine + SEPARATOR + key, response);
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /** Writes the entries of an engine, least recently used first,
+        so that loading them keeps their order. */
+    public synchronized void save(File dir, String engine)
+        throws IOException
+    {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+        String prefix = engine + SEPARATOR;
+        DataOutputStream out = new DataOutputStream
+            (new BufferedOutputStream
+             (new FileOutputStream(getFile(dir, engine))));
+        try {
+            out.writeInt(FILE_VERSION);
+            for (Map.Entry<String, String> e : m_map.entrySet())
+            {
+                if (!e.getKey().startsWith(prefix))
+                    continue;
+                writeString(out, e.getKey().substring(prefix.length()));
+                writeString(out, e.getValue());
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    //------------------------------------------------------------
+
+    private void evict()
+    {
+        Iterator<Map.Entry<String, String>> it = m_map.entrySet().iterator();
+        while (m_bytes > m_maxBytes && it.hasNext())
+        {
+            Map.Entry<String, String> e = it.next();
+            m_bytes -= size(e.getKey(), e.getValue());
+            it.remove();
+        }
+    }
+
+    /** Rough memory use of an entry: two bytes per char plus the
+        overhead of the strings and the map entry. */
+    private static long size(String key, String response)
+    {
+        return 2L * (key.length() + response.length()) + ENTRY_OVERHEAD;
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        byte b[] = new byte[in.readInt()];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException
+    {
+        byte b[] = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static final char SEPARATOR = '\n';
+
+    private static final long ENTRY_OVERHEAD = 128;
+
+    private static final int FILE_VERSION = 1;
+
+    private final long m_maxBytes;
+
+    /** Access-ordered, so iteration starts at the least recently used
+        entry. */
+    private final LinkedHashMap<String, String> m_map;
+
+    private long m_bytes;
+    private int m_hits;
+    private int m_misses;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,229 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.Vector;
+
+//----------------------------------------------------------------------------
+
+/** Timing of the commands sent to one engine, per command name.
+
+    <p>Each command is split into the time it waited in the session's
+    queue, the time spent writing it, the time until the first line of
+    the response arrived (the engine's thinking time) and the time
+    spent reading and parsing the rest of the response.  The first two
+    are on the GUI's side, the third on the engine's.  Thread-safe.
+*/
+public class CommandMetrics
+{
+    public static final int QUEUE = 0;
+    public static final int WRITE = 1;
+    public static final int THINK = 2;
+    public static final int PARSE = 3;
+    public static final int TOTAL = 4;
+
+    public static final String PHASE_NAMES[] =
+        { "queue", "write", "think", "parse", "total" };
+
+    /** Metrics of one command name. */
+    public static class Entry
+    {
+        public Entry(String command)
+        {
+            m_command = command;
+            m_phase = new LatencyHistogram[PHASE_NAMES.length];
+            for (int i = 0; i < m_phase.length; ++i)
+                m_phase[i] = new LatencyHistogram();
+        }
+
+        public String getCommand() { return m_command; }
+
+        public LatencyHistogram getPhase(int phase) { return m_phase[phase]; }
+
+        public long getCount() { return m_phase[TOTAL].getCount(); }
+
+        /** Total number of characters in the responses. */
+        public long getResponseChars() { return m_chars; }
+
+        private Entry copy()
+        {
+            Entry e = new Entry(m_command);
+            for (int i = 0; i < m_phase.length; ++i)
+                e.m_phase[i].add(m_phase[i]);
+            e.m_chars = m_chars;
+            return e;
+        }
+
+        private final String m_command;
+        private final LatencyHistogram m_phase[];
+        private long m_chars;
+    }
+
+    public CommandMetrics()
+    {
+        m_entries = new TreeMap<String, Entry>();
+        m_start = System.currentTimeMillis();
+    }
+
+    /** Records a finished command.  Times are in nanoseconds.
+        @param cmd the command line; only its first word is used. */
+    public synchronized void record(String cmd, long queue, long write,
+                                    long think, long parse, int chars)
+    {
+        String name = commandName(cmd);
+        Entry e = m_entries.get(name);
+        if (e == null)
+        {
+            e = new Entry(name);
+            m_entries.put(name, e);
+        }
+        e.m_phase[QUEUE].record(queue / 1000);
+        e.m_phase[WRITE].record(write / 1000);
+        e.m_phase[THINK].record(think / 1000);
+        e.m_phase[PARSE].record(parse / 1000);
+        e.m_phase[TOTAL].record((queue + write + think + parse) / 1000);
+        e.m_chars += chars;
+    }
+
+    /** Returns copies of the entries, sorted by command name. */
+    public synchronized Vector<Entry> getEntries()
+    {
+        Vector<Entry> entries = new Vector<Entry>();
+        for (Entry e : m_entries.values())
+            entries.add(e.copy());
+        return entries;
+    }
+
+    public synchronized void reset()
+    {
+        m_entries.clear();
+        m_start = System.currentTimeMillis();
+    }
+
+    /** Milliseconds since creation or the last reset. */
+    public synchronized long getElapsed()
+    {
+        return System.currentTimeMillis() - m_start;
+    }
+
+    public static String commandName(String cmd)
+    {
+        String s = cmd.trim();
+        int space = s.indexOf(' ');
+        return (space < 0) ? s : s.substring(0, space);
+    }
+
+    //------------------------------------------------------------
+
+    /** Writes one line per engine, command and phase.  Times are in
+        milliseconds. */
+    public static void writeCsv(PrintStream out, Vector<String> engines,
+                                Vector<CommandMetrics> metrics)
+    {
+        out.println("engine,command,phase,count,min,mean,p50,p90,p99,"
+                    + "p99.9,max,commands_per_sec,response_chars");
+        for (int i = 0; i < engines.size(); ++i)
+        {
+            CommandMetrics m = metrics.get(i);
+            double seconds = Math.max(1, m.getElapsed()) / 1000.0;
+            for (Entry e : m.getEntries())
+            {
+                for (int p = 0; p < PHASE_NAMES.length; ++p)
+                {
+                    LatencyHistogram h = e.getPhase(p);
+                    out.println(csv(engines.get(i)) + "," + csv(e.m_command)
+                                + "," + PHASE_NAMES[p] + "," + h.getCount()
+                                + "," + ms(h.getMin()) + ","
+                                + ms((long)h.getMean()) + ","
+                                + ms(h.getPercentile(50)) + ","
+                                + ms(h.getPercentile(90)) + ","
+                                + ms(h.getPercentile(99)) + ","
+                                + ms(h.getPercentile(99.9)) + ","
+                                + ms(h.getMax()) + ","
+                                + String.format(Locale.ROOT, "%.3f",
+                                                e.getCount() / seconds)
+                                + "," + e.m_chars);
+                }
+            }
+        }
+    }
+
+    /** Writes the same data as writeCsv() as a JSON object keyed by
+        engine and command. */
+    public static void writeJson(PrintStream out, Vector<String> engines,
+                                 Vector<CommandMetrics> metrics)
+    {
+        out.println("{");
+        for (int i = 0; i < engines.size(); ++i)
+        {
+            CommandMetrics m = metrics.get(i);
+            out.println("  " + json(engines.get(i)) + ": {");
+            out.println("    \"elapsed_ms\": " + m.getElapsed() + ",");
+            out.println("    \"commands\": {");
+            Vector<Entry> entries = m.getEntries();
+            for (int j = 0; j < entries.size(); ++j)
+            {
+                Entry e = entries.get(j);
+                out.println("      " + json(e.m_command) + ": {");
+                out.println("        \"response_chars\": " + e.m_chars + ",");
+                for (int p = 0; p < PHASE_NAMES.length; ++p)
+                {
+                    LatencyHistogram h = e.getPhase(p);
+                    out.println("        \"" + PHASE_NAMES[p] + "\": {"
+                                + "\"count\": " + h.getCount()
+                                + ", \"min\": " + ms(h.getMin())
+                                + ", \"mean\": " + ms((long)h.getMean())
+                                + ", \"p50\": " + ms(h.getPercentile(50))
+                                + ", \"p90\": " + ms(h.getPercentile(90))
+                                + ", \"p99\": " + ms(h.getPercentile(99))
+                                + ", \"p99.9\": " + ms(h.getPercentile(99.9))
+                                + ", \"max\": " + ms(h.getMax()) + "}"
+                                + (p + 1 < PHASE_NAMES.length ? "," : ""));
+                }
+                out.println("      }" + (j + 1 < entries.size() ? "," : ""));
+            }
+            out.println("    }");
+            out.println("  }" + (i + 1 < engines.size() ? "," : ""));
+        }
+        out.println("}");
+    }
+
+    /** Formats microseconds as milliseconds. */
+    public static String ms(long micros)
+    {
+        return String.format(Locale.ROOT, "%.3f", micros / 1000.0);
+    }
+
+    private static String csv(String s)
+    {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0)
+            return s;
+        return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String json(String s)
+    {
+        StringBuilder b = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); ++i)
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                b.append('\\').append(c);
+            else if (c < ' ')
+                b.append(String.format("\\u%04x", (int)c));
+            else
+                b.append(c);
+        }
+        return b.append('"').toString();
+    }
+
+    private final TreeMap<String, Entry> m_entries;
+    private long m_start;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,133 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import hexgui.hex.HexColor;
+
+import java.util.EnumMap;
+import java.util.Vector;
+
+//----------------------------------------------------------------------------
+
+/** Keeps track of the connected engines and the role each one plays.
+
+    <p>The first engine connected is the primary engine.  A role that
+    has not been assigned explicitly falls back to the primary engine,
+    so with a single engine attached everything behaves as if there
+    were no roles at all.
+*/
+public class EngineManager
+{
+    /** The jobs an engine can be given. */
+    public enum Role
+    {
+        BLACK,
+
+        WHITE,
+
+        ANALYZER
+    }
+
+    public EngineManager()
+    {
+        m_sessions = new Vector<EngineSession>();
+        m_roles = new EnumMap<Role, EngineSession>(Role.class);
+    }
+
+    /** Returns the player role for the given color. */
+    public static Role playerRole(HexColor color)
+    {
+        return (color == HexColor.WHITE) ? Role.WHITE : Role.BLACK;
+    }
+
+    public synchronized void add(EngineSession session)
+    {
+        m_sessions.add(session);
+    }
+
+    /** Removes the session and clears any roles assigned to it. */
+    public synchronized void remove(EngineSession session)
+    {
+        m_sessions.remove(session);
+        for (Role role : Role.values())
+            if (m_roles.get(role) == session)
+                m_roles.remove(role);
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return m_sessions.isEmpty();
+    }
+
+    /** Returns a copy of the list of sessions. */
+    public synchronized Vector<EngineSession> getSessions()
+    {
+        return new Vector<EngineSession>(m_sessions);
+    }
+
+    /** Returns the primary engine, or null if none is connected. */
+    public synchronized EngineSession getPrimary()
+    {
+        if (m_sessions.isEmpty())
+            return null;
+        return m_sessions.get(0);
+    }
+
+    /** Returns the engine for the given role, falling back to the
+        primary engine if the role is unassigned. */
+    public synchronized EngineSession get(Role role)
+    {
+        EngineSession session = m_roles.get(role);
+        if (session != null)
+            return session;
+        return getPrimary();
+    }
+
+    /** True if the role was given to an engine explicitly. */
+    public synchronized boolean isAssigned(Role role)
+    {
+        return m_roles.containsKey(role);
+    }
+
+    /** Assigns a role; a null session unassigns it. */
+    public synchronized void assign(Role role, EngineSession session)
+    {
+        if (session == null)
+            m_roles.remove(role);
+        else
+        {
+            assert m_sessions.contains(session);
+            m_roles.put(role, session);
+        }
+    }
+
+    /** Queues a command on every engine.  Used for commands that keep
+        the engines' boards in sync with the GUI. */
+    public void sendToAll(String cmd)
+    {
+        for (EngineSession session : getSessions())
+            session.sendCommand(cmd, null);
+    }
+
+    /** Queues a command on every engine except <code>skip</code>. */
+    public void sendToOthers(EngineSession skip, String cmd)
+    {
+        for (EngineSession session : getSessions())
+            if (session != skip)
+                session.sendCommand(cmd, null);
+    }
+
+    /** Sends an interrupt to every engine that is busy. */
+    public void interruptAll()
+    {
+        for (EngineSession session : getSessions())
+            session.interrupt();
+    }
+
+    private final Vector<EngineSession> m_sessions;
+    private final EnumMap<Role, EngineSession> m_roles;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,219 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import hexgui.util.ProcessLauncher;
+import hexgui.util.RingLog;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+//----------------------------------------------------------------------------
+
+/** Engines started ahead of time, so that connecting to one does not
+    have to wait for it to load.
+
+    <p>For every command line handed to <code>warm()</code> or
+    <code>take()</code>, the pool keeps a number of instances running
+    that have already answered the probe commands (see
+    <code>ProbeCache.probe()</code>).  Taking an instance starts a
+    replacement in the background.  Instances are started on as many
+    low-priority daemon threads as instances are kept per command
+    line, so taking all ready instances at once refills the pool in
+    about the time it takes to start one.  Thread-safe.
+*/
+public class EnginePool
+{
+    /** A started and probed engine. */
+    public static class Instance
+    {
+        public Process getProcess() { return m_process; }
+
+        /** The engine's standard error since it was started. */
+        public RingLog getErrorLog() { return m_log; }
+
+        /** The engine's answers to the probe commands. */
+        public ProbeCache.Entry getProbe() { return m_probe; }
+
+        private Instance(Process process, RingLog log,
+                         ProbeCache.Entry probe)
+        {
+            m_process = process;
+            m_log = log;
+            m_probe = probe;
+        }
+
+        private final Process m_process;
+        private final RingLog m_log;
+        private final ProbeCache.Entry m_probe;
+    }
+
+    /** @param size number of instances kept ready per command line.
+        @param logCapacity capacity of each instance's error log. */
+    public EnginePool(int size, int logCapacity)
+    {
+        m_size = size;
+        m_logCapacity = logCapacity;
+        m_ready = new HashMap<String, Vector<Instance>>();
+        m_starting = new HashMap<String, Integer>();
+        m_executor = Executors.newFixedThreadPool(Math.max(1, size),
+                                                  new ThreadFactory()
+            {
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "engine-pool");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+    }
+
+    /** Starts filling the pool for a command line. */
+    public synchronized void warm(String command, String working,
+                                  String environment)
+    {
+        refill(command, working, environment);
+    }
+
+    /** Takes a ready instance and starts its replacement.
+        @return the instance, or null if none is ready yet. */
+    public synchronized Instance take(String command, String working,
+                                      String environment)
+    {
+        Vector<Instance> ready = getReady(key(command, working, environment));
+        Instance instance = null;
+        while (instance == null && !ready.isEmpty())
+        {
+            instance = ready.remove(0);
+            if (!instance.m_process.isAlive())
+                instance = null;
+        }
+        refill(command, working, environment);
+        return instance;
+    }
+
+    /** Kills all idle instances and stops refilling. */
+    public synchronized void shutdown()
+    {
+        m_executor.shutdownNow();
+        for (Vector<Instance> ready : m_ready.values())
+            for (Instance instance : ready)
+                instance.m_process.destroy();
+        m_ready.clear();
+    }
+
+    //------------------------------------------------------------
+
+    private static String key(String command, String working,
+                              String environment)
+    {
+        return command + "\n" + working + "\n" + environment;
+    }
+
+    private Vector<Instance> getReady(String key)
+    {
+        Vector<Instance> ready = m_ready.get(key);
+        if (ready == null)
+        {
+            ready = new Vector<Instance>();
+            m_ready.put(key, ready);
+        }
+        return ready;
+    }
+
+    /** Schedules starting as many instances as are missing. */
+    private void refill(final String command, final String working,
+                        final String environment)
+    {
+        if (m_executor.isShutdown())
+            return;
+        final String key = key(command, working, environment);
+        Integer starting = m_starting.get(key);
+        int n = (starting == null) ? 0 : starting.intValue();
+        for (int i = getReady(key).size() + n; i < m_size; ++i)
+        {
+            ++n;
+            m_executor.execute(new Runnable() {
+                    public void run() {
+                        Instance instance
+                            = start(command, working, environment);
+                        added(key, instance);
+                    } });
+        }
+        m_starting.put(key, Integer.valueOf(n));
+    }
+
+    private synchronized void added(String key, Instance instance)
+    {
+        m_starting.put(key, Integer.valueOf(m_starting.get(key) - 1));
+        if (instance == null)
+            return;
+        if (m_executor.isShutdown())
+            instance.m_process.destroy();
+        else
+            getReady(key).add(instance);
+    }
+
+    /** Starts and probes one instance; called on the pool's thread.
+        @return the instance, or null if it could not be started. */
+    private Instance start(String command, String working,
+                           String environment)
+    {
+        RingLog log = new RingLog(m_logCapacity);
+        Process process;
+        try {
+            process = ProcessLauncher.start(command, working, environment,
+                                            log);
+        }
+        catch (IOException e)
+        {
+            System.out.println("engine-pool: could not start '" + command
+                               + "': " + e.getMessage());
+            return null;
+        }
+        HtpController htp = new HtpController(process.getInputStream(),
+                                              process.getOutputStream(),
+                                              QUIET, QUIET);
+        try {
+            return new Instance(process, log, ProbeCache.probe(htp));
+        }
+        catch (HtpError e)
+        {
+            System.out.println("engine-pool: '" + command + "': "
+                               + e.getMessage());
+            process.destroy();
+            return null;
+        }
+    }
+
+    /** Ignores the traffic of the probe commands. */
+    private static class Quiet
+        implements HtpController.IOInterface, HtpController.GuiFxCallback
+    {
+        public void sentCommand(String str) { }
+        public void receivedResponse(String str) { }
+        public void receivedError(String str) { }
+        public void guifx(String cmd) { }
+    }
+
+    private static final Quiet QUIET = new Quiet();
+
+    private final int m_size;
+    private final int m_logCapacity;
+    private final ExecutorService m_executor;
+
+    /** Ready instances by command line. */
+    private final HashMap<String, Vector<Instance>> m_ready;
+
+    /** Number of instances being started, by command line. */
+    private final HashMap<String, Integer> m_starting;
+}
+
+//----------------------------------------------------------------------------
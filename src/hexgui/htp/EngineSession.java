@@ -0,0 +1,591 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import hexgui.util.ProcessUtil;
+import hexgui.util.RingLog;
+
+import java.awt.Dimension;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+//----------------------------------------------------------------------------
+
+/** A connection to a single HTP engine.
+
+    <p>Each session owns its HtpController, the process or remote connection the
+    engine is attached through, and a command queue that is served by
+    its own thread.  Several sessions can therefore run at the same
+    time without waiting on each other.  The session also remembers
+    which board size the engine was last set up for, so the caller
+    can tell whether the engine's board is in sync with the GUI.
+*/
+public class EngineSession
+    implements EngineWatchdog.Watched
+{
+    /** Callback for the progress of queued commands.  Methods are
+        called from the session's command thread. */
+    public interface Listener
+    {
+        void commandStarted(EngineSession session, String cmd);
+        void commandFinished(EngineSession session, String cmd);
+        void commandFailed(EngineSession session, String cmd, HtpError e);
+    }
+
+    /** A command that changes the engine's board, and the command
+        that changes it back. */
+    public static class Step
+    {
+        public Step(String command, String inverse)
+        {
+            m_command = command;
+            m_inverse = inverse;
+        }
+
+        private final String m_command;
+        private final String m_inverse;
+    }
+
+    //------------------------------------------------------------
+
+    /** Constructor.  The command thread is not started until
+        <code>start()</code> is called, so that the caller can talk
+        to the engine synchronously first.
+        @param label name used in log messages until the engine's
+        own name is known. */
+    public EngineSession(String label, InputStream in, OutputStream out,
+                         HtpController.IOInterface io,
+                         final HtpController.GuiFxCallback guifx,
+                         Listener listener)
+    {
+        m_label = label;
+        m_name = label;
+        m_version = "";
+        m_io = io;
+        // Background jobs search other positions than the one shown,
+        // so their gfx output must not be drawn on the board.
+        m_guifx = new HtpController.GuiFxCallback()
+            {
+                public void guifx(String fx)
+                {
+                    if (!m_inBackground)
+                        guifx.guifx(fx);
+                }
+            };
+        m_controller = new HtpController(in, out, io, m_guifx);
+        m_listener = listener;
+        m_queue = new ArrayBlockingQueue<HtpCommand>(256);
+        m_analyzeCommands = new ArrayList<AnalyzeDefinition>();
+        m_boardSizeSupported = true;
+        m_metrics = new CommandMetrics();
+    }
+
+    /** Starts the thread serving the command queue. */
+    public void start()
+    {
+        m_thread = new Thread(new CommandHandler(), "htp-" + m_label);
+        m_thread.setDaemon(true);
+        m_thread.start();
+    }
+
+    public HtpController getController() { return m_controller; }
+
+    /** Talks to the engine through new streams from now on, for
+        example after its process was restarted.  The commands still
+        in the queue are sent to the new connection. */
+    public void replaceConnection(InputStream in, OutputStream out)
+    {
+        if (m_recorder != null)
+        {
+            in = m_recorder.recordResponses(in);
+            out = m_recorder.recordCommands(out);
+        }
+        m_controller = new HtpController(in, out, m_io, m_guifx);
+        m_killed = false;
+    }
+
+    /** Standard error of the engine's process, or null if it is not
+        kept. */
+    public RingLog getErrorLog() { return m_errorLog; }
+
+    public void setErrorLog(RingLog log) { m_errorLog = log; }
+
+    /** Sets the recorder the session's streams were wrapped with.  It
+        is closed with the session, and new connections are recorded
+        too. */
+    public void setRecorder(SessionRecorder recorder)
+    {
+        m_recorder = recorder;
+    }
+
+    /** Timing of the commands run by the session's thread. */
+    public CommandMetrics getMetrics() { return m_metrics; }
+
+    public void setProcess(Process process) { m_process = process; }
+    public Process getProcess() { return m_process; }
+
+    public void setConnection(RemoteConnection connection)
+    {
+        m_connection = connection;
+    }
+
+    public RemoteConnection getConnection() { return m_connection; }
+
+    public void setName(String name) { m_name = name; }
+    public String getName() { return m_name; }
+
+    public void setVersion(String version) { m_version = version; }
+    public String getVersion() { return m_version; }
+
+    public void setAnalyzeCommands(ArrayList<AnalyzeDefinition> commands)
+    {
+        m_analyzeCommands = commands;
+    }
+
+    public ArrayList<AnalyzeDefinition> getAnalyzeCommands()
+    {
+        return m_analyzeCommands;
+    }
+
+    /** Name and version, as shown in window titles. */
+    public String toString()
+    {
+        if (m_version.equals(""))
+            return m_name;
+        return m_name + " " + m_version;
+    }
+
+    public boolean isConnected()
+    {
+        return m_controller.connected();
+    }
+
+    //------------------------------------------------------------
+
+    /** Records the board size last sent to the engine.  Called when
+        the boardsize command is queued; the engine's board is
+        considered out of sync until this has happened. */
+    public void setBoardSize(Dimension size)
+    {
+        m_boardSize = new Dimension(size);
+    }
+
+    public Dimension getBoardSize()
+    {
+        return m_boardSize;
+    }
+
+    /** True if the engine has been set up for a board of the given
+        size. */
+    public boolean isSynced(Dimension size)
+    {
+        return m_boardSize != null && m_boardSize.equals(size);
+    }
+
+    public void setBoardSizeSupported(boolean f)
+    {
+        m_boardSizeSupported = f;
+    }
+
+    public boolean isBoardSizeSupported()
+    {
+        return m_boardSizeSupported;
+    }
+
+    //------------------------------------------------------------
+
+    /** Adds a command to the queue.  The callback, if not null, is
+        run in the session's thread after the response arrives.
+        Background jobs still waiting are dropped, and one that is
+        running is stopped, so that the command does not have to wait
+        for them. */
+    public void sendCommand(String cmd, Runnable callback)
+    {
+        enqueue(new HtpCommand(cmd, callback));
+    }
+
+    /** True while a background job is being run; gfx output is not
+        passed on to the callback meanwhile. */
+    public boolean isInBackground()
+    {
+        return m_inBackground;
+    }
+
+    /** Queues a job that uses the engine while it would otherwise be
+        idle: the steps are sent, then the command, then the inverses
+        of the steps in reverse order, so that the engine's board ends
+        up as it was.  The callback is run in the session's thread if
+        the command succeeded and the job was not dropped.  Jobs are
+        dropped as soon as another command is queued; the inverses of
+        the steps already sent are always sent.  Errors are only
+        logged, and listeners are not told about the job's commands. */
+    public void sendBackground(Vector<Step> steps, String cmd,
+                               Runnable callback)
+    {
+        HtpCommand job = new HtpCommand(cmd, callback);
+        job.steps = steps;
+        if (!m_queue.offer(job))
+            System.out.println(m_label + ": queue full, background '"
+                               + cmd.trim() + "' not queued");
+    }
+
+    /** Removes a command from the queue before it is sent.  The
+        command is identified by the callback it was queued with.
+        @return false if the command was not in the queue any more. */
+    public boolean cancel(Runnable callback)
+    {
+        for (HtpCommand cmd : m_queue)
+        {
+            if (cmd.callback == callback && m_queue.remove(cmd))
+            {
+                System.out.println(m_label + ": cancel '" + cmd.str.trim()
+                                   + "'");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Adds a command that is not a background job to the queue, and
+        drops the background jobs.  The command is queued first, so
+        that a job the command thread has just taken either sees it in
+        the queue or is already published in m_job. */
+    private void enqueue(HtpCommand cmd)
+    {
+        try {
+            System.out.println(m_label + ": queue '" + cmd.str.trim() + "'");
+            m_queue.put(cmd);
+        }
+        catch (InterruptedException e)
+        {
+            System.out.println("Interrupted while adding!");
+        }
+        dropBackground();
+    }
+
+    /** True if a command that is not a background job is waiting. */
+    private boolean hasQueuedCommand()
+    {
+        for (HtpCommand cmd : m_queue)
+            if (cmd.steps == null)
+                return true;
+        return false;
+    }
+
+    /** Takes the background jobs out of the queue and stops the one
+        running, interrupting its command if that is being sent. */
+    private void dropBackground()
+    {
+        for (HtpCommand cmd : m_queue)
+            if (cmd.steps != null)
+                m_queue.remove(cmd);
+        HtpCommand job = m_job;
+        if (job != null && !job.dropped)
+        {
+            job.dropped = true;
+            if (job.str == m_current)
+                interrupt();
+        }
+    }
+
+    /** Sends '# interrupt' if a command is currently running. */
+    public void interrupt()
+    {
+        if (m_controller.cmdInProgress())
+            m_controller.interrupt();
+    }
+
+    /** Asks the engine to quit and releases the process or connection
+        once quit was sent, killing the process if it does not exit
+        within a few seconds.  Returns at once; the waiting is done in
+        a thread of its own. */
+    public void close()
+    {
+        final HtpCommand quit = new HtpCommand("quit\n", null);
+        quit.done = new CountDownLatch(1);
+        enqueue(quit);
+        Thread closer = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    finishClose(quit.done);
+                }
+            }, "close-" + m_label);
+        closer.start();
+    }
+
+    /** Waits for quit to be handled, then waits for the process to
+        exit and releases the process or connection. */
+    private void finishClose(CountDownLatch quitDone)
+    {
+        try {
+            if (!quitDone.await(QUIT_TIMEOUT, TimeUnit.MILLISECONDS))
+                System.out.println(m_label + ": quit not sent in time.");
+        }
+        catch (InterruptedException e)
+        {
+        }
+        Process process = m_process;
+        if (process != null)
+        {
+            if (!ProcessUtil.waitForExit(process, QUIT_TIMEOUT))
+            {
+                System.out.println(m_label + ": killing process.");
+                process.destroy();
+            }
+            m_process = null;
+        }
+        RemoteConnection connection = m_connection;
+        if (connection != null)
+        {
+            connection.close();
+            m_connection = null;
+        }
+        if (m_thread != null)
+            m_thread.interrupt();
+        if (m_recorder != null)
+            m_recorder.close();
+    }
+
+    /** EngineWatchdog.Watched */
+    public String getCurrentCommand() { return m_current; }
+
+    public long getCommandStarted() { return m_started; }
+
+    /** Kills the process or drops the connection at once, making
+        the command in progress fail.  The command thread keeps
+        running, so the session can be given a new connection. */
+    public void kill()
+    {
+        m_killed = true;
+        if (m_process != null)
+            m_process.destroyForcibly();
+        else if (m_connection != null)
+            m_connection.close();
+    }
+
+    /** True if kill() was called since the last connection was
+        made. */
+    public boolean wasKilled() { return m_killed; }
+
+    /** Kills the engine's process without talking to it. */
+    public void destroy()
+    {
+        if (m_process != null)
+            m_process.destroy();
+        if (m_thread != null)
+            m_thread.interrupt();
+    }
+
+    //------------------------------------------------------------
+
+    /** A (command, callback) pair. */
+    private static class HtpCommand
+    {
+        public HtpCommand(String cmd, Runnable callback)
+        {
+            this.str = cmd;
+            this.callback = callback;
+            this.queued = System.nanoTime();
+        }
+
+        public String str;
+        public Runnable callback;
+        public long queued;
+
+        /** Steps of a background job, null for other commands. */
+        public Vector<Step> steps;
+
+        public volatile boolean dropped;
+
+        /** Counted down when the command was handled, whether it was
+            sent or not; may be null. */
+        public CountDownLatch done;
+    }
+
+    /** Waits for commands to be added to the queue, then processes
+        each in turn. */
+    private class CommandHandler
+        implements Runnable
+    {
+        public void run()
+        {
+            while (true)
+            {
+                HtpCommand cmd = null;
+                try
+                {
+                    // block until queue contains an element
+                    cmd = m_queue.take();
+                }
+                catch (InterruptedException e)
+                {
+                    System.out.println(m_label + ": command thread done.");
+                    return;
+                }
+
+                if (cmd.steps != null)
+                {
+                    // Publish the job before looking for commands
+                    // queued after it, see enqueue().
+                    m_job = cmd;
+                    if (hasQueuedCommand())
+                        cmd.dropped = true;
+                }
+                try {
+                    HtpController controller = m_controller;
+                    if (!controller.connected())
+                    {
+                        System.out.println("Not sending to disconnected: '"
+                                           + cmd.str.trim() + "'");
+                        continue;
+                    }
+                    if (cmd.steps != null)
+                    {
+                        runBackground(controller, cmd);
+                        continue;
+                    }
+
+                    m_listener.commandStarted(EngineSession.this, cmd.str);
+                    try {
+                        long wait = System.nanoTime() - cmd.queued;
+                        m_started = System.currentTimeMillis();
+                        m_current = cmd.str;
+                        try {
+                            controller.sendCommand(cmd.str);
+                        }
+                        finally
+                        {
+                            m_current = null;
+                        }
+                        m_metrics.record(cmd.str, wait,
+                                         controller.getWriteTime(),
+                                         controller.getThinkTime(),
+                                         controller.getParseTime(),
+                                         controller.getResponse().length());
+                        if (cmd.callback != null)
+                            cmd.callback.run();
+                    }
+                    catch (HtpError e) {
+                        System.out.println("Caught error '"
+                                           + e.getMessage() + "'");
+                        m_listener.commandFailed(EngineSession.this, cmd.str, e);
+                    }
+                    m_listener.commandFinished(EngineSession.this, cmd.str);
+                }
+                finally
+                {
+                    if (cmd.steps != null)
+                    {
+                        m_job = null;
+                        m_inBackground = false;
+                    }
+                    if (cmd.done != null)
+                        cmd.done.countDown();
+                }
+            }
+        }
+    }
+
+    /** Runs a background job.  Stops after the step or command
+        during which the job was dropped.  The command thread clears
+        m_inBackground when it returns. */
+    private void runBackground(HtpController controller, HtpCommand job)
+    {
+        m_inBackground = true;
+        int sent = 0;
+        try {
+            while (sent < job.steps.size() && !job.dropped)
+            {
+                send(controller, job.steps.get(sent).m_command);
+                ++sent;
+            }
+            if (!job.dropped)
+            {
+                send(controller, job.str);
+                if (!job.dropped && job.callback != null)
+                    job.callback.run();
+            }
+        }
+        catch (HtpError e)
+        {
+            System.out.println(m_label + ": background job failed: "
+                               + e.getMessage());
+        }
+        finally
+        {
+            m_job = null;
+        }
+        for (int i = sent - 1; i >= 0; --i)
+        {
+            try {
+                send(controller, job.steps.get(i).m_inverse);
+            }
+            catch (HtpError e)
+            {
+                System.out.println(m_label + ": could not restore board: "
+                                   + e.getMessage());
+            }
+        }
+    }
+
+    /** Sends one command of a background job. */
+    private void send(HtpController controller, String cmd)
+        throws HtpError
+    {
+        m_started = System.currentTimeMillis();
+        m_current = cmd;
+        try {
+            controller.sendCommand(cmd);
+        }
+        finally
+        {
+            m_current = null;
+        }
+    }
+
+    private static final long QUIT_TIMEOUT = 5000;
+
+    private final String m_label;
+    private final HtpController.IOInterface m_io;
+    private final HtpController.GuiFxCallback m_guifx;
+    private volatile HtpController m_controller;
+    private final Listener m_listener;
+    private final ArrayBlockingQueue<HtpCommand> m_queue;
+    private final CommandMetrics m_metrics;
+    private Thread m_thread;
+
+    private volatile Process m_process;
+    private volatile RemoteConnection m_connection;
+    private RingLog m_errorLog;
+    private SessionRecorder m_recorder;
+
+    private String m_name;
+    private String m_version;
+    private ArrayList<AnalyzeDefinition> m_analyzeCommands;
+
+    /** Background job being run by the command thread, or null.  Set
+        by the command thread as soon as it takes the job. */
+    private volatile HtpCommand m_job;
+
+    /** True from the start of a background job until the inverses of
+        its steps are sent. */
+    private volatile boolean m_inBackground;
+
+    /** Command being sent by the command thread, for the watchdog. */
+    private volatile String m_current;
+    private volatile long m_started;
+    private volatile boolean m_killed;
+
+    private Dimension m_boardSize;
+    private boolean m_boardSizeSupported;
+}
+
+//----------------------------------------------------------------------------
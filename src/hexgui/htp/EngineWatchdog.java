@@ -0,0 +1,176 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+//----------------------------------------------------------------------------
+
+/** Watches engines for commands that take longer than allowed.
+
+    <p>Deadlines are given per command name, as a list like
+    <code>genmove=300,play=10,*=0</code> with times in seconds; the
+    name <code>*</code> sets the deadline of all other commands, and 0
+    means no deadline.  When a command runs past its deadline, the
+    watchdog sends <code>#&nbsp;interrupt</code>.  If the command is
+    still running after the grace period, the engine is killed.  The
+    listener is told about both, so that the owner can start the
+    engine again and report the incident.
+*/
+public class EngineWatchdog
+    implements Runnable
+{
+    /** An engine whose commands can be watched. */
+    public interface Watched
+    {
+        /** The command currently running, or null if idle. */
+        String getCurrentCommand();
+
+        /** System.currentTimeMillis() when the current command was
+            sent. */
+        long getCommandStarted();
+
+        void interrupt();
+
+        /** Stops the engine forcibly. */
+        void kill();
+    }
+
+    /** Called from the watchdog's thread. */
+    public interface Listener
+    {
+        void commandInterrupted(Watched engine, String cmd, long elapsed);
+        void engineKilled(Watched engine, String cmd, long elapsed);
+    }
+
+    //------------------------------------------------------------
+
+    /** Constructor; starts the watchdog thread.
+        @param deadlines deadlines in the format described above.
+        @param grace milliseconds between the interrupt and killing
+        the engine.
+        @throws NumberFormatException if a deadline is not a number. */
+    public EngineWatchdog(String deadlines, long grace, Listener listener)
+    {
+        m_deadlines = parseDeadlines(deadlines);
+        m_grace = grace;
+        m_listener = listener;
+        m_watched = new Vector<Watched>();
+        m_interrupted = new HashMap<Watched, Long>();
+        Thread thread = new Thread(this, "htp-watchdog");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void watch(Watched engine)
+    {
+        m_watched.add(engine);
+    }
+
+    public void unwatch(Watched engine)
+    {
+        m_watched.remove(engine);
+    }
+
+    /** Returns the deadline for a command in milliseconds, 0 if it
+        has none. */
+    public long getDeadline(String cmd)
+    {
+        Long deadline = m_deadlines.get(CommandMetrics.commandName(cmd));
+        if (deadline == null)
+            deadline = m_deadlines.get("*");
+        return (deadline == null) ? 0 : deadline.longValue();
+    }
+
+    public void run()
+    {
+        while (true)
+        {
+            try {
+                Thread.sleep(CHECK_INTERVAL);
+            }
+            catch (InterruptedException e)
+            {
+                return;
+            }
+            for (Watched engine : new Vector<Watched>(m_watched))
+                check(engine);
+        }
+    }
+
+    //------------------------------------------------------------
+
+    private void check(Watched engine)
+    {
+        String cmd = engine.getCurrentCommand();
+        long started = engine.getCommandStarted();
+        Long interrupted = m_interrupted.get(engine);
+        if (interrupted != null && interrupted.longValue() != started)
+        {
+            // the command we interrupted has finished
+            m_interrupted.remove(engine);
+            interrupted = null;
+        }
+        if (cmd == null)
+            return;
+        long deadline = getDeadline(cmd);
+        if (deadline == 0)
+            return;
+        long elapsed = System.currentTimeMillis() - started;
+        if (elapsed < deadline)
+            return;
+        if (interrupted == null)
+        {
+            System.out.println("watchdog: '" + cmd.trim() + "' running for "
+                               + elapsed + " ms, interrupting.");
+            m_interrupted.put(engine, Long.valueOf(started));
+            engine.interrupt();
+            m_listener.commandInterrupted(engine, cmd, elapsed);
+        }
+        else if (elapsed >= deadline + m_grace)
+        {
+            System.out.println("watchdog: '" + cmd.trim() + "' running for "
+                               + elapsed + " ms, killing engine.");
+            m_interrupted.remove(engine);
+            m_watched.remove(engine);
+            engine.kill();
+            m_listener.engineKilled(engine, cmd, elapsed);
+        }
+    }
+
+    private static HashMap<String, Long> parseDeadlines(String spec)
+    {
+        HashMap<String, Long> deadlines = new HashMap<String, Long>();
+        for (String item : spec.split(","))
+        {
+            item = item.trim();
+            if (item.equals(""))
+                continue;
+            int eq = item.indexOf('=');
+            if (eq < 0)
+                throw new NumberFormatException("Missing '=' in '" + item
+                                                + "'");
+            double seconds
+                = Double.parseDouble(item.substring(eq + 1).trim());
+            deadlines.put(item.substring(0, eq).trim(),
+                          Long.valueOf((long)(1000 * seconds)));
+        }
+        return deadlines;
+    }
+
+    private static final long CHECK_INTERVAL = 250;
+
+    private final HashMap<String, Long> m_deadlines;
+    private final long m_grace;
+    private final Listener m_listener;
+    private final Vector<Watched> m_watched;
+
+    /** Start time of the command each engine was interrupted in.
+        Only used by the watchdog thread. */
+    private final HashMap<Watched, Long> m_interrupted;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,193 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+//----------------------------------------------------------------------------
+
+/** HTP engine running in a thread of its own, connected through pipes.
+
+    <p>Meant for benchmarks and for trying out the engine code without
+    a real engine.  Every command is answered after a configurable
+    delay with a response of configurable size, or with a canned
+    response set with <code>setResponse()</code>.  Before answering,
+    the engine can stream <code>gogui-gfx:</code> messages in the
+    "ab" form the board window shows at a given rate, and it can be told to fail a share of the commands or to
+    hang up after a number of them.  The settings must be made before
+    <code>start()</code>.
+*/
+public class FakeEngine
+    implements Runnable
+{
+    public FakeEngine() throws IOException
+    {
+        m_toEngine = new PipedInputStream(PIPE_SIZE);
+        m_fromGui = new PipedOutputStream(m_toEngine);
+        m_toGui = new PipedInputStream(PIPE_SIZE);
+        m_fromEngine = new PipedOutputStream(m_toGui);
+        m_responses = new HashMap<String, String>();
+        m_responses.put("name", "FakeEngine");
+        m_responses.put("version", "1.0");
+        m_responses.put("hexgui-analyze_commands", "");
+        m_random = new Random(1);
+        setResponseSize(0);
+    }
+
+    /** Stream the GUI reads the engine's responses from. */
+    public InputStream getInputStream() { return m_toGui; }
+
+    /** Stream the GUI writes its commands to. */
+    public OutputStream getOutputStream() { return m_fromGui; }
+
+    /** Time the engine takes for every command. */
+    public void setLatency(long micros) { m_latency = micros; }
+
+    /** Size in characters of the response to commands without a
+        canned response.  The response is split into lines. */
+    public void setResponseSize(int chars)
+    {
+        StringBuilder b = new StringBuilder(chars + chars / LINE_LENGTH);
+        for (int i = 0; i < chars; ++i)
+        {
+            if (i > 0 && i % LINE_LENGTH == 0)
+                b.append('\n');
+            b.append((char)('a' + i % 26));
+        }
+        m_payload = b.toString();
+    }
+
+    /** Sets the response to a command, without the leading "= ". */
+    public void setResponse(String command, String response)
+    {
+        m_responses.put(command, response);
+    }
+
+    /** Number of gogui-gfx messages sent before each response, and the
+        time between them. */
+    public void setGfx(int count, long intervalMicros)
+    {
+        m_gfxCount = count;
+        m_gfxInterval = intervalMicros;
+    }
+
+    /** Share of the commands answered with an error. */
+    public void setFailureRate(double rate) { m_failureRate = rate; }
+
+    /** Closes the connection after the given number of commands;
+        0 means never. */
+    public void setDisconnectAfter(int commands)
+    {
+        m_disconnectAfter = commands;
+    }
+
+    /** Number of commands answered so far. */
+    public int getNumCommands() { return m_numCommands; }
+
+    public void start()
+    {
+        Thread thread = new Thread(this, "fake-engine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run()
+    {
+        BufferedReader in
+            = new BufferedReader(new InputStreamReader(m_toEngine));
+        PrintStream out = new PrintStream(m_fromEngine, false);
+        try {
+            while (true)
+            {
+                String line = in.readLine();
+                if (line == null)
+                    break;
+                line = line.trim();
+                if (line.equals("") || line.startsWith("#"))
+                    continue;
+                if (!answer(line, out))
+                    break;
+            }
+        }
+        catch (IOException e)
+        {
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    //------------------------------------------------------------
+
+    /** Answers one command.
+        @return false if the engine should quit. */
+    private boolean answer(String line, PrintStream out)
+    {
+        String command = CommandMetrics.commandName(line);
+        for (int i = 0; i < m_gfxCount; ++i)
+        {
+            pause(m_gfxInterval);
+            out.print("gogui-gfx:\nab VAR B a1 W b2 LABEL a" + (i % 9 + 1)
+                      + " " + i + " TEXT " + m_numCommands + "\n\n");
+            out.flush();
+        }
+        pause(m_latency);
+        ++m_numCommands;
+        if (command.equals("quit"))
+        {
+            out.print("= \n\n");
+            return false;
+        }
+        if (m_failureRate > 0 && m_random.nextDouble() < m_failureRate)
+            out.print("? injected failure\n\n");
+        else
+        {
+            String response = m_responses.get(command);
+            if (response == null)
+                response = m_payload;
+            out.print("= " + response + "\n\n");
+        }
+        out.flush();
+        return (m_disconnectAfter == 0 || m_numCommands < m_disconnectAfter);
+    }
+
+    private static void pause(long micros)
+    {
+        if (micros > 0)
+            LockSupport.parkNanos(1000 * micros);
+    }
+
+    private static final int PIPE_SIZE = 1 << 16;
+
+    private static final int LINE_LENGTH = 64;
+
+    private final PipedInputStream m_toEngine;
+    private final PipedOutputStream m_fromGui;
+    private final PipedInputStream m_toGui;
+    private final PipedOutputStream m_fromEngine;
+    private final HashMap<String, String> m_responses;
+    private final Random m_random;
+
+    private String m_payload;
+    private long m_latency;
+    private int m_gfxCount;
+    private long m_gfxInterval;
+    private double m_failureRate;
+    private int m_disconnectAfter;
+    private volatile int m_numCommands;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,289 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.swing.SwingUtilities;
+
+//----------------------------------------------------------------------------
+
+/** Measures the engine pipeline against FakeEngine.
+
+    <p>Each scenario sends a number of commands through HtpController
+    directly, or through an EngineSession's command thread, and records
+    the time from sending (or queueing) a command to the end of its
+    callback.  The results can be saved and compared with an earlier
+    run, so that a slowdown in the pipeline shows up without a real
+    engine.
+
+    <p>If a gfx display is given, one more scenario has the engine
+    stream gogui-gfx messages at a given rate while it works, and the
+    display shows them the way the board window does.
+*/
+public class HtpBenchmark
+{
+    /** Result of one scenario. */
+    public static class Result
+    {
+        public Result(String name, int commands, long nanos,
+                      LatencyHistogram latency)
+        {
+            m_name = name;
+            m_commands = commands;
+            m_nanos = nanos;
+            m_latency = latency;
+        }
+
+        public String getName() { return m_name; }
+
+        public double getCommandsPerSecond()
+        {
+            return m_commands / (m_nanos / 1e9);
+        }
+
+        /** Latency in microseconds. */
+        public LatencyHistogram getLatency() { return m_latency; }
+
+        private final String m_name;
+        private final int m_commands;
+        private final long m_nanos;
+        private final LatencyHistogram m_latency;
+    }
+
+    /** @param commands number of commands per scenario.
+        @param gfxRate gogui-gfx messages per second in the gfx
+        scenario.
+        @param gfxDisplay callback that shows the gfx messages, or null
+        to skip the gfx scenario. */
+    public HtpBenchmark(int commands, int gfxRate,
+                        HtpController.GuiFxCallback gfxDisplay)
+    {
+        m_commands = commands;
+        m_gfxRate = gfxRate;
+        m_gfxDisplay = gfxDisplay;
+    }
+
+    /** Runs all scenarios.  Standard output is discarded while they
+        run, because the engine code logs every command there. */
+    public Result[] run() throws Exception
+    {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+                public void write(int b) { }
+                public void write(byte b[], int off, int len) { }
+            }));
+        try {
+            Vector<Result> results = new Vector<Result>();
+            results.add(controller("controller-small", 0, 0, 0, 0));
+            results.add(controller("controller-64k", 0, 65536, 0, 0));
+            results.add(controller("controller-gfx", 0, 16, 20, 0));
+            results.add(controller("controller-1ms", 1000, 16, 0, 0));
+            results.add(controller("controller-failures", 0, 16, 0, 0.1));
+            results.add(session("session", false, null, m_commands));
+            results.add(session("session-edt", true, null, m_commands));
+            if (m_gfxDisplay != null)
+                results.add(session("session-gfx", true, m_gfxDisplay,
+                                    Math.max(1, m_commands
+                                             / GFX_COMMAND_DIVISOR)));
+            return results.toArray(new Result[results.size()]);
+        }
+        finally
+        {
+            System.setOut(stdout);
+        }
+    }
+
+    public static void print(PrintStream out, Result results[])
+    {
+        out.println(String.format(Locale.ROOT, "%-20s %10s %9s %9s %9s",
+                                  "scenario", "cmd/s", "p50 ms",
+                                  "p99 ms", "max ms"));
+        for (Result r : results)
+        {
+            LatencyHistogram h = r.getLatency();
+            out.println(String.format(Locale.ROOT,
+                                      "%-20s %10.0f %9s %9s %9s",
+                                      r.getName(), r.getCommandsPerSecond(),
+                                      CommandMetrics.ms(h.getPercentile(50)),
+                                      CommandMetrics.ms(h.getPercentile(99)),
+                                      CommandMetrics.ms(h.getMax())));
+        }
+    }
+
+    /** Saves the throughput of each scenario. */
+    public static void save(File file, Result results[]) throws IOException
+    {
+        Properties p = new Properties();
+        for (Result r : results)
+            p.setProperty(r.getName(), String.format(Locale.ROOT, "%.1f",
+                                                     r.getCommandsPerSecond()));
+        OutputStream out = new FileOutputStream(file);
+        try {
+            p.store(out, "HexGui HTP benchmark, commands per second");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /** Compares the throughput with a saved run.
+        @param tolerance allowed slowdown, for example 0.2 for 20%.
+        @return the number of scenarios that got slower than allowed;
+        each is reported on the given stream. */
+    public static int compare(File file, Result results[], double tolerance,
+                              PrintStream out) throws IOException
+    {
+        Properties p = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            p.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+        int regressions = 0;
+        for (Result r : results)
+        {
+            String value = p.getProperty(r.getName());
+            if (value == null)
+                continue;
+            double baseline = Double.parseDouble(value);
+            if (r.getCommandsPerSecond() < (1 - tolerance) * baseline)
+            {
+                out.println(String.format(Locale.ROOT,
+                                          "%s: %.0f cmd/s, baseline %.0f",
+                                          r.getName(),
+                                          r.getCommandsPerSecond(),
+                                          baseline));
+                ++regressions;
+            }
+        }
+        return regressions;
+    }
+
+    //------------------------------------------------------------
+
+    /** Sends commands one at a time through an HtpController. */
+    private Result controller(String name, long latency, int size,
+                              int gfx, double failureRate) throws Exception
+    {
+        FakeEngine engine = new FakeEngine();
+        engine.setLatency(latency);
+        engine.setResponseSize(size);
+        engine.setGfx(gfx, 0);
+        engine.setFailureRate(failureRate);
+        engine.start();
+        HtpController htp = new HtpController(engine.getInputStream(),
+                                              engine.getOutputStream(),
+                                              QUIET, QUIET);
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (int i = 0; i < m_commands / 10; ++i)  // warm up
+            htp.sendCommand("genmove b\n");
+        long start = System.nanoTime();
+        for (int i = 0; i < m_commands; ++i)
+        {
+            long t = System.nanoTime();
+            htp.sendCommand("genmove b\n");
+            latencies.record((System.nanoTime() - t) / 1000);
+        }
+        long elapsed = System.nanoTime() - start;
+        htp.sendCommand("quit\n");
+        return new Result(name, m_commands, elapsed, latencies);
+    }
+
+    /** Queues all commands on an EngineSession at once and measures
+        from queueing to the callback, optionally including the hop to
+        the event dispatch thread that GUI callbacks make.
+        @param display if not null, the engine sends GFX_PER_COMMAND
+        gogui-gfx messages at m_gfxRate per second before each
+        response, and they go to this callback.  Since the callback
+        shows them on the event dispatch thread, a command is only
+        counted as done once its gfx messages have been shown. */
+    private Result session(String name, final boolean edt,
+                           HtpController.GuiFxCallback display,
+                           int commands) throws Exception
+    {
+        FakeEngine engine = new FakeEngine();
+        engine.setResponseSize(16);
+        if (display != null)
+            engine.setGfx(GFX_PER_COMMAND, 1000000 / m_gfxRate);
+        engine.start();
+        EngineSession session
+            = new EngineSession(name, engine.getInputStream(),
+                                engine.getOutputStream(), QUIET,
+                                (display != null) ? display : QUIET,
+                                QUIET);
+        session.start();
+        final LatencyHistogram latencies = new LatencyHistogram();
+        final CountDownLatch done = new CountDownLatch(commands);
+        long start = System.nanoTime();
+        for (int i = 0; i < commands; ++i)
+        {
+            final long queued = System.nanoTime();
+            final Runnable record = new Runnable() {
+                    public void run() {
+                        synchronized (latencies)
+                        {
+                            latencies.record((System.nanoTime() - queued)
+                                             / 1000);
+                        }
+                        done.countDown();
+                    } };
+            session.sendCommand("play b a1\n", !edt ? record : new Runnable() {
+                    public void run() {
+                        SwingUtilities.invokeLater(record);
+                    } });
+        }
+        if (!done.await(5, TimeUnit.MINUTES))
+            throw new Exception(name + ": timed out");
+        long elapsed = System.nanoTime() - start;
+        session.close();
+        return new Result(name, commands, elapsed, latencies);
+    }
+
+    /** Ignores everything the engine code reports. */
+    private static class Quiet
+        implements HtpController.IOInterface, HtpController.GuiFxCallback,
+                   EngineSession.Listener
+    {
+        public void sentCommand(String str) { }
+        public void receivedResponse(String str) { }
+        public void receivedError(String str) { }
+        public void guifx(String cmd) { }
+        public void commandStarted(EngineSession session, String cmd) { }
+        public void commandFinished(EngineSession session, String cmd) { }
+        public void commandFailed(EngineSession session, String cmd,
+                                  HtpError e) { }
+    }
+
+    private static final Quiet QUIET = new Quiet();
+
+    private static final int GFX_PER_COMMAND = 5;
+
+    /** The gfx scenario runs this many times fewer commands than the
+        others, since the engine takes time for the gfx messages. */
+    private static final int GFX_COMMAND_DIVISOR = 10;
+
+    private final int m_commands;
+
+    private final int m_gfxRate;
+
+    private final HtpController.GuiFxCallback m_gfxDisplay;
+}
+
+//----------------------------------------------------------------------------
@@ -9,9 +9,7 @@ import hexgui.util.Pair;
 import hexgui.util.StringUtils;
 
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.BufferedReader;
 import java.io.PrintStream;
 import java.io.IOException;
 import java.util.Vector;
@@ -42,7 +40,7 @@ public class HtpController
                          IOInterface io, GuiFxCallback guifx)
     {
 	System.out.println("controller: in constructor.");
-	m_in = new BufferedReader(new InputStreamReader(in));
+	m_in = new HtpResponseReader(in);
 	m_out = new PrintStream(out);
 	m_io = io;
         m_guifx = guifx;
@@ -70,10 +68,18 @@ public class HtpController
             return;
 
 	System.out.println("controller: sending '" + cmd.trim() + "'");
+        long start = System.nanoTime();
 	m_out.print(cmd);
 	m_out.flush();
+        m_sent = System.nanoTime();
 	m_io.sentCommand(cmd);
         handleResponse();
+        long done = System.nanoTime();
+        if (m_firstLine == 0)
+            m_firstLine = done;
+        m_writeTime = m_sent - start;
+        m_thinkTime = m_firstLine - m_sent;
+        m_parseTime = done - m_firstLine;
     }
 
     public boolean cmdInProgress() { return m_waiting; }
@@ -82,123 +88,90 @@ public class HtpController
 
     public String getResponse() { return m_response; }
 
+    /** Nanoseconds the last command took to write. */
+    public long getWriteTime() { return m_writeTime; }
+
+    /** Nanoseconds from writing the last command to receiving the
+        first bytes of its response. */
+    public long getThinkTime() { return m_thinkTime; }
+
+    /** Nanoseconds spent reading and parsing the rest of the last
+        response. */
+    public long getParseTime() { return m_parseTime; }
+
     private void handleResponse() throws HtpError
     {
         m_waiting = true;
 
         while (m_waiting) {
 
-            String response;
+            boolean complete;
             try {
-                response = waitResponse();
+                complete = m_in.next();
             }
             catch (IOException e) {
                 m_waiting = false;
                 throw new HtpError("IOException waiting for response!");
             }
+            m_firstLine = m_in.getFirstByteTime();
+            if (!complete) {
+                System.out.println("controller: Disconnected!");
+                m_connected = false;
+            }
 
             // Since the response must, by definition of the GTP
-            // protocol, always end with two newline characters,
-            // remove them.
-            response = response.replaceAll("[\n\r]$", "");
-            
-            //System.out.println("got: '" + response + "'");
-            
+            // protocol, always end with two newline characters, the
+            // reader has already dropped the empty line.
+            int length = m_in.length();
+
             if (!m_connected) {
                 m_success = false;
                 m_response = "";
                 m_waiting = false;
                 throw new HtpError("Program Disconnected.");
-            }
-            else if (response == null) {
+            } else if (length < 1) {
                 m_success = false;
                 m_response = "";
                 m_waiting = false;
-                throw new HtpError("Null response received!");
-            } else if (response.length() < 1) {
-                m_success = false;
-                m_response = response;
-                m_waiting = false;
-                throw new HtpError("Response length too short! '"+response+"'");
-            } else if (response.length() > 10 && 
-                       response.substring(0, 10).equals("gogui-gfx:")) 
-            {
+                throw new HtpError("Response length too short! ''");
+            } else if (length > 10 && m_in.startsWith("gogui-gfx:")) {
 
                 String fx 
-                    = StringUtils.cleanWhiteSpace(response.substring(10).trim());
+                    = StringUtils.cleanWhiteSpace(m_in.substring(10).trim());
                 
                 m_guifx.guifx(fx);
                 
-            } else if (response.substring(0,1).equals("=")) {
+            } else if (m_in.byteAt(0) == '=') {
                 m_success = true;
-                m_response = response.substring(1);
+                m_response = m_in.substring(1);
                 System.out.print("controller: success: ");
-                m_io.receivedResponse(response + "\n");
+                m_io.receivedResponse("=" + m_response + "\n");
                 m_waiting = false;
-            } else if (response.substring(0,1).equals("?")) {
+            } else if (m_in.byteAt(0) == '?') {
                 m_success = false;
-                m_response = response.substring(1);
+                m_response = m_in.substring(1);
                 System.out.print("controller: error: "); 
-                m_io.receivedError(response + "\n");
+                m_io.receivedError("?" + m_response + "\n");
                 m_waiting = false;
             } else {
-                m_response = response;
+                m_response = m_in.substring(0);
                 m_success = false;
                 System.out.print("controller: invalid: "); 
                 m_waiting = false;
-                throw new HtpError("Invalid HTP response:'" + response + "'.");
+                throw new HtpError("Invalid HTP response:'" + m_response + "'.");
             }
         }
 
         System.out.println("'" + m_response.trim() + "'");
     }
 
-    private String waitResponse() throws IOException
-    {
-	StringBuilder ret = new StringBuilder();
-	while (true) {
-	    //System.out.println("blocking on response");
-	    String line = m_in.readLine();
-	    //System.out.println("readline: '" + line + "'");
-	    if (line == null) {
-		System.out.println("controller: Disconnected!");
-		m_connected = false;
-		break;
-	    }
-	    String clean = cleanInput(line);
-	    ret.append(clean);
-	    ret.append('\n');
-
-	    if (clean.equals(""))
-		break;
-	}
-	System.out.println("controller: done waiting on response.");
-	return ret.toString();
-    }
-
-    /** Cleans the input.  Removes all occurrences of '\r'. 
-	Converts all '\t' to ' '. 
-    */
-    private String cleanInput(String in)
-    {
-	StringBuilder out = new StringBuilder();
-	for (int i=0; i<in.length(); i++) {
-	    if (in.charAt(i) == '\t') 
-		out.append(' ');
-	    else if (in.charAt(i) != '\r') {
-		out.append(in.charAt(i));
-	    }
-	}      
-	return out.toString();
-    }
-
     public boolean connected()
     {
         return m_connected;
     }
 
     private boolean m_connected;
-    private BufferedReader m_in;
+    private HtpResponseReader m_in;
     private PrintStream m_out;   
     private IOInterface m_io;
     private GuiFxCallback m_guifx;
@@ -207,6 +180,15 @@ public class HtpController
 
     private String m_response;
     private boolean m_success;
+
+    /** Timestamps and timings of the last command, in nanoseconds.
+        m_firstLine is that of the last response read, so gogui-gfx
+        output sent while thinking counts as thinking time. */
+    private long m_sent;
+    private long m_firstLine;
+    private long m_writeTime;
+    private long m_thinkTime;
+    private long m_parseTime;
 }
 
 //----------------------------------------------------------------------------
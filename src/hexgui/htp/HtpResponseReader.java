@@ -0,0 +1,169 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+//----------------------------------------------------------------------------
+
+/** Splits the output of an HTP engine into responses.
+
+    <p>Bytes are read into a buffer that is kept from one response to
+    the next.  While looking for the empty line that ends a response,
+    '\r' characters are removed and tabs are turned into spaces in
+    place.  The response is then available as a view on the buffer;
+    only the parts a caller asks for with <code>substring()</code> are
+    turned into Strings.  Since '\r' and '\t' never occur inside a
+    multi-byte UTF-8 sequence, working on bytes is safe.
+
+    <p>The view holds the lines of the response separated by '\n',
+    without the newline of the last line and the terminating empty
+    line.  It is only valid until the next call to <code>next()</code>.
+*/
+public final class HtpResponseReader
+{
+    public HtpResponseReader(InputStream in)
+    {
+        m_in = in;
+        m_buffer = new byte[INITIAL_SIZE];
+        m_charset = Charset.defaultCharset();
+    }
+
+    /** Reads the next response.  If reading fails, for example on a
+        read timeout, the exception is passed on and the next call
+        continues with the same response.
+        @return false if the stream ended first; the view then holds
+        whatever was received of the response. */
+    public boolean next() throws IOException
+    {
+        if (!m_incomplete)
+        {
+            // Move the bytes already read of the next response to the
+            // front of the buffer.
+            int left = m_end - m_next;
+            if (left > 0 && m_next > 0)
+                System.arraycopy(m_buffer, m_next, m_buffer, 0, left);
+            m_end = left;
+            m_read = 0;
+            m_write = 0;
+            m_next = 0;
+            m_length = 0;
+            m_firstByteTime = (left > 0) ? System.nanoTime() : 0;
+        }
+        m_incomplete = true;
+        while (true)
+        {
+            while (m_read < m_end)
+            {
+                byte b = m_buffer[m_read++];
+                if (b == '\r')
+                    continue;
+                if (b == '\t')
+                    b = ' ';
+                m_buffer[m_write++] = b;
+                if (b == '\n'
+                    && (m_write == 1 || m_buffer[m_write - 2] == '\n'))
+                {
+                    // empty line: the response is complete
+                    m_length = Math.max(0, m_write - 2);
+                    m_next = m_read;
+                    m_incomplete = false;
+                    return true;
+                }
+            }
+            if (m_end == m_buffer.length)
+                grow();
+            int n = m_in.read(m_buffer, m_end, m_buffer.length - m_end);
+            if (n < 0)
+            {
+                m_length = m_write;
+                if (m_length > 0 && m_buffer[m_length - 1] == '\n')
+                    --m_length;
+                m_next = m_end;
+                m_incomplete = false;
+                return false;
+            }
+            if (m_firstByteTime == 0 && n > 0)
+                m_firstByteTime = System.nanoTime();
+            m_end += n;
+        }
+    }
+
+    /** Value of System.nanoTime() when the first byte of the current
+        response was available. */
+    public long getFirstByteTime()
+    {
+        return m_firstByteTime;
+    }
+
+    /** Number of bytes in the current response. */
+    public int length()
+    {
+        return m_length;
+    }
+
+    public byte byteAt(int i)
+    {
+        assert i < m_length;
+        return m_buffer[i];
+    }
+
+    /** True if the response starts with the given ASCII text. */
+    public boolean startsWith(String prefix)
+    {
+        if (prefix.length() > m_length)
+            return false;
+        for (int i = 0; i < prefix.length(); ++i)
+            if (m_buffer[i] != (byte)prefix.charAt(i))
+                return false;
+        return true;
+    }
+
+    /** Decodes the response from the given byte offset to its end. */
+    public String substring(int from)
+    {
+        return new String(m_buffer, from, m_length - from, m_charset);
+    }
+
+    //------------------------------------------------------------
+
+    /** Makes room when a single response does not fit.  The buffer
+        keeps its size afterwards, so a series of large responses
+        does not allocate again. */
+    private void grow()
+    {
+        byte larger[] = new byte[2 * m_buffer.length];
+        System.arraycopy(m_buffer, 0, larger, 0, m_end);
+        m_buffer = larger;
+    }
+
+    private static final int INITIAL_SIZE = 8192;
+
+    private final InputStream m_in;
+    private final Charset m_charset;
+    private byte m_buffer[];
+
+    /** Bytes [0, m_end) of the buffer hold data; [0, m_write) of
+        those are the cleaned part of the current response and
+        [m_read, m_end) have not been looked at yet. */
+    private int m_end;
+    private int m_read;
+    private int m_write;
+
+    /** Length of the current response and start of the next one. */
+    private int m_length;
+    private int m_next;
+
+    private long m_firstByteTime;
+
+    /** True while next() is reading a response, and after it threw
+        before the response was complete; the cursors above then
+        still describe that response. */
+    private boolean m_incomplete;
+}
+
+//----------------------------------------------------------------------------
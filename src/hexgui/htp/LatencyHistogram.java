@@ -0,0 +1,115 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+//----------------------------------------------------------------------------
+
+/** Histogram of latencies in microseconds with bounded relative error.
+
+    <p>Buckets are laid out as in HdrHistogram: values below 128 get a
+    bucket each, and every power-of-two range above that is split into
+    64 equal sub-buckets.  Any recorded value is therefore reported
+    within about 1.6% of its true value, from a microsecond up to days,
+    using a fixed array of a few thousand counters.  Not synchronized.
+*/
+public final class LatencyHistogram
+{
+    public LatencyHistogram()
+    {
+        m_counts = new long[SUB + MAX_SHIFT * HALF];
+        m_min = Long.MAX_VALUE;
+    }
+
+    /** Records one value in microseconds; negative values count as 0. */
+    public void record(long micros)
+    {
+        if (micros < 0)
+            micros = 0;
+        ++m_counts[index(micros)];
+        ++m_count;
+        m_sum += micros;
+        m_min = Math.min(m_min, micros);
+        m_max = Math.max(m_max, micros);
+    }
+
+    public void add(LatencyHistogram other)
+    {
+        for (int i = 0; i < m_counts.length; ++i)
+            m_counts[i] += other.m_counts[i];
+        m_count += other.m_count;
+        m_sum += other.m_sum;
+        m_min = Math.min(m_min, other.m_min);
+        m_max = Math.max(m_max, other.m_max);
+    }
+
+    public long getCount() { return m_count; }
+
+    public long getMin() { return (m_count == 0) ? 0 : m_min; }
+
+    public long getMax() { return m_max; }
+
+    public long getSum() { return m_sum; }
+
+    public double getMean()
+    {
+        return (m_count == 0) ? 0 : (double)m_sum / m_count;
+    }
+
+    /** Returns the value below which the given percentage of the
+        recorded values lie. */
+    public long getPercentile(double percent)
+    {
+        if (m_count == 0)
+            return 0;
+        long rank = (long)Math.ceil(percent / 100.0 * m_count);
+        rank = Math.max(1, Math.min(rank, m_count));
+        long seen = 0;
+        for (int i = 0; i < m_counts.length; ++i)
+        {
+            seen += m_counts[i];
+            if (seen >= rank)
+                return Math.min(m_max, Math.max(m_min, valueAt(i)));
+        }
+        return m_max;
+    }
+
+    //------------------------------------------------------------
+
+    private static int index(long v)
+    {
+        if (v < SUB)
+            return (int)v;
+        // shift so that (v >> shift) lies in [HALF, SUB)
+        int shift = 63 - Long.numberOfLeadingZeros(v) - (SUB_BITS - 1);
+        if (shift > MAX_SHIFT)
+            return SUB + MAX_SHIFT * HALF - 1;
+        return SUB + (shift - 1) * HALF + (int)((v >> shift) - HALF);
+    }
+
+    /** Middle of the range of values counted in bucket i. */
+    private static long valueAt(int i)
+    {
+        if (i < SUB)
+            return i;
+        int shift = (i - SUB) / HALF + 1;
+        long mantissa = (i - SUB) % HALF + HALF;
+        return (mantissa << shift) + ((1L << shift) >> 1);
+    }
+
+    private static final int SUB_BITS = 7;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int HALF = SUB / 2;
+
+    /** Enough for 2^47 microseconds, about four years. */
+    private static final int MAX_SHIFT = 40;
+
+    private final long m_counts[];
+    private long m_count;
+    private long m_sum;
+    private long m_min;
+    private long m_max;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,312 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Vector;
+
+//----------------------------------------------------------------------------
+
+/** Non-blocking transport for remote HTP engines.
+
+    <p>A single selector thread serves any number of RemoteConnections,
+    so attaching many remote engines does not cost a thread per
+    connection.  Connections that drop are reconnected with an
+    increasing delay, unless they were opened without reconnection or
+    have been closed.
+*/
+public class NioTransport
+    implements Runnable
+{
+    /** Returns the transport shared by everything in this JVM. */
+    public static synchronized NioTransport getDefault() throws IOException
+    {
+        if (s_default == null)
+            s_default = new NioTransport();
+        return s_default;
+    }
+
+    public NioTransport() throws IOException
+    {
+        m_selector = Selector.open();
+        m_pending = new Vector<RemoteConnection>();
+        m_connections = new Vector<RemoteConnection>();
+        m_readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        Thread thread = new Thread(this, "htp-nio");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Opens a connection and waits until it is established.
+        @param connectTimeout milliseconds to wait for each connection
+        attempt; 0 waits forever.
+        @param readTimeout milliseconds to wait for a response before
+        the read fails; 0 waits forever.
+        @param reconnect reconnect automatically if the connection
+        drops.
+        @throws IOException if the first attempt fails. */
+    public RemoteConnection connect(String host, int port,
+                                    int connectTimeout, int readTimeout,
+                                    boolean reconnect)
+        throws IOException
+    {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved())
+            throw new UnknownHostException(host);
+        RemoteConnection connection
+            = new RemoteConnection(this, address, connectTimeout,
+                                   readTimeout, reconnect);
+        m_pending.add(connection);
+        m_selector.wakeup();
+        try {
+            connection.awaitConnect();
+        }
+        catch (IOException e)
+        {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /** Number of connections served, including ones waiting to be
+        reconnected. */
+    public int getNumConnections()
+    {
+        return m_connections.size();
+    }
+
+    //------------------------------------------------------------
+
+    void wantWrite(RemoteConnection connection)
+    {
+        m_selector.wakeup();
+    }
+
+    /** Called when the reader of a paused connection has caught up. */
+    void wantRead(RemoteConnection connection)
+    {
+        m_selector.wakeup();
+    }
+
+    void closed(RemoteConnection connection)
+    {
+        m_selector.wakeup();
+    }
+
+    public void run()
+    {
+        while (true)
+        {
+            long timeout;
+            try {
+                timeout = housekeeping();
+                m_selector.select(timeout);
+            }
+            catch (IOException e)
+            {
+                System.out.println("htp-nio: " + e.getMessage());
+                continue;
+            }
+            Iterator<SelectionKey> it = m_selector.selectedKeys().iterator();
+            while (it.hasNext())
+            {
+                SelectionKey key = it.next();
+                it.remove();
+                handle(key);
+            }
+        }
+    }
+
+    //------------------------------------------------------------
+
+    /** Starts new connections, retries dropped ones, times out slow
+        connection attempts and updates the interest in reading and
+        writing.
+        @return milliseconds until the next deadline, 0 if none. */
+    private long housekeeping()
+    {
+        long now = System.currentTimeMillis();
+        long timeout = 0;
+        while (!m_pending.isEmpty())
+        {
+            RemoteConnection c = m_pending.remove(0);
+            m_connections.add(c);
+            startConnect(c, now);
+        }
+        for (RemoteConnection c : new Vector<RemoteConnection>(m_connections))
+        {
+            SocketChannel channel = c.getChannel();
+            if (c.isClosed())
+            {
+                closeChannel(c);
+                m_connections.remove(c);
+                continue;
+            }
+            if (channel == null)
+            {
+                if (now >= c.m_deadline)
+                    startConnect(c, now);
+                else
+                    timeout = earliest(timeout, c.m_deadline - now);
+                continue;
+            }
+            if (channel.isConnectionPending())
+            {
+                if (now >= c.m_deadline)
+                    fail(c, "connection timed out", now);
+                else
+                    timeout = earliest(timeout, c.m_deadline - now);
+                continue;
+            }
+            SelectionKey key = channel.keyFor(m_selector);
+            if (key != null && key.isValid())
+                key.interestOps(interestOps(c));
+        }
+        return timeout;
+    }
+
+    private void handle(SelectionKey key)
+    {
+        RemoteConnection c = (RemoteConnection)key.attachment();
+        SocketChannel channel = (SocketChannel)key.channel();
+        long now = System.currentTimeMillis();
+        try {
+            if (key.isConnectable())
+            {
+                if (channel.finishConnect())
+                {
+                    key.interestOps(SelectionKey.OP_READ);
+                    System.out.println("htp-nio: connected to " + c);
+                    c.connected();
+                }
+                return;
+            }
+            if (key.isReadable())
+            {
+                m_readBuffer.clear();
+                int n = channel.read(m_readBuffer);
+                if (n < 0)
+                {
+                    fail(c, "closed by remote host", now);
+                    return;
+                }
+                m_readBuffer.flip();
+                if (!c.received(m_readBuffer))
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            if (key.isValid() && key.isWritable())
+            {
+                if (!c.writePending())
+                    key.interestOps(key.interestOps()
+                                    & ~SelectionKey.OP_WRITE);
+            }
+        }
+        catch (IOException e)
+        {
+            fail(c, e.getMessage(), now);
+        }
+    }
+
+    private void startConnect(RemoteConnection c, long now)
+    {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            c.setChannel(channel);
+            int timeout = c.getConnectTimeout();
+            c.m_deadline = (timeout > 0) ? now + timeout : Long.MAX_VALUE;
+            if (channel.connect(c.getAddress()))
+            {
+                channel.register(m_selector, SelectionKey.OP_READ, c);
+                c.connected();
+            }
+            else
+                channel.register(m_selector, SelectionKey.OP_CONNECT, c);
+        }
+        catch (IOException e)
+        {
+            fail(c, e.getMessage(), now);
+        }
+    }
+
+    /** Drops the channel and schedules a reconnection if wanted. */
+    private void fail(RemoteConnection c, String reason, long now)
+    {
+        System.out.println("htp-nio: " + c + ": " + reason);
+        closeChannel(c);
+        c.disconnected(reason);
+        if (c.getReconnect())
+        {
+            ++c.m_failures;
+            long delay = Math.min(MAX_RETRY_DELAY,
+                                  RETRY_DELAY << Math.min(c.m_failures, 6));
+            c.m_deadline = now + delay;
+        }
+        else
+            m_connections.remove(c);
+    }
+
+    private void closeChannel(RemoteConnection c)
+    {
+        SocketChannel channel = c.getChannel();
+        if (channel == null)
+            return;
+        c.setChannel(null);
+        try {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+        }
+    }
+
+    private static int interestOps(RemoteConnection c)
+    {
+        int ops = 0;
+        if (!c.isReadPaused())
+            ops |= SelectionKey.OP_READ;
+        if (c.hasPendingOutput())
+            ops |= SelectionKey.OP_WRITE;
+        return ops;
+    }
+
+    private static long earliest(long timeout, long t)
+    {
+        t = Math.max(1, t);
+        return (timeout == 0) ? t : Math.min(timeout, t);
+    }
+
+    private static final int READ_BUFFER_SIZE = 16384;
+
+    /** Delay before the first reconnection attempt, doubled after
+        each failure up to MAX_RETRY_DELAY. */
+    private static final long RETRY_DELAY = 250;
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    private static NioTransport s_default;
+
+    private final Selector m_selector;
+
+    /** Connections waiting to be picked up by the selector thread. */
+    private final Vector<RemoteConnection> m_pending;
+
+    /** Only modified by the selector thread. */
+    private final Vector<RemoteConnection> m_connections;
+
+    /** Shared by all connections; only used on the selector thread. */
+    private final ByteBuffer m_readBuffer;
+}
+
+//----------------------------------------------------------------------------
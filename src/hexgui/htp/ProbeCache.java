@@ -0,0 +1,165 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+//----------------------------------------------------------------------------
+
+/** Results of probing engines with name, version and
+    hexgui-analyze_commands, kept on disk.
+
+    <p>Entries are keyed by the engine's executable file, its size and
+    modification time, and the command line it was started with (see
+    <code>key()</code>), so a rebuilt engine is probed again.  Each
+    entry is a small properties file in the cache directory.
+*/
+public class ProbeCache
+{
+    /** What an engine answered to the probe commands. */
+    public static class Entry
+    {
+        public Entry(String name, String version, String analyzeCommands)
+        {
+            m_name = name;
+            m_version = version;
+            m_analyzeCommands = analyzeCommands;
+        }
+
+        /** Response to name, or null if it failed. */
+        public String getName() { return m_name; }
+
+        /** Response to version, or null if it failed. */
+        public String getVersion() { return m_version; }
+
+        /** Response to hexgui-analyze_commands; empty if it failed. */
+        public String getAnalyzeCommands() { return m_analyzeCommands; }
+
+        public boolean equals(Object object)
+        {
+            if (!(object instanceof Entry))
+                return false;
+            Entry e = (Entry)object;
+            return same(m_name, e.m_name) && same(m_version, e.m_version)
+                && m_analyzeCommands.equals(e.m_analyzeCommands);
+        }
+
+        public int hashCode()
+        {
+            return m_analyzeCommands.hashCode();
+        }
+
+        private static boolean same(String a, String b)
+        {
+            return (a == null) ? (b == null) : a.equals(b);
+        }
+
+        private final String m_name;
+        private final String m_version;
+        private final String m_analyzeCommands;
+    }
+
+    public ProbeCache(File dir)
+    {
+        m_dir = dir;
+    }
+
+    /** Runs the probe commands on an engine.
+        @throws HtpError if the engine disconnects. */
+    public static Entry probe(HtpController htp) throws HtpError
+    {
+        htp.sendCommand("name\n");
+        String name = htp.wasSuccess() ? htp.getResponse().trim() : null;
+        htp.sendCommand("version\n");
+        String version = htp.wasSuccess() ? htp.getResponse().trim() : null;
+        // Because hexgui-analyze_commands is not required by GTP,
+        // engines are not expected to implement it. So we must be
+        // able to handle a failure response.
+        htp.sendCommand("hexgui-analyze_commands\n");
+        String analyze = htp.wasSuccess() ? htp.getResponse() : "";
+        return new Entry(name, version, analyze);
+    }
+
+    /** Builds the key for an engine.
+        @param executable the engine's executable file.
+        @param command the full command line.
+        @return the key, or null if the executable does not exist. */
+    public static String key(File executable, String command)
+    {
+        if (executable == null || !executable.isFile())
+            return null;
+        return executable.getAbsolutePath() + "\n" + executable.length()
+            + "\n" + executable.lastModified() + "\n" + command.trim();
+    }
+
+    /** Returns the saved entry, or null if there is none or it cannot
+        be read. */
+    public Entry get(String key)
+    {
+        File file = getFile(key);
+        if (!file.exists())
+            return null;
+        Properties p = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                p.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not read " + file + ": "
+                               + e.getMessage());
+            return null;
+        }
+        // file names are hashes, so check for collisions
+        if (!key.equals(p.getProperty("key")))
+            return null;
+        return new Entry(p.getProperty("name"), p.getProperty("version"),
+                         p.getProperty("analyze-commands", ""));
+    }
+
+    public void put(String key, Entry entry) throws IOException
+    {
+        if (!m_dir.isDirectory() && !m_dir.mkdirs())
+            throw new IOException("Cannot create " + m_dir);
+        Properties p = new Properties();
+        p.setProperty("key", key);
+        if (entry.m_name != null)
+            p.setProperty("name", entry.m_name);
+        if (entry.m_version != null)
+            p.setProperty("version", entry.m_version);
+        p.setProperty("analyze-commands", entry.m_analyzeCommands);
+        OutputStream out = new FileOutputStream(getFile(key));
+        try {
+            p.store(out, "HexGui engine probe");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    //------------------------------------------------------------
+
+    private File getFile(String key)
+    {
+        return new File(m_dir, String.format("%08x.probe", key.hashCode()));
+    }
+
+    private final File m_dir;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,372 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+//----------------------------------------------------------------------------
+
+/** A connection to a remote HTP engine, served by a NioTransport.
+
+    <p>All socket I/O happens on the transport's selector thread.  The
+    connection hands the received bytes to an ordinary blocking
+    InputStream and accepts outgoing bytes through an OutputStream, so
+    it can be given to an HtpController like the pipes of a local
+    process.
+
+    <p>If the connection drops, a read in progress fails with an
+    IOException (which the controller reports as an HtpError for that
+    command), and further reads fail at once until the transport has
+    reconnected.  The listener is told about both events, so that the
+    owner can bring the engine's board back in sync.
+*/
+public class RemoteConnection
+{
+    /** Callback for connection state changes.  Called from the
+        selector thread. */
+    public interface Listener
+    {
+        void connectionLost(RemoteConnection connection, String reason);
+        void reconnected(RemoteConnection connection);
+    }
+
+    //------------------------------------------------------------
+
+    RemoteConnection(NioTransport transport, InetSocketAddress address,
+                     int connectTimeout, int readTimeout, boolean reconnect)
+    {
+        m_transport = transport;
+        m_address = address;
+        m_connectTimeout = connectTimeout;
+        m_readTimeout = readTimeout;
+        m_reconnect = reconnect;
+        m_inbound = new byte[BUFFER_SIZE];
+        m_outbound = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        m_inputStream = new Input();
+        m_outputStream = new Output();
+    }
+
+    public InputStream getInputStream() { return m_inputStream; }
+
+    public OutputStream getOutputStream() { return m_outputStream; }
+
+    public InetSocketAddress getAddress() { return m_address; }
+
+    public synchronized void setListener(Listener listener)
+    {
+        m_listener = listener;
+    }
+
+    public synchronized boolean isConnected()
+    {
+        return m_state == CONNECTED;
+    }
+
+    /** Closes the connection for good; no reconnection is tried. */
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (m_state == CLOSED)
+                return;
+            m_state = CLOSED;
+            notifyAll();
+        }
+        m_transport.closed(this);
+    }
+
+    public String toString()
+    {
+        return m_address.getHostString() + ":" + m_address.getPort();
+    }
+
+    //------------------------------------------------------------
+    // Called by the transport.
+
+    /** Waits until the first connection attempt has succeeded.
+        @throws IOException if it failed. */
+    synchronized void awaitConnect() throws IOException
+    {
+        while (m_state == DISCONNECTED && m_error == null)
+        {
+            try {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException("Interrupted");
+            }
+        }
+        if (m_state != CONNECTED)
+            throw new IOException((m_error == null) ? "Closed" : m_error);
+    }
+
+    int getConnectTimeout() { return m_connectTimeout; }
+
+    synchronized boolean isClosed()
+    {
+        return m_state == CLOSED;
+    }
+
+    synchronized boolean getReconnect()
+    {
+        return m_reconnect && m_state != CLOSED;
+    }
+
+    void setChannel(SocketChannel channel) { m_channel = channel; }
+
+    SocketChannel getChannel() { return m_channel; }
+
+    /** Time at which the current connection or reconnection attempt
+        is given up, or at which the next reconnection is due. */
+    long m_deadline;
+
+    /** Number of failed connection attempts since the last success. */
+    int m_failures;
+
+    void connected()
+    {
+        Listener listener;
+        boolean again;
+        synchronized (this)
+        {
+            if (m_state == CLOSED)
+                return;
+            again = m_wasConnected;
+            m_wasConnected = true;
+            m_state = CONNECTED;
+            m_failures = 0;
+            m_inStart = 0;
+            m_inEnd = 0;
+            m_readPaused = false;
+            m_outbound.clear();
+            listener = m_listener;
+            notifyAll();
+        }
+        if (again && listener != null)
+            listener.reconnected(this);
+    }
+
+    void disconnected(String reason)
+    {
+        Listener listener;
+        synchronized (this)
+        {
+            if (m_state == CLOSED)
+                return;
+            boolean wasConnected = (m_state == CONNECTED);
+            m_state = DISCONNECTED;
+            m_error = reason;
+            notifyAll();
+            listener = wasConnected ? m_listener : null;
+        }
+        if (listener != null)
+            listener.connectionLost(this, reason);
+    }
+
+    /** Appends bytes read from the channel.
+        @return false if the reader is more than HIGH_WATER bytes
+        behind; the transport then stops reading from the channel
+        until wantRead() is called. */
+    synchronized boolean received(ByteBuffer buffer)
+    {
+        int n = buffer.remaining();
+        if (m_inEnd + n > m_inbound.length)
+        {
+            int length = m_inEnd - m_inStart;
+            byte target[] = m_inbound;
+            if (length + n > m_inbound.length)
+                target = new byte[Math.max(2 * m_inbound.length,
+                                           length + n)];
+            System.arraycopy(m_inbound, m_inStart, target, 0, length);
+            m_inbound = target;
+            m_inStart = 0;
+            m_inEnd = length;
+        }
+        buffer.get(m_inbound, m_inEnd, n);
+        m_inEnd += n;
+        notifyAll();
+        if (m_inEnd - m_inStart > HIGH_WATER)
+            m_readPaused = true;
+        return !m_readPaused;
+    }
+
+    /** True while the transport should not read from the channel. */
+    synchronized boolean isReadPaused()
+    {
+        return m_readPaused;
+    }
+
+    /** Writes as much pending output as the channel accepts.
+        @return true if output is still pending. */
+    synchronized boolean writePending() throws IOException
+    {
+        m_outbound.flip();
+        m_channel.write(m_outbound);
+        m_outbound.compact();
+        return m_outbound.position() > 0;
+    }
+
+    synchronized boolean hasPendingOutput()
+    {
+        return m_outbound.position() > 0;
+    }
+
+    //------------------------------------------------------------
+
+    private synchronized int read(byte b[], int off, int len)
+        throws IOException
+    {
+        long deadline = 0;
+        if (m_readTimeout > 0)
+            deadline = System.currentTimeMillis() + m_readTimeout;
+        while (m_inEnd == m_inStart)
+        {
+            if (m_state == CLOSED)
+                return -1;
+            if (m_state == DISCONNECTED)
+                throw new IOException("Connection to " + this + " lost: "
+                                      + m_error);
+            long wait = 0;
+            if (deadline != 0)
+            {
+                wait = deadline - System.currentTimeMillis();
+                if (wait <= 0)
+                    throw new SocketTimeoutException("No response from "
+                                                     + this + " within "
+                                                     + m_readTimeout + " ms");
+            }
+            try {
+                wait(wait);
+            }
+            catch (InterruptedException e)
+            {
+                throw new IOException("Interrupted");
+            }
+        }
+        int n = Math.min(len, m_inEnd - m_inStart);
+        System.arraycopy(m_inbound, m_inStart, b, off, n);
+        m_inStart += n;
+        if (m_inStart == m_inEnd)
+        {
+            m_inStart = 0;
+            m_inEnd = 0;
+        }
+        if (m_readPaused && m_inEnd - m_inStart <= HIGH_WATER / 2)
+        {
+            m_readPaused = false;
+            m_transport.wantRead(this);
+        }
+        return n;
+    }
+
+    private synchronized void write(byte b[], int off, int len)
+        throws IOException
+    {
+        if (m_state != CONNECTED)
+            throw new IOException("Not connected to " + this);
+        if (m_outbound.remaining() < len)
+        {
+            ByteBuffer grown
+                = ByteBuffer.allocateDirect(Math.max(2 * m_outbound.capacity(),
+                                                     m_outbound.position()
+                                                     + len));
+            m_outbound.flip();
+            grown.put(m_outbound);
+            m_outbound = grown;
+        }
+        m_outbound.put(b, off, len);
+    }
+
+    private class Input
+        extends InputStream
+    {
+        public int read() throws IOException
+        {
+            byte b[] = new byte[1];
+            int n = RemoteConnection.this.read(b, 0, 1);
+            return (n < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        public int read(byte b[], int off, int len) throws IOException
+        {
+            if (len == 0)
+                return 0;
+            return RemoteConnection.this.read(b, off, len);
+        }
+
+        public void close()
+        {
+            RemoteConnection.this.close();
+        }
+    }
+
+    private class Output
+        extends OutputStream
+    {
+        public void write(int b) throws IOException
+        {
+            RemoteConnection.this.write(new byte[] { (byte)b }, 0, 1);
+        }
+
+        public void write(byte b[], int off, int len) throws IOException
+        {
+            RemoteConnection.this.write(b, off, len);
+        }
+
+        /** Hands the buffered bytes to the selector thread. */
+        public void flush()
+        {
+            m_transport.wantWrite(RemoteConnection.this);
+        }
+
+        public void close()
+        {
+            RemoteConnection.this.close();
+        }
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Unread bytes above which the transport stops reading.  Reading
+        resumes once the reader has taken half of them. */
+    private static final int HIGH_WATER = 1 << 20;
+
+    private static final int DISCONNECTED = 0;
+    private static final int CONNECTED = 1;
+    private static final int CLOSED = 2;
+
+    private final NioTransport m_transport;
+    private final InetSocketAddress m_address;
+    private final int m_connectTimeout;
+    private final int m_readTimeout;
+    private final boolean m_reconnect;
+    private final InputStream m_inputStream;
+    private final OutputStream m_outputStream;
+
+    private Listener m_listener;
+    private SocketChannel m_channel;
+    private int m_state;
+    private boolean m_wasConnected;
+    private String m_error;
+
+    /** Unread bytes are m_inbound[m_inStart..m_inEnd).  The buffer is
+        only compacted when the bytes received do not fit at the end. */
+    private byte m_inbound[];
+    private int m_inStart;
+    private int m_inEnd;
+
+    /** Set when the unread bytes exceed HIGH_WATER. */
+    private boolean m_readPaused;
+    private ByteBuffer m_outbound;
+}
+
+//----------------------------------------------------------------------------
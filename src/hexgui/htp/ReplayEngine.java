@@ -0,0 +1,264 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
+
+//----------------------------------------------------------------------------
+
+/** Engine that answers from a session log written by SessionRecorder.
+
+    <p>Each command is answered with the response bytes that followed
+    the first not yet used recording of the same command line, so the
+    GUI may send the commands in a somewhat different order than when
+    the log was recorded.  Commands that were not recorded get an
+    error.  At original speed, every block of response bytes is sent
+    at the same delay after the command as it was received; otherwise
+    the responses are sent at once.  Runs in a thread of its own and
+    is connected through pipes like FakeEngine, or can be run as a
+    program of its own with <code>main()</code>.
+*/
+public class ReplayEngine
+    implements Runnable
+{
+    /** @param realTime true to keep the recorded timing. */
+    public ReplayEngine(File log, boolean realTime) throws IOException
+    {
+        m_realTime = realTime;
+        m_commands = read(log);
+        m_used = new boolean[m_commands.size()];
+        PipedInputStream toEngine = new PipedInputStream(PIPE_SIZE);
+        m_fromGui = new PipedOutputStream(toEngine);
+        m_in = toEngine;
+        m_toGui = new PipedInputStream(PIPE_SIZE);
+        m_out = new PipedOutputStream(m_toGui);
+    }
+
+    /** Serves a session log on standard input and output, so that it
+        can stand in for the engine that recorded it.
+        Usage: ReplayEngine [-fast] log */
+    public static void main(String args[]) throws IOException
+    {
+        boolean fast = (args.length == 2 && args[0].equals("-fast"));
+        if (args.length != (fast ? 2 : 1))
+        {
+            System.err.println("Usage: ReplayEngine [-fast] log");
+            System.exit(2);
+        }
+        // keep stdout for the protocol
+        PrintStream protocol = System.out;
+        System.setOut(System.err);
+        new ReplayEngine(new File(args[args.length - 1]), !fast,
+                         System.in, protocol).run();
+    }
+
+    /** Stream the GUI reads the responses from.  Only for engines
+        created with the public constructor. */
+    public InputStream getInputStream() { return m_toGui; }
+
+    /** Stream the GUI writes its commands to. */
+    public OutputStream getOutputStream() { return m_fromGui; }
+
+    /** Number of commands in the log. */
+    public int getNumCommands() { return m_commands.size(); }
+
+    public void start()
+    {
+        Thread thread = new Thread(this, "replay-engine");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run()
+    {
+        BufferedReader in
+            = new BufferedReader(new InputStreamReader(m_in));
+        try {
+            while (true)
+            {
+                String line = in.readLine();
+                if (line == null)
+                    break;
+                line = line.trim();
+                if (line.equals("") || line.startsWith("#"))
+                    continue;
+                answer(line);
+                if (line.equals("quit"))
+                    break;
+            }
+        }
+        catch (IOException e)
+        {
+        }
+        finally
+        {
+            try {
+                m_out.close();
+            }
+            catch (IOException e)
+            {
+            }
+        }
+    }
+
+    //------------------------------------------------------------
+
+    private ReplayEngine(File log, boolean realTime, InputStream in,
+                         OutputStream out) throws IOException
+    {
+        m_realTime = realTime;
+        m_commands = read(log);
+        m_used = new boolean[m_commands.size()];
+        m_in = in;
+        m_out = out;
+        m_toGui = null;
+        m_fromGui = null;
+    }
+
+    /** A recorded command and the response blocks that followed it. */
+    private static class Command
+    {
+        public Command(String line, long time)
+        {
+            m_line = line;
+            m_time = time;
+            m_times = new Vector<Long>();
+            m_blocks = new Vector<byte[]>();
+        }
+
+        private final String m_line;
+        private final long m_time;
+        private final Vector<Long> m_times;
+        private final Vector<byte[]> m_blocks;
+    }
+
+    private void answer(String line) throws IOException
+    {
+        Command command = find(line);
+        if (command == null && line.equals("quit"))
+        {
+            m_out.write("= \n\n".getBytes());
+            m_out.flush();
+            return;
+        }
+        if (command == null)
+        {
+            System.out.println("replay: '" + line + "' not in log.");
+            m_out.write("? not in session log\n\n".getBytes());
+            m_out.flush();
+            return;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < command.m_blocks.size(); ++i)
+        {
+            if (m_realTime)
+            {
+                long due = start + 1000 * (command.m_times.get(i).longValue()
+                                           - command.m_time);
+                long wait = due - System.nanoTime();
+                if (wait > 0)
+                    LockSupport.parkNanos(wait);
+            }
+            m_out.write(command.m_blocks.get(i));
+            m_out.flush();
+        }
+    }
+
+    /** Returns the first unused recording of a command line and marks
+        it used. */
+    private Command find(String line)
+    {
+        while (m_first < m_used.length && m_used[m_first])
+            ++m_first;
+        for (int i = m_first; i < m_used.length; ++i)
+        {
+            if (!m_used[i] && m_commands.get(i).m_line.equals(line))
+            {
+                m_used[i] = true;
+                return m_commands.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static Vector<Command> read(File file) throws IOException
+    {
+        Vector<Command> commands = new Vector<Command>();
+        DataInputStream in = new DataInputStream
+            (new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != SessionRecorder.MAGIC)
+                throw new IOException(file + " is not a session log");
+            Command command = null;
+            while (true)
+            {
+                int type;
+                try {
+                    type = in.readUnsignedByte();
+                }
+                catch (EOFException e)
+                {
+                    break;
+                }
+                long time = SessionRecorder.readVarLong(in);
+                byte data[] = new byte[(int)SessionRecorder.readVarLong(in)];
+                in.readFully(data);
+                if (type == SessionRecorder.COMMAND)
+                {
+                    command = new Command(new String(data).trim(), time);
+                    commands.add(command);
+                }
+                else if (type == SessionRecorder.RESPONSE && command != null)
+                {
+                    command.m_times.add(Long.valueOf(time));
+                    command.m_blocks.add(data);
+                }
+            }
+        }
+        catch (EOFException e)
+        {
+            // the log was cut off in the middle of a record
+        }
+        finally
+        {
+            in.close();
+        }
+        return commands;
+    }
+
+    private static final int PIPE_SIZE = 1 << 16;
+
+    private final boolean m_realTime;
+    private final Vector<Command> m_commands;
+    private final boolean m_used[];
+
+    /** Index of the first unused command. */
+    private int m_first;
+
+    /** Streams the engine reads commands from and writes responses
+        to. */
+    private final InputStream m_in;
+    private final OutputStream m_out;
+
+    /** The other ends of the pipes; null if run with main(). */
+    private final PipedInputStream m_toGui;
+    private final PipedOutputStream m_fromGui;
+}
+
+//----------------------------------------------------------------------------
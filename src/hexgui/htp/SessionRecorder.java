@@ -0,0 +1,188 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.htp;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+//----------------------------------------------------------------------------
+
+/** Writes the traffic with an engine to a session log.
+
+    <p>The log is a binary file: a magic number, then one record per
+    command line sent and per block of response bytes received.  Each
+    record is a type byte (<code>'C'</code> or <code>'R'</code>), the
+    microseconds since recording started and the length of the data,
+    both as variable-length integers, and the data.  Comment and empty
+    command lines are not recorded.  See ReplayEngine for playing a
+    log back.  Thread-safe.
+*/
+public class SessionRecorder
+{
+    public static final int MAGIC = 0x48545031;  // "HTP1"
+
+    public static final byte COMMAND = 'C';
+
+    public static final byte RESPONSE = 'R';
+
+    public SessionRecorder(File file) throws IOException
+    {
+        m_file = file;
+        m_out = new DataOutputStream
+            (new BufferedOutputStream(new FileOutputStream(file)));
+        m_out.writeInt(MAGIC);
+        m_start = System.nanoTime();
+    }
+
+    public File getFile() { return m_file; }
+
+    /** Returns a stream that records the command lines written to it
+        before passing them on. */
+    public OutputStream recordCommands(OutputStream out)
+    {
+        return new FilterOutputStream(out)
+            {
+                public void write(int b) throws IOException
+                {
+                    out.write(b);
+                    if (b == '\n')
+                        command();
+                    else
+                        m_line.write(b);
+                }
+
+                public void write(byte b[], int off, int len)
+                    throws IOException
+                {
+                    out.write(b, off, len);
+                    int start = off;
+                    for (int i = off; i < off + len; ++i)
+                    {
+                        if (b[i] == '\n')
+                        {
+                            m_line.write(b, start, i - start);
+                            command();
+                            start = i + 1;
+                        }
+                    }
+                    m_line.write(b, start, off + len - start);
+                }
+
+                private void command()
+                {
+                    byte line[] = m_line.toByteArray();
+                    m_line.reset();
+                    String s = new String(line).trim();
+                    if (!s.equals("") && !s.startsWith("#"))
+                        record(COMMAND, line, 0, line.length);
+                }
+
+                private final ByteArrayOutputStream m_line
+                    = new ByteArrayOutputStream();
+            };
+    }
+
+    /** Returns a stream that records the bytes read from it. */
+    public InputStream recordResponses(InputStream in)
+    {
+        return new FilterInputStream(in)
+            {
+                public int read() throws IOException
+                {
+                    int b = in.read();
+                    if (b >= 0)
+                        record(RESPONSE, new byte[] { (byte)b }, 0, 1);
+                    return b;
+                }
+
+                public int read(byte b[], int off, int len)
+                    throws IOException
+                {
+                    int n = in.read(b, off, len);
+                    if (n > 0)
+                        record(RESPONSE, b, off, n);
+                    return n;
+                }
+            };
+    }
+
+    public synchronized void close()
+    {
+        if (m_out == null)
+            return;
+        try {
+            m_out.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println(m_file + ": " + e.getMessage());
+        }
+        m_out = null;
+    }
+
+    //------------------------------------------------------------
+
+    /** Appends a record and flushes, so that the log is complete up
+        to the last record if HexGui is killed.  Write errors stop the
+        recording, but not the session. */
+    private synchronized void record(byte type, byte data[], int off,
+                                     int len)
+    {
+        if (m_out == null)
+            return;
+        try {
+            m_out.writeByte(type);
+            writeVarLong(m_out, (System.nanoTime() - m_start) / 1000);
+            writeVarLong(m_out, len);
+            m_out.write(data, off, len);
+            m_out.flush();
+        }
+        catch (IOException e)
+        {
+            System.out.println(m_file + ": " + e.getMessage()
+                               + ", recording stopped.");
+            close();
+        }
+    }
+
+    static void writeVarLong(DataOutputStream out, long v)
+        throws IOException
+    {
+        while ((v & ~0x7fL) != 0)
+        {
+            out.writeByte((int)((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int)v);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException
+    {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7)
+        {
+            int b = in.readUnsignedByte();
+            v |= (long)(b & 0x7f) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+        throw new IOException("Invalid number in session log");
+    }
+
+    private final File m_file;
+    private final long m_start;
+    private DataOutputStream m_out;
+}
+
+//----------------------------------------------------------------------------
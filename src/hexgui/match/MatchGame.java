@@ -0,0 +1,383 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.match;
+
+import hexgui.game.GameInfo;
+import hexgui.game.Node;
+import hexgui.gui.Program;
+import hexgui.hex.Board;
+import hexgui.hex.HexColor;
+import hexgui.hex.HexPoint;
+import hexgui.hex.Move;
+import hexgui.htp.EnginePool;
+import hexgui.htp.EngineWatchdog;
+import hexgui.htp.HtpController;
+import hexgui.htp.HtpError;
+import hexgui.sgf.SgfWriter;
+import hexgui.util.ProcessUtil;
+import hexgui.util.ProcessLauncher;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+//----------------------------------------------------------------------------
+
+/** A single engine-vs-engine game.
+
+    <p>Starts a fresh process for each of the two programs, each with
+    its own HtpController, plays the opening moves and then alternates
+    genmove/play until the model board reports a winner, a program
+    resigns, or a program fails to produce a legal move (which counts
+    as a forfeit).
+*/
+public class MatchGame
+    implements Runnable
+{
+    /** How the game ended. */
+    public enum Reason
+    {
+        CONNECTION,
+
+        RESIGN,
+
+        FORFEIT
+    }
+
+    public MatchGame(Tournament tournament, int number,
+                     Program black, Program white, Dimension size,
+                     Vector<Move> opening)
+    {
+        m_tournament = tournament;
+        m_number = number;
+        m_black = black;
+        m_white = white;
+        m_size = size;
+        m_opening = opening;
+        m_moves = new Vector<Move>();
+        m_winner = HexColor.EMPTY;
+    }
+
+    public int getNumber() { return m_number; }
+
+    public Program getBlack() { return m_black; }
+
+    public Program getWhite() { return m_white; }
+
+    public Program getPlayer(HexColor color)
+    {
+        return (color == HexColor.BLACK) ? m_black : m_white;
+    }
+
+    /** Returns the winning color, or EMPTY if the game was not
+        finished because a program could not be started. */
+    public HexColor getWinner() { return m_winner; }
+
+    public Reason getReason() { return m_reason; }
+
+    public Vector<Move> getMoves() { return m_moves; }
+
+    public void run()
+    {
+        Engine black = null;
+        Engine white = null;
+        try {
+            black = new Engine(m_black);
+            white = new Engine(m_white);
+            play(black, white);
+        }
+        catch (IOException e)
+        {
+            System.err.println("game " + m_number + ": " + e.getMessage());
+        }
+        finally
+        {
+            if (black != null)
+                black.close();
+            if (white != null)
+                white.close();
+        }
+        m_tournament.gameFinished(this);
+    }
+
+    /** Writes the game to the given file. */
+    public void writeSgf(File file) throws IOException
+    {
+        Node root = new Node();
+        root.setSgfProperty("PB", m_black.m_name);
+        root.setSgfProperty("PW", m_white.m_name);
+        root.setSgfProperty("GN", Integer.toString(m_number));
+        if (m_winner != HexColor.EMPTY)
+        {
+            String result = (m_winner == HexColor.BLACK) ? "B+" : "W+";
+            if (m_reason == Reason.RESIGN)
+                result += "Resign";
+            else if (m_reason == Reason.FORFEIT)
+                result += "Forfeit";
+            root.setSgfProperty("RE", result);
+        }
+        Node node = root;
+        for (int i = 0; i < m_moves.size(); ++i)
+        {
+            Node child = new Node(m_moves.get(i));
+            node.addChild(child);
+            node = child;
+        }
+        GameInfo info = new GameInfo();
+        info.setBoardSize(m_size);
+        new SgfWriter(new FileOutputStream(file), root, info);
+    }
+
+    //------------------------------------------------------------
+
+    private void play(Engine black, Engine white)
+    {
+        Board board = new Board(m_size);
+        String boardsize = "boardsize " + m_size.width + " "
+            + m_size.height + "\n";
+        if (!black.send(boardsize) || !black.send("clear_board\n"))
+        {
+            finish(HexColor.WHITE, Reason.FORFEIT);
+            return;
+        }
+        if (!white.send(boardsize) || !white.send("clear_board\n"))
+        {
+            finish(HexColor.BLACK, Reason.FORFEIT);
+            return;
+        }
+
+        HexColor toMove = HexColor.BLACK;
+        for (int i = 0; i < m_opening.size(); ++i)
+        {
+            Move move = new Move(m_opening.get(i).getPoint(), toMove);
+            if (!board.isLegal(move))
+            {
+                System.err.println("game " + m_number
+                                   + ": illegal opening move " + move);
+                break;
+            }
+            board.play(move);
+            m_moves.add(move);
+            if (!tell(black, board, move))
+            {
+                finish(HexColor.WHITE, Reason.FORFEIT);
+                return;
+            }
+            if (!tell(white, board, move))
+            {
+                finish(HexColor.BLACK, Reason.FORFEIT);
+                return;
+            }
+            toMove = toMove.otherColor();
+        }
+
+        while (board.getWinner() == HexColor.EMPTY && !board.isFull())
+        {
+            Engine player = (toMove == HexColor.BLACK) ? black : white;
+            Engine other = (toMove == HexColor.BLACK) ? white : black;
+            Move move = genmove(player, toMove);
+            if (move == null || !board.isLegal(move))
+            {
+                finish(toMove.otherColor(), Reason.FORFEIT);
+                return;
+            }
+            m_moves.add(move);
+            if (move.getPoint() == HexPoint.RESIGN
+                || move.getPoint() == HexPoint.FORFEIT)
+            {
+                finish(toMove.otherColor(), Reason.RESIGN);
+                return;
+            }
+            board.play(move);
+            if (!tell(other, board, move))
+            {
+                finish(toMove, Reason.FORFEIT);
+                return;
+            }
+            toMove = toMove.otherColor();
+        }
+        finish(board.getWinner(), Reason.CONNECTION);
+    }
+
+    private Move genmove(Engine engine, HexColor color)
+    {
+        if (!engine.send("genmove " + color.toString() + "\n"))
+            return null;
+        String response = engine.getResponse().trim();
+        if (response.equalsIgnoreCase("swap"))
+            return new Move(HexPoint.SWAP_PIECES, color);
+        HexPoint point = null;
+        try {
+            point = HexPoint.get(response);
+        }
+        catch (AssertionError e)
+        {
+        }
+        if (point == null)
+        {
+            System.err.println("game " + m_number + ": " + engine.m_name
+                               + " played invalid move '" + response + "'");
+            return null;
+        }
+        return new Move(point, color);
+    }
+
+    /** Passes a move on to an engine.  There is no HTP command for
+        swap-pieces, so after a swap the engine's board is set up
+        again from scratch. */
+    private boolean tell(Engine engine, Board board, Move move)
+    {
+        if (move.getPoint() != HexPoint.SWAP_PIECES)
+            return engine.send("play " + move.getColor() + " "
+                               + move.getPoint() + "\n");
+        if (!engine.send("clear_board\n"))
+            return false;
+        for (int y = 0; y < m_size.height; ++y)
+        {
+            for (int x = 0; x < m_size.width; ++x)
+            {
+                HexPoint p = HexPoint.get(x, y);
+                HexColor c = board.getColor(p);
+                if (c != HexColor.EMPTY
+                    && !engine.send("play " + c + " " + p + "\n"))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private void finish(HexColor winner, Reason reason)
+    {
+        m_winner = winner;
+        m_reason = reason;
+    }
+
+    //------------------------------------------------------------
+
+    /** A program's process and the controller talking to it. */
+    private class Engine
+        implements HtpController.IOInterface, HtpController.GuiFxCallback,
+                   EngineWatchdog.Watched
+    {
+        public Engine(Program program) throws IOException
+        {
+            m_name = program.m_name;
+            EnginePool pool = m_tournament.getEnginePool();
+            EnginePool.Instance instance = null;
+            if (pool != null)
+                instance = pool.take(program.m_command, program.m_working,
+                                     program.m_environment);
+            if (instance != null)
+                m_process = instance.getProcess();
+            else
+                m_process = ProcessLauncher.start(program.m_command,
+                                                  program.m_working,
+                                                  program.m_environment,
+                                                  null);
+            m_controller = new HtpController(m_process.getInputStream(),
+                                             m_process.getOutputStream(),
+                                             this, this);
+            if (m_tournament.getWatchdog() != null)
+                m_tournament.getWatchdog().watch(this);
+        }
+
+        /** Sends a command.
+            @return false if the command failed or the engine died. */
+        public boolean send(String cmd)
+        {
+            m_started = System.currentTimeMillis();
+            m_current = cmd;
+            try {
+                m_controller.sendCommand(cmd);
+            }
+            catch (HtpError e)
+            {
+                System.err.println("game " + m_number + ": " + m_name
+                                   + ": " + e.getMessage());
+                return false;
+            }
+            finally
+            {
+                m_current = null;
+            }
+            if (!m_controller.connected())
+                return false;
+            if (!m_controller.wasSuccess())
+            {
+                System.err.println("game " + m_number + ": " + m_name
+                                   + ": '" + cmd.trim() + "' failed: "
+                                   + m_controller.getResponse().trim());
+                return false;
+            }
+            return true;
+        }
+
+        public String getResponse()
+        {
+            return m_controller.getResponse();
+        }
+
+        public void close()
+        {
+            if (m_tournament.getWatchdog() != null)
+                m_tournament.getWatchdog().unwatch(this);
+            if (m_controller.connected())
+            {
+                try {
+                    m_controller.sendCommand("quit\n");
+                }
+                catch (HtpError e)
+                {
+                }
+            }
+            if (!ProcessUtil.waitForExit(m_process, QUIT_TIMEOUT))
+                m_process.destroy();
+        }
+
+        public void sentCommand(String str) { }
+        public void receivedResponse(String str) { }
+        public void receivedError(String str) { }
+        public void guifx(String cmd) { }
+
+        /** EngineWatchdog.Watched */
+        public String getCurrentCommand() { return m_current; }
+
+        public long getCommandStarted() { return m_started; }
+
+        public void interrupt() { m_controller.interrupt(); }
+
+        /** Makes the command in progress fail, so the engine forfeits
+            the game. */
+        public void kill() { m_process.destroyForcibly(); }
+
+        public String toString()
+        {
+            return "game " + m_number + ": " + m_name;
+        }
+
+        private final String m_name;
+        private final Process m_process;
+        private final HtpController m_controller;
+        private volatile String m_current;
+        private volatile long m_started;
+    }
+
+    private static final long QUIT_TIMEOUT = 5000;
+
+    private final Tournament m_tournament;
+    private final int m_number;
+    private final Program m_black;
+    private final Program m_white;
+    private final Dimension m_size;
+    private final Vector<Move> m_opening;
+    private final Vector<Move> m_moves;
+
+    private HexColor m_winner;
+    private Reason m_reason;
+}
+
+//----------------------------------------------------------------------------
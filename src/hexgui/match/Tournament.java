@@ -0,0 +1,319 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.match;
+
+import hexgui.game.Node;
+import hexgui.gui.Program;
+import hexgui.hex.HexColor;
+import hexgui.hex.Move;
+import hexgui.htp.EnginePool;
+import hexgui.htp.EngineWatchdog;
+import hexgui.sgf.SgfReader;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+//----------------------------------------------------------------------------
+
+/** Headless engine-vs-engine tournament.
+
+    <p>Schedules round-robin or gauntlet games between programs and
+    plays up to a given number of them concurrently.  Every pairing
+    plays each opening twice, once with each program as black.  Each
+    finished game is written to the output directory as SGF, and a
+    score table with Elo differences is written when all games are
+    done.
+*/
+public class Tournament
+{
+    public enum Mode
+    {
+        /** Every program plays every other program. */
+        ROUND_ROBIN,
+
+        /** The first program plays every other program. */
+        GAUNTLET
+    }
+
+    /** Constructor.
+        @param openings list of openings; an empty list plays every
+        game from the empty board.
+        @param rounds number of times each pairing plays each opening
+        with each color.
+        @param parallel number of games played at the same time.
+        @param outdir directory for the SGF files and summary; null
+        to write nothing. */
+    public Tournament(Vector<Program> players, Mode mode, Dimension size,
+                      Vector<Vector<Move>> openings, int rounds,
+                      int parallel, File outdir)
+    {
+        m_players = players;
+        m_mode = mode;
+        m_size = size;
+        m_openings = openings;
+        if (m_openings.isEmpty())
+            m_openings.add(new Vector<Move>());
+        m_rounds = rounds;
+        m_parallel = Math.max(1, parallel);
+        m_outdir = outdir;
+        int n = players.size();
+        m_wins = new int[n][n];
+        m_games = new Vector<MatchGame>();
+    }
+
+    /** Kills engines that hang in a command, making them forfeit the
+        game.  Must be called before run(). */
+    public void setWatchdog(EngineWatchdog watchdog)
+    {
+        m_watchdog = watchdog;
+    }
+
+    /** Null if no watchdog was set. */
+    EngineWatchdog getWatchdog() { return m_watchdog; }
+
+    /** Takes the engines for the games from a pool of pre-started
+        instances.  Must be called before run(). */
+    public void setEnginePool(EnginePool pool)
+    {
+        m_pool = pool;
+    }
+
+    /** Null if no pool was set. */
+    EnginePool getEnginePool() { return m_pool; }
+
+    /** Plays all games and blocks until they are finished. */
+    public void run() throws InterruptedException
+    {
+        schedule();
+        System.err.println("Playing " + m_games.size() + " games, "
+                           + m_parallel + " at a time.");
+        ExecutorService pool = Executors.newFixedThreadPool(m_parallel);
+        for (MatchGame game : m_games)
+            pool.execute(game);
+        pool.shutdown();
+        while (!pool.awaitTermination(1, TimeUnit.MINUTES))
+            ;
+        printSummary(System.out);
+        if (m_outdir != null)
+        {
+            File file = new File(m_outdir, "summary.txt");
+            try {
+                PrintStream out = new PrintStream(new FileOutputStream(file));
+                printSummary(out);
+                out.close();
+            }
+            catch (IOException e)
+            {
+                System.err.println(file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** Called by each game from its worker thread when it is done. */
+    synchronized void gameFinished(MatchGame game)
+    {
+        ++m_numFinished;
+        HexColor winner = game.getWinner();
+        if (winner == HexColor.EMPTY)
+        {
+            System.err.println("game " + game.getNumber() + " not played ("
+                               + m_numFinished + "/" + m_games.size() + ")");
+            return;
+        }
+        int w = m_players.indexOf(game.getPlayer(winner));
+        int l = m_players.indexOf(game.getPlayer(winner.otherColor()));
+        ++m_wins[w][l];
+        System.err.println("game " + game.getNumber() + ": "
+                           + game.getBlack() + " - " + game.getWhite()
+                           + ": " + winner + " wins by "
+                           + game.getReason().toString().toLowerCase()
+                           + " (" + m_numFinished + "/" + m_games.size()
+                           + ")");
+        if (m_outdir != null)
+        {
+            File file = new File(m_outdir, String.format("game-%04d.sgf",
+                                                         game.getNumber()));
+            try {
+                game.writeSgf(file);
+            }
+            catch (IOException e)
+            {
+                System.err.println(file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /** Prints the score of every program and every pairing, with the
+        Elo difference implied by the score. */
+    public synchronized void printSummary(PrintStream out)
+    {
+        int n = m_players.size();
+        out.println("Program                 Games   Wins  Score     Elo");
+        for (int i = 0; i < n; ++i)
+        {
+            int wins = 0;
+            int games = 0;
+            for (int j = 0; j < n; ++j)
+            {
+                wins += m_wins[i][j];
+                games += m_wins[i][j] + m_wins[j][i];
+            }
+            out.println(String.format("%-22s %6d %6d %5s %7s",
+                                      m_players.get(i).m_name, games, wins,
+                                      percent(wins, games),
+                                      elo(wins, games)));
+        }
+        out.println();
+        for (int i = 0; i < n; ++i)
+        {
+            for (int j = i + 1; j < n; ++j)
+            {
+                int games = m_wins[i][j] + m_wins[j][i];
+                if (games == 0)
+                    continue;
+                out.println(String.format("%s - %s: %d-%d %s, Elo %s",
+                                          m_players.get(i).m_name,
+                                          m_players.get(j).m_name,
+                                          m_wins[i][j], m_wins[j][i],
+                                          percent(m_wins[i][j], games),
+                                          elo(m_wins[i][j], games)));
+            }
+        }
+    }
+
+    /** Reads the main line of every SGF file in the given directory
+        (or the single given file) as an opening.  Files for a
+        different board size are skipped. */
+    public static Vector<Vector<Move>> loadOpenings(File file,
+                                                    Dimension size)
+    {
+        Vector<Vector<Move>> openings = new Vector<Vector<Move>>();
+        File files[];
+        if (file.isDirectory())
+        {
+            files = file.listFiles();
+            Arrays.sort(files);
+        }
+        else
+            files = new File[] { file };
+        for (File f : files)
+        {
+            if (file.isDirectory() && !f.getName().endsWith(".sgf"))
+                continue;
+            try {
+                SgfReader reader;
+                FileInputStream in = new FileInputStream(f);
+                try {
+                    reader = new SgfReader(in);
+                }
+                finally {
+                    in.close();
+                }
+                Dimension dim = reader.getGameInfo().getBoardSize();
+                if (dim != null && !dim.equals(size))
+                {
+                    System.err.println(f + ": wrong board size, skipped.");
+                    continue;
+                }
+                Vector<Move> moves = new Vector<Move>();
+                for (Node node = reader.getGameTree(); node != null;
+                     node = node.getChild())
+                {
+                    if (node.hasMove())
+                        moves.add(node.getMove());
+                }
+                openings.add(moves);
+            }
+            catch (SgfReader.SgfError e)
+            {
+                System.err.println(f + ": " + e.getMessage());
+            }
+            catch (IOException e)
+            {
+                System.err.println(f + ": " + e.getMessage());
+            }
+        }
+        return openings;
+    }
+
+    //------------------------------------------------------------
+
+    private void schedule()
+    {
+        int n = m_players.size();
+        for (int i = 0; i < n; ++i)
+        {
+            for (int j = i + 1; j < n; ++j)
+            {
+                if (m_mode == Mode.GAUNTLET && i != 0)
+                    continue;
+                Program a = m_players.get(i);
+                Program b = m_players.get(j);
+                for (int r = 0; r < m_rounds; ++r)
+                {
+                    for (Vector<Move> opening : m_openings)
+                    {
+                        addGame(a, b, opening);
+                        addGame(b, a, opening);
+                    }
+                }
+            }
+        }
+    }
+
+    private void addGame(Program black, Program white, Vector<Move> opening)
+    {
+        m_games.add(new MatchGame(this, m_games.size() + 1, black, white,
+                                  m_size, opening));
+    }
+
+    private static String percent(int wins, int games)
+    {
+        if (games == 0)
+            return "-";
+        return String.format("%.1f%%", 100.0 * wins / games);
+    }
+
+    /** Elo difference for the given score, -400 * log10(1/p - 1). */
+    private static String elo(int wins, int games)
+    {
+        if (games == 0)
+            return "-";
+        if (wins == 0)
+            return "-inf";
+        if (wins == games)
+            return "+inf";
+        double p = (double)wins / games;
+        long d = Math.round(-400.0 * Math.log10(1.0 / p - 1.0));
+        return (d == 0) ? "0" : String.format("%+d", d);
+    }
+
+    private final Vector<Program> m_players;
+    private final Mode m_mode;
+    private final Dimension m_size;
+    private final Vector<Vector<Move>> m_openings;
+    private final int m_rounds;
+    private final int m_parallel;
+    private final File m_outdir;
+
+    private final Vector<MatchGame> m_games;
+    private EngineWatchdog m_watchdog;
+    private EnginePool m_pool;
+
+    /** m_wins[i][j] is the number of wins of player i against j. */
+    private final int m_wins[][];
+    private int m_numFinished;
+}
+
+//----------------------------------------------------------------------------
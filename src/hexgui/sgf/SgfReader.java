@@ -272,6 +272,10 @@ public final class SgfReader
             else if (name.equals("LB")) {
                 node.addLabel(val);
             }
+            else if (name.equals("HXA")) {
+                if (!node.addAnalysisValue(val))
+                    sgfWarning("Ignoring unknown analysis format.");
+            }
             else if (name.equals("FF")) {
                 node.setSgfProperty(name, val);
                 x = parseInt(val);
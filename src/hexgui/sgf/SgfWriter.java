@@ -27,8 +27,18 @@ public final class SgfWriter
     
     /** Write a game tree. */
     public SgfWriter(OutputStream out, Node root, GameInfo game)
+    {
+        this(out, root, game, false);
+    }
+
+    /** Write a game tree.
+        @param analysis true to also write the analysis attached to
+        the nodes, as private property HXA. */
+    public SgfWriter(OutputStream out, Node root, GameInfo game,
+                     boolean analysis)
     {
 	m_out = new PrintStream(out);
+        m_analysis = analysis;
 	m_buffer = new StringBuffer(128);
 	m_gameinfo = game;
 
@@ -84,6 +94,14 @@ public final class SgfWriter
                 print(e.getKey() + "[" + val + "]");
             }
 	}
+
+        if (m_analysis && node.hasAnalysis()) {
+            print("HXA");
+            Vector<String> values = node.getAnalysisValues();
+            for (int i=0; i<values.size(); ++i) {
+                print("[" + values.get(i) + "]");
+            }
+        }
 	
         if (node.hasSetup()) {
             Vector<HexPoint> list;
@@ -172,6 +190,7 @@ public final class SgfWriter
     private PrintStream m_out;
     private StringBuffer m_buffer;
     private GameInfo m_gameinfo;
+    private boolean m_analysis;
 }
 
 //----------------------------------------------------------------------------
@@ -0,0 +1,122 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+//----------------------------------------------------------------------------
+
+/** Starts external programs such as Hex engines. */
+public final class ProcessLauncher
+{
+    /** Starts a program.
+        @param command the command line, split into arguments as by
+        StringUtils.splitArguments().
+        @param working the working directory; empty for the current
+        one.
+        @param environment variables to add to the environment, as
+        <code>NAME=value</code> words split like the command line;
+        may be null.
+        @param log receives the program's standard error; null to
+        discard it.
+        @throws IOException if the working directory does not exist
+        or the program cannot be started. */
+    public static Process start(String command, String working,
+                                String environment, RingLog log)
+        throws IOException
+    {
+        File directory = null;
+        if (working != null && !working.trim().equals(""))
+        {
+            directory = new File(working.trim());
+            if (!directory.isDirectory())
+                throw new IOException("Invalid working directory: '"
+                                      + directory + "'");
+        }
+        String[] cmdArray = StringUtils.splitArguments(command);
+        if (cmdArray.length == 0)
+            throw new IOException("Empty command");
+        // Make the executable absolute if it names a file, so that it
+        // is found whether it is given relative to the working
+        // directory or to the current one.  Executables in the path
+        // are left alone.
+        File file = resolve(cmdArray[0], directory);
+        if (file != null)
+            cmdArray[0] = file.getAbsolutePath();
+
+        ProcessBuilder builder = new ProcessBuilder(cmdArray);
+        builder.directory(directory);
+        if (environment != null)
+        {
+            Map<String, String> env = builder.environment();
+            for (String var : StringUtils.splitArguments(environment))
+            {
+                int eq = var.indexOf('=');
+                if (eq <= 0)
+                    throw new IOException("Invalid environment variable: '"
+                                          + var + "'");
+                env.put(var.substring(0, eq), var.substring(eq + 1));
+            }
+        }
+        if (log == null)
+            builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process process = builder.start();
+        if (log != null)
+            new StreamLogger(process.getErrorStream(), log).start();
+        return process;
+    }
+
+    /** Returns the executable file a command would run, looking in
+        the working directory, the current directory and the
+        directories of the PATH environment variable.
+        @return the file, or null if it cannot be found. */
+    public static File findExecutable(String command, String working)
+    {
+        String[] cmdArray = StringUtils.splitArguments(command);
+        if (cmdArray.length == 0)
+            return null;
+        File directory = null;
+        if (working != null && !working.trim().equals(""))
+            directory = new File(working.trim());
+        File file = resolve(cmdArray[0], directory);
+        if (file != null || cmdArray[0].indexOf(File.separatorChar) >= 0)
+            return file;
+        String path = System.getenv("PATH");
+        if (path == null)
+            return null;
+        for (String dir : path.split(File.pathSeparator))
+        {
+            file = new File(dir, cmdArray[0]);
+            if (file.isFile())
+                return file.getAbsoluteFile();
+        }
+        return null;
+    }
+
+    //------------------------------------------------------------
+
+    /** Returns the file an executable name refers to relative to the
+        working directory or the current one, or null if it names no
+        file there. */
+    private static File resolve(String name, File directory)
+    {
+        File file = new File(name);
+        if (directory != null && !file.isAbsolute()
+            && new File(directory, name).exists())
+            return new File(directory, name).getAbsoluteFile();
+        if (file.exists())
+            return file.getAbsoluteFile();
+        return null;
+    }
+
+    /** Make constructor unavailable; class is for namespace only. */
+    private ProcessLauncher()
+    {
+    }
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,87 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.util;
+
+//----------------------------------------------------------------------------
+
+/** Text log that keeps only the most recent characters.
+
+    <p>Appending never blocks for longer than a copy into a fixed
+    array, so a program writing to the log is not slowed down by
+    whoever reads it.  Once the log is full, the oldest text is
+    overwritten.  Thread-safe.
+*/
+public final class RingLog
+{
+    /** @param capacity maximum number of characters kept. */
+    public RingLog(int capacity)
+    {
+        m_buffer = new char[Math.max(1, capacity)];
+    }
+
+    public synchronized void append(char buffer[], int off, int len)
+    {
+        m_total += len;
+        int capacity = m_buffer.length;
+        if (len >= capacity)
+        {
+            System.arraycopy(buffer, off + len - capacity, m_buffer, 0,
+                             capacity);
+            m_end = 0;
+            m_size = capacity;
+            return;
+        }
+        int first = Math.min(len, capacity - m_end);
+        System.arraycopy(buffer, off, m_buffer, m_end, first);
+        System.arraycopy(buffer, off + first, m_buffer, 0, len - first);
+        m_end = (m_end + len) % capacity;
+        m_size = Math.min(capacity, m_size + len);
+    }
+
+    /** Returns the text kept.  If older text was dropped, the text
+        starts at the first complete line. */
+    public synchronized String getText()
+    {
+        int capacity = m_buffer.length;
+        int start = (m_end - m_size + capacity) % capacity;
+        StringBuilder text = new StringBuilder(m_size);
+        if (start + m_size <= capacity)
+            text.append(m_buffer, start, m_size);
+        else
+        {
+            text.append(m_buffer, start, capacity - start);
+            text.append(m_buffer, 0, m_end);
+        }
+        if (m_total > m_size)
+        {
+            int newline = text.indexOf("\n");
+            if (newline >= 0)
+                text.delete(0, newline + 1);
+        }
+        return text.toString();
+    }
+
+    /** Number of characters appended since creation or the last
+        clear(), including those that were dropped.  Can be used to
+        tell whether the log changed. */
+    public synchronized long getTotal()
+    {
+        return m_total;
+    }
+
+    public synchronized void clear()
+    {
+        m_end = 0;
+        m_size = 0;
+        m_total = 0;
+    }
+
+    private final char m_buffer[];
+    private int m_end;
+    private int m_size;
+    private long m_total;
+}
+
+//----------------------------------------------------------------------------
@@ -0,0 +1,57 @@
+//----------------------------------------------------------------------------
+// $Id$
+//----------------------------------------------------------------------------
+
+package hexgui.util;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.Reader;
+
+//----------------------------------------------------------------------------
+
+/** Daemon thread draining a stream into a RingLog.
+
+    <p>Reads in large blocks and never waits for anyone, so a program
+    writing diagnostics to the stream is not throttled by its pipe.
+*/
+public class StreamLogger
+    extends Thread
+{
+    public StreamLogger(InputStream src, RingLog log)
+    {
+        super("stream-logger");
+        setDaemon(true);
+        m_src = new InputStreamReader(src);
+        m_log = log;
+    }
+
+    /** Run method.  Ends quietly if the stream is closed, as happens
+        when the program is killed. */
+    public void run()
+    {
+        try
+        {
+            char buffer[] = new char[BUFFER_SIZE];
+            while (true)
+            {
+                int n = m_src.read(buffer);
+                if (n < 0)
+                    break;
+                m_log.append(buffer, 0, n);
+            }
+        }
+        catch (IOException e)
+        {
+        }
+    }
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private final Reader m_src;
+
+    private final RingLog m_log;
+}
+
+//----------------------------------------------------------------------------